@@ -0,0 +1,111 @@
+package chip8.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import chip8.GFX;
+import chip8.Memory;
+
+/**
+ * Sprite drawing with different sprite heights & positions (wrapping around right and bottom edge too), screen scrolling
+ * and handing frames over to render thread, in low & SUPER-CHIP high resolution
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GfxBenchmark {
+
+    /**
+     * Sprite height (N of DXYN)
+     */
+    @Param({"1", "5", "15"})
+    public int height;
+
+    /**
+     * Sprite position, "x,y" (60,28 wraps around both edges)
+     */
+    @Param({"0,0", "28,12", "60,28"})
+    public String position;
+
+    /**
+     * Screen resolution, "width x height"
+     */
+    @Param({"64x32", "128x64"})
+    public String resolution;
+
+    private Memory mem;
+    private GFX gfx;
+
+    @Setup
+    public void setup() {
+        mem = new Memory();
+        gfx = new GFX(mem);
+
+        String[] size = resolution.split("x");
+        gfx.setResolution(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+
+        //sprite data right after font
+        mem.I = 0x200;
+        for(int i = 0; i < 15; i++)
+            mem.memory[mem.I + i] = (byte) (0xA5 ^ (i * 0x11));
+
+        String[] xy = position.split(",");
+        mem.V[0] = (byte) Integer.parseInt(xy[0]);
+        mem.V[1] = (byte) Integer.parseInt(xy[1]);
+    }
+
+    /**
+     * DXYN, drawing same sprite again erases it so screen doesn't fill up
+     */
+    @Benchmark
+    public byte draw() {
+        gfx.draw(0, 1, height);
+        return mem.V[15];
+    }
+
+    /**
+     * 00FB & 00FC (scroll right & left by 4 pixels) and 00C1 (scroll down by 1 row) of screen with sprite on it
+     */
+    @Benchmark
+    public byte scroll() {
+        gfx.draw(0, 1, height);
+        gfx.scrollRight(4);
+        gfx.scrollLeft(4);
+        gfx.scrollDown(1);
+        return mem.V[15];
+    }
+
+    /**
+     * DXYN followed by render thread grabbing new frame (frame copy into triple buffer + swap)
+     */
+    @Benchmark
+    public boolean drawAndUpdate() {
+        gfx.draw(0, 1, height);
+        return gfx.update();
+    }
+
+    /**
+     * Unpacking frame into legacy boolean[][] view after every new frame
+     */
+    @Benchmark
+    public boolean[][] drawAndGetPixelsBuffer() {
+        gfx.draw(0, 1, height);
+        gfx.update();
+        return gfx.getPixelsBuffer();
+    }
+}
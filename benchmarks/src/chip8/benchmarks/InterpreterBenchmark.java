@@ -0,0 +1,90 @@
+package chip8.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import chip8.CHIP8;
+import chip8.Profiler;
+import chip8.jit.BytecodeBlockCompiler;
+
+/**
+ * Instruction throughput on real roms (game, demo & hires one) in every interpreter mode, with & without profiler
+ * BLOCK mode runs with bytecode block compiler (with profiler attached it falls back to CACHED interpreter)
+ * Timers are driven by executed instructions and FX0A doesn't block, so runs don't depend on host clock nor input
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    /**
+     * Amount of instructions executed by one runCycles() invocation
+     */
+    private static final int BATCH = 1000;
+
+    @Param({
+            "games/Brix [Andreas Gustafsson, 1990].ch8",
+            "demos/Trip8 Demo (2008) [Revival Studios].ch8",
+            "hires/Hires Particle Demo [zeroZshadow, 2008].ch8"
+    })
+    public String rom;
+
+    @Param({"SWITCH", "CACHED", "BLOCK"})
+    public CHIP8.InterpreterMode mode;
+
+    /**
+     * Run with profiler attached
+     */
+    @Param({"false", "true"})
+    public boolean profiling;
+
+    private CHIP8 chip;
+
+    @Setup
+    public void setup() throws IOException {
+        chip = new CHIP8(42);
+        chip.setInterpreterMode(mode);
+        if(mode == CHIP8.InterpreterMode.BLOCK)
+            chip.setBlockCompiler(new BytecodeBlockCompiler());
+        chip.setTimerMode(CHIP8.TimerMode.CYCLES);
+        chip.setKeyWaitBlocking(false);
+        if(profiling)
+            chip.setProfiler(new Profiler());
+        chip.setVipHires(rom.startsWith("hires/"));
+        chip.load(Roms.read(rom));
+    }
+
+    /**
+     * @return result of step, so it isn't optimized away
+     */
+    @Benchmark
+    public CHIP8.RunResult emulationStep() {
+        return chip.emulationStep();
+    }
+
+    /**
+     * Same instructions run in batches, score is instructions per microsecond
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public CHIP8.RunResult runCycles() {
+        return chip.runCycles(BATCH);
+    }
+}
@@ -0,0 +1,103 @@
+package chip8.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import chip8.CHIP8;
+import chip8.Keyboard;
+
+/**
+ * Key state changes from many threads at once while chip runs, both immediate justSet() and queue() drained by chip between instructions
+ */
+
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardBenchmark {
+
+    private CHIP8 chip;
+    private Keyboard keyboard;
+
+    @Setup
+    public void setup() throws IOException {
+        chip = new CHIP8(42);
+        chip.setTimerMode(CHIP8.TimerMode.CYCLES);
+        chip.setKeyWaitBlocking(false);
+        chip.load(Roms.read("games/Brix [Andreas Gustafsson, 1990].ch8"));
+
+        keyboard = chip.getKeyboard();
+    }
+
+    /**
+     * Per thread key index, so threads don't fight over one key only
+     */
+    @State(Scope.Thread)
+    public static class Key {
+        private static int next;
+        int index;
+
+        @Setup
+        public void setup() {
+            synchronized (Key.class) {
+                index = next++ & 0xF;
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("justSet")
+    @GroupThreads(3)
+    public void justSetPress(Key key) {
+        keyboard.justSet(key.index, (byte) 1);
+        keyboard.justSet(key.index, (byte) 0);
+    }
+
+    @Benchmark
+    @Group("justSet")
+    @GroupThreads(1)
+    public CHIP8.RunResult justSetChip() {
+        return chip.runCycles(100);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(3)
+    public void queuePress(Key key) {
+        keyboard.queue(key.index, (byte) 1);
+        keyboard.queue(key.index, (byte) 0);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public CHIP8.RunResult queueChip() {
+        return chip.runCycles(100);
+    }
+
+    /**
+     * Uncontended justSet() for comparison
+     */
+    @Benchmark
+    @Group("single")
+    @GroupThreads(1)
+    public void justSetSingle() {
+        keyboard.justSet(3, (byte) 1);
+        keyboard.justSet(3, (byte) 0);
+    }
+}
@@ -0,0 +1,61 @@
+package chip8.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import chip8.CHIP8;
+
+/**
+ * Loading program into chip (memory copy, listing is disassembled only when asked for) and disassembling whole listing of it
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({
+            "games/Pong [Paul Vervalin, 1990].ch8",
+            "games/Blinky [Hans Christian Egeberg, 1991].ch8"
+    })
+    public String rom;
+
+    private CHIP8 chip;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        chip = new CHIP8(42);
+        data = Roms.read(rom);
+    }
+
+    @Benchmark
+    public CHIP8 load() {
+        chip.load(data);
+        return chip;
+    }
+
+    /**
+     * Load followed by whole listing, lines of same program come from listing cache after the first invocation
+     */
+    @Benchmark
+    public String loadAndList() {
+        chip.load(data);
+        return chip.getProgramInstructions().toString();
+    }
+}
@@ -0,0 +1,44 @@
+package chip8.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers shared by benchmarks, roms are read from roms directory of android assets (working directory of jmh task)
+ */
+
+public class Roms {
+
+    /**
+     * Directory with roms, can be changed with -Dchip8.roms=path
+     */
+    public static final File DIRECTORY = new File(System.getProperty("chip8.roms", "roms"));
+
+    private Roms() {
+    }
+
+    /**
+     * Read rom
+     * @param path path relative to roms directory
+     * @return rom data
+     * @throws IOException if rom can't be read
+     */
+    public static byte[] read(String path) throws IOException {
+        InputStream in = new FileInputStream(new File(DIRECTORY, path));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+
+            int read;
+            while((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package chip8.farm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import chip8.BlockCompiler;
+import chip8.CHIP8;
+import chip8.Faults;
+import chip8.GFX;
+
+/**
+ * Headless batch runner, runs many chip instances (f.e. every rom with many input seeds) on work stealing pool
+ * Every instance runs slice of frames and then yields by forking its continuation, so thousands of instances share pool threads fairly
+ * Instances don't share any mutable state, every job owns its chip, input script and result
+ * Lives outside of core because ForkJoinPool isn't available on every Android version core runs on
+ */
+
+public class RomFarm {
+
+    /**
+     * One chip instance to run
+     */
+    public static class Job {
+        /**
+         * name - name used in results (f.e. rom file name)
+         * rom - program data
+         * seed - seed of scripted input & chip random generator
+         * frames - amount of 60Hz frames to run
+         * vip_hires - rom is VIP two page hires program (see CHIP8.setVipHires())
+         */
+        public final String name;
+        public final byte[] rom;
+        public final long seed;
+        public final int frames;
+        public final boolean vip_hires;
+
+        public Job(String name, byte[] rom, long seed, int frames, boolean vip_hires) {
+            this.name = name;
+            this.rom = rom;
+            this.seed = seed;
+            this.frames = frames;
+            this.vip_hires = vip_hires;
+        }
+    }
+
+    /**
+     * Final state of one job
+     */
+    public static class Result {
+        /**
+         * Job which produced this result
+         */
+        public final Job job;
+
+        /**
+         * framebuffer_hash - hash of final framebuffer (see GFX.getFrameHash())
+         * instruction_count - amount of executed instructions
+         */
+        public long framebuffer_hash, instruction_count;
+
+        /**
+         * Amount of frames actually run (less than job frames only if chip crashed)
+         */
+        public int frames;
+
+        /**
+         * faults - amount of faults of all types recorded by chip (unknown opcodes & invalid memory accesses, see Faults)
+         * halts - amount of frames which ended early with FAULT
+         */
+        public long faults, halts;
+
+        /**
+         * Amount of faults per fault type (indexed by Faults.UNKNOWN_OPCODE etc.)
+         */
+        public final long[] fault_counts = new long[Faults.TYPES];
+
+        /**
+         * Framebuffer hashes taken every checkpoint frames (see setCheckpointFrames()), null if checkpoints are off
+         */
+        public long[] checkpoints;
+
+        /**
+         * Exception thrown by chip (f.e. stack overflow), null if job finished normally
+         */
+        public Throwable error;
+
+        Result(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public String toString() {
+            return job.name + " seed: " + job.seed + " hash: " + String.format("%016x", framebuffer_hash) + " instructions: " + instruction_count
+                    + " frames: " + frames + " faults: " + faults + " halts: " + halts + (error != null ? " error: " + error : "");
+        }
+    }
+
+    /**
+     * Pool running jobs, async mode so forked continuations are queued FIFO behind other instances
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Jobs added since last run()
+     */
+    private ArrayList<Job> jobs;
+
+    /**
+     * Amount of frames run by one instance before it yields
+     */
+    private int slice_frames = 60;
+
+    /**
+     * Amount of instructions per frame of every instance
+     */
+    private int instructions_per_frame = 8;
+
+    /**
+     * Amount of frames between framebuffer checkpoints, 0 = no checkpoints
+     */
+    private int checkpoint_frames;
+
+    /**
+     * Interpreter mode of every instance
+     */
+    private CHIP8.InterpreterMode interpreter_mode = CHIP8.InterpreterMode.BLOCK;
+
+    /**
+     * Compiler of hot blocks used by every instance in BLOCK mode (null = none, BLOCK mode runs like CACHED)
+     */
+    private BlockCompiler block_compiler;
+
+    /**
+     * Construct farm using all available cores
+     */
+    public RomFarm() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct farm
+     * @param parallelism amount of worker threads
+     */
+    public RomFarm(int parallelism) {
+        pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        jobs = new ArrayList<Job>();
+    }
+
+    /**
+     * Add job
+     * @param name name used in results
+     * @param rom program data
+     * @param seed seed of scripted input & chip random generator
+     * @param frames amount of 60Hz frames to run
+     */
+    public void add(String name, byte[] rom, long seed, int frames) {
+        add(name, rom, seed, frames, false);
+    }
+
+    /**
+     * Add job
+     * @param name name used in results
+     * @param rom program data
+     * @param seed seed of scripted input & chip random generator
+     * @param frames amount of 60Hz frames to run
+     * @param vip_hires true for VIP two page hires program (see CHIP8.setVipHires())
+     */
+    public void add(String name, byte[] rom, long seed, int frames, boolean vip_hires) {
+        jobs.add(new Job(name, rom, seed, frames, vip_hires));
+    }
+
+    /**
+     * Run all added jobs and wait for them, added jobs are removed afterwards
+     * @return results in order in which jobs were added
+     * @throws InterruptedException if calling thread was interrupted while waiting
+     */
+    public List<Result> run() throws InterruptedException {
+        Result[] results = new Result[jobs.size()];
+        CountDownLatch done = new CountDownLatch(results.length);
+
+        for(int i = 0; i < results.length; i++) {
+            results[i] = new Result(jobs.get(i));
+            pool.execute(new Slice(new Instance(results[i], done)));
+        }
+        jobs.clear();
+
+        done.await();
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Stop worker threads, farm can't be used after that
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @param slice_frames amount of frames run by one instance before it yields to other ones
+     */
+    public void setSliceFrames(int slice_frames) {
+        this.slice_frames = Math.max(1, slice_frames);
+    }
+
+    /**
+     * @param instructions_per_frame amount of instructions per frame of every instance
+     */
+    public void setInstructionsPerFrame(int instructions_per_frame) {
+        this.instructions_per_frame = instructions_per_frame;
+    }
+
+    /**
+     * @param checkpoint_frames amount of frames between framebuffer hashes stored in Result.checkpoints, 0 turns checkpoints off
+     */
+    public void setCheckpointFrames(int checkpoint_frames) {
+        this.checkpoint_frames = Math.max(0, checkpoint_frames);
+    }
+
+    /**
+     * @param mode interpreter mode of every instance
+     */
+    public void setInterpreterMode(CHIP8.InterpreterMode mode) {
+        this.interpreter_mode = mode;
+    }
+
+    /**
+     * @param compiler compiler of hot blocks used by every instance in BLOCK interpreter mode, it is called from all worker threads
+     */
+    public void setBlockCompiler(BlockCompiler compiler) {
+        this.block_compiler = compiler;
+    }
+
+    /**
+     * Running job, chip and its scripted input, touched by one pool thread at time
+     */
+    private class Instance {
+        private Result result;
+        private CountDownLatch done;
+
+        private CHIP8 chip;
+        private Random input;
+
+        /**
+         * Currently held key (-1 if none) & frame when next input event happens
+         */
+        private int held_key = -1;
+        private int next_event;
+
+        Instance(Result result, CountDownLatch done) {
+            this.result = result;
+            this.done = done;
+        }
+
+        /**
+         * Run up to given amount of frames
+         * @return true if job is finished
+         */
+        boolean runSlice(int frames) {
+            if(chip == null) {
+                chip = new CHIP8();
+                chip.setTimerMode(CHIP8.TimerMode.CYCLES);
+                chip.setKeyWaitBlocking(false);
+                chip.setInterpreterMode(interpreter_mode);
+                chip.setBlockCompiler(block_compiler);
+                chip.setInstructionsPerFrame(instructions_per_frame);
+                chip.setVipHires(result.job.vip_hires);
+                chip.load(result.job.rom, result.job.seed);
+
+                input = new Random(result.job.seed);
+                next_event = input.nextInt(30);
+
+                if(checkpoint_frames > 0)
+                    result.checkpoints = new long[result.job.frames / checkpoint_frames];
+            }
+
+            int end = Math.min(result.job.frames, result.frames + frames);
+            while(result.frames < end) {
+                scriptInput();
+
+                if(chip.runUntilFrame() == CHIP8.RunResult.FAULT)
+                    result.halts++;
+
+                result.frames++;
+
+                if(checkpoint_frames > 0 && result.frames % checkpoint_frames == 0) {
+                    GFX gfx = chip.getGFX();
+                    gfx.update();
+
+                    result.checkpoints[result.frames / checkpoint_frames - 1] = gfx.getFrameHash();
+                }
+            }
+
+            return result.frames >= result.job.frames;
+        }
+
+        /**
+         * Press random key for few frames, then release it and wait few frames, all driven by job seed
+         */
+        private void scriptInput() {
+            if(result.frames < next_event)
+                return;
+
+            if(held_key == -1) {
+                held_key = input.nextInt(16);
+                chip.getKeyboard().justSet(held_key, (byte) 1);
+            } else {
+                chip.getKeyboard().justSet(held_key, (byte) 0);
+                held_key = -1;
+            }
+
+            next_event = result.frames + 1 + input.nextInt(30);
+        }
+
+        /**
+         * Fill result with final state, release chip & count job as done
+         */
+        void finish(Throwable error) {
+            result.error = error;
+
+            if(chip != null) {
+                GFX gfx = chip.getGFX();
+                gfx.update();
+
+                result.framebuffer_hash = gfx.getFrameHash();
+                result.instruction_count = chip.getInstructionCount();
+
+                Faults faults = chip.getFaults();
+                for(int type = 0; type < Faults.TYPES; type++)
+                    result.fault_counts[type] = faults.getCount(type);
+                result.faults = faults.getTotal();
+                chip = null;
+            }
+
+            done.countDown();
+        }
+    }
+
+    /**
+     * Pool task running one slice of instance, forks next slice if job isn't finished
+     */
+    private class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Instance instance;
+
+        Slice(Instance instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if(instance.runSlice(slice_frames))
+                    instance.finish(null);
+                else
+                    new Slice(instance).fork();
+            } catch (Throwable t) {
+                instance.finish(t);
+            }
+        }
+    }
+
+    /**
+     * Run every rom (*.ch8) from given directory with given amount of input seeds and print results
+     * Usage: RomFarm roms_directory [seeds] [frames] [threads]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 1) {
+            System.out.println("Usage: RomFarm roms_directory [seeds] [frames] [threads]");
+            return;
+        }
+
+        int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        ArrayList<File> roms = new ArrayList<File>();
+        collectRoms(new File(args[0]), roms);
+
+        RomFarm farm = new RomFarm(threads);
+        for(File rom : roms) {
+            byte[] data = readFile(rom);
+
+            for(int seed = 0; seed < seeds; seed++)
+                farm.add(rom.getName(), data, seed, frames, isHiresDirectory(rom));
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = farm.run();
+        long time = System.nanoTime() - start;
+        farm.shutdown();
+
+        long instructions = 0;
+        for(Result result : results) {
+            System.out.println(result);
+            instructions += result.instruction_count;
+        }
+
+        System.out.println(results.size() + " instances, " + instructions + " instructions in " + (time / 1000000) + "ms on " + threads + " threads");
+    }
+
+    /**
+     * @param rom rom file
+     * @return true if rom is in hires directory of rom library, which holds VIP two page hires programs
+     */
+    private static boolean isHiresDirectory(File rom) {
+        File directory = rom.getParentFile();
+        return directory != null && directory.getName().equals("hires");
+    }
+
+    private static void collectRoms(File file, List<File> roms) {
+        if(file.isDirectory()) {
+            File[] files = file.listFiles();
+            if(files == null)
+                return;
+
+            Arrays.sort(files);
+            for(File child : files)
+                collectRoms(child, roms);
+        } else if(file.getName().toLowerCase().endsWith(".ch8")) {
+            roms.add(file);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+
+            int read;
+            while((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package chip8.regression;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import chip8.CHIP8;
+import chip8.farm.RomFarm;
+import chip8.jit.BytecodeBlockCompiler;
+
+/**
+ * Golden framebuffer regression harness, runs every rom of the bundled library with fixed seed & scripted input (see RomFarm)
+ * and compares framebuffer hashes taken at checkpoints with stored golden ones, roms run in parallel on all cores
+ * Run it with every interpreter mode before switching to faster one
+ *
+ * Usage: GoldenFramebuffers [--update] [--mode SWITCH|CACHED|BLOCK] [--threads N] roms_directory golden_file
+ * --update rewrites golden file with current hashes instead of checking them, exit code is 1 if any rom doesn't match
+ */
+
+public class GoldenFramebuffers {
+
+    /**
+     * Library directories which are checked
+     */
+    private static final String[] DIRECTORIES = { "games", "demos", "programs", "hires" };
+
+    /**
+     * Run settings, changing any of them requires regenerating golden file
+     */
+    private static final int FRAMES = 600, CHECKPOINT_FRAMES = 60, INSTRUCTIONS_PER_FRAME = 8;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean update = false;
+        CHIP8.InterpreterMode mode = CHIP8.InterpreterMode.SWITCH;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> paths = new ArrayList<String>();
+
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--update"))
+                update = true;
+            else if(args[i].equals("--mode"))
+                mode = CHIP8.InterpreterMode.valueOf(args[++i]);
+            else if(args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else
+                paths.add(args[i]);
+        }
+
+        if(paths.size() != 2) {
+            System.out.println("Usage: GoldenFramebuffers [--update] [--mode SWITCH|CACHED|BLOCK] [--threads N] roms_directory golden_file");
+            System.exit(2);
+        }
+
+        File roms_directory = new File(paths.get(0));
+        File golden_file = new File(paths.get(1));
+
+        long start = System.nanoTime();
+        Map<String, long[]> current = run(roms_directory, mode, threads);
+        long time = (System.nanoTime() - start) / 1000000;
+
+        if(update) {
+            write(golden_file, current);
+            System.out.println("Golden hashes of " + current.size() + " roms written to " + golden_file + " (" + time + "ms)");
+            return;
+        }
+
+        int failures = compare(read(golden_file), current);
+        System.out.println(current.size() + " roms checked in " + mode + " mode in " + time + "ms, " + failures + " failures");
+
+        if(failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Run every rom from library directories
+     * @return checkpoint hashes by rom path (relative to roms directory)
+     */
+    private static Map<String, long[]> run(File roms_directory, CHIP8.InterpreterMode mode, int threads) throws IOException, InterruptedException {
+        RomFarm farm = new RomFarm(threads);
+        farm.setInterpreterMode(mode);
+        if(mode == CHIP8.InterpreterMode.BLOCK)
+            farm.setBlockCompiler(new BytecodeBlockCompiler());
+        farm.setInstructionsPerFrame(INSTRUCTIONS_PER_FRAME);
+        farm.setCheckpointFrames(CHECKPOINT_FRAMES);
+
+        for(String directory : DIRECTORIES) {
+            File[] files = new File(roms_directory, directory).listFiles();
+            if(files == null)
+                throw new IOException("Missing roms directory: " + new File(roms_directory, directory));
+
+            Arrays.sort(files);
+            for(File file : files) {
+                if(file.getName().toLowerCase().endsWith(".ch8"))
+                    farm.add(directory + "/" + file.getName(), readFile(file), SEED, FRAMES, directory.equals("hires"));
+            }
+        }
+
+        List<RomFarm.Result> results = farm.run();
+        farm.shutdown();
+
+        LinkedHashMap<String, long[]> hashes = new LinkedHashMap<String, long[]>();
+        for(RomFarm.Result result : results) {
+            //crashed rom has fewer checkpoints, remaining ones stay 0
+            hashes.put(result.job.name, result.checkpoints);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Print every difference between golden & current hashes
+     * @return amount of roms which don't match
+     */
+    private static int compare(Map<String, long[]> golden, Map<String, long[]> current) {
+        int failures = 0;
+
+        for(Map.Entry<String, long[]> entry : current.entrySet()) {
+            long[] expected = golden.get(entry.getKey());
+            long[] actual = entry.getValue();
+
+            if(expected == null) {
+                System.out.println("NEW      " + entry.getKey() + " (no golden hashes, run with --update)");
+                failures++;
+                continue;
+            }
+
+            for(int i = 0; i < Math.max(expected.length, actual.length); i++) {
+                long expected_hash = i < expected.length ? expected[i] : 0;
+                long actual_hash = i < actual.length ? actual[i] : 0;
+
+                if(expected_hash != actual_hash) {
+                    System.out.println("MISMATCH " + entry.getKey() + " at frame " + ((i + 1) * CHECKPOINT_FRAMES)
+                            + ": expected " + String.format("%016x", expected_hash) + " got " + String.format("%016x", actual_hash));
+                    failures++;
+                    break;
+                }
+            }
+        }
+
+        for(String name : golden.keySet()) {
+            if(!current.containsKey(name)) {
+                System.out.println("MISSING  " + name);
+                failures++;
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Golden file format: comment lines start with #, every other line is rom path, tab and space separated hex hashes
+     */
+    private static Map<String, long[]> read(File file) throws IOException {
+        LinkedHashMap<String, long[]> hashes = new LinkedHashMap<String, long[]>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                int tab = line.indexOf('\t');
+                String[] values = line.substring(tab + 1).trim().split(" ");
+
+                long[] checkpoints = new long[values.length];
+                for(int i = 0; i < values.length; i++)
+                    checkpoints[i] = new BigInteger(values[i], 16).longValue();
+
+                hashes.put(line.substring(0, tab), checkpoints);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return hashes;
+    }
+
+    private static void write(File file, Map<String, long[]> hashes) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("# Golden framebuffer hashes (FNV-1a 64 of packed rows), generated by GoldenFramebuffers --update\n");
+            writer.write("# frames: " + FRAMES + ", checkpoint every " + CHECKPOINT_FRAMES + " frames, instructions per frame: "
+                    + INSTRUCTIONS_PER_FRAME + ", seed: " + SEED + "\n");
+
+            for(Map.Entry<String, long[]> entry : hashes.entrySet()) {
+                StringBuilder line = new StringBuilder(entry.getKey()).append('\t');
+                for(long hash : entry.getValue())
+                    line.append(String.format("%016x", hash)).append(' ');
+
+                writer.write(line.toString().trim() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+
+            int read;
+            while((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package chip8;
+
+import java.util.Arrays;
+
+/**
+ * Finds basic blocks (straight code starting at jump/call/skip target and ending with branch), counts how often each of them is entered
+ * and hands hot ones to block compiler, CHIP8 runs compiled code of whole block in one call without per instruction dispatch
+ */
+
+public class BlockCache {
+
+    /**
+     * Compiled block, straight code where only the last instruction is allowed to move pc somewhere else
+     */
+    public static class Block {
+        /**
+         * Address of first instruction
+         */
+        public final int start;
+        /**
+         * Amount of instructions
+         */
+        public final int length;
+        /**
+         * True if block reads or writes delay / sound timer, such block can't run over CYCLES mode timer tick
+         */
+        public final boolean timers;
+        /**
+         * Compiled code of block
+         */
+        final BlockCompiler.Code code;
+        /**
+         * Flag set to false when something writes into memory covered by this block, running block has to stop as soon as possible then
+         */
+        boolean valid = true;
+
+        private Block(int start, int length, boolean timers, BlockCompiler.Code code) {
+            this.start = start;
+            this.length = length;
+            this.timers = timers;
+            this.code = code;
+        }
+
+        /**
+         * @return false if block code was modified after compilation
+         */
+        public boolean isValid() {
+            return valid;
+        }
+    }
+
+    /**
+     * How many times block has to be entered before it gets compiled
+     */
+    public static final int HOT_THRESHOLD = 16;
+
+    /**
+     * Maximum amount of instructions in one block, longer straight code is split into several blocks
+     */
+    public static final int MAX_BLOCK_LENGTH = 64;
+
+    /**
+     * Compiler of hot blocks, null if there isn't any (nothing is compiled then)
+     */
+    private BlockCompiler compiler;
+
+    /**
+     * Decoder used when compiling blocks
+     */
+    private DecodeCache decode_cache;
+
+    /**
+     * Per address data: compiled blocks, flags marking block starts, enter counters & flags marking bytes that belong to some compiled block
+     */
+    private Block[] blocks;
+    private boolean[] leaders, covered;
+    private int[] hits;
+
+    /**
+     * Temporary buffer used while compiling block
+     */
+    private int[] compile_buffer;
+
+    /**
+     * Construct new block cache, it registers itself in decode cache to get notified about writes into memory
+     * @param decode_cache decode cache of the same chip
+     * @param memory_size size of chip memory
+     */
+    public BlockCache(DecodeCache decode_cache, int memory_size) {
+        this.decode_cache = decode_cache;
+
+        blocks = new Block[memory_size];
+        leaders = new boolean[memory_size];
+        covered = new boolean[memory_size];
+        hits = new int[memory_size];
+        compile_buffer = new int[MAX_BLOCK_LENGTH];
+
+        decode_cache.block_cache = this;
+    }
+
+    /**
+     * Set compiler of hot blocks, every compiled block is dropped
+     * @param compiler block compiler, null stops compiling
+     */
+    public void setCompiler(BlockCompiler compiler) {
+        this.compiler = compiler;
+        flush();
+    }
+
+    /**
+     * @return compiler of hot blocks, null if there isn't any
+     */
+    public BlockCompiler getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Mark address as start of basic block (call it with pc right after jump, call, return or skip)
+     * @param address block start address
+     */
+    public void markLeader(int address) {
+        if(address >= 0 && address < leaders.length)
+            leaders[address] = true;
+    }
+
+    /**
+     * Grab compiled block starting at given address, counts block enters and compiles block when it becomes hot
+     * @param address address of first instruction
+     * @return compiled block or null if there is no block starting here (yet)
+     */
+    public Block lookup(int address) {
+        if(address < 0 || address >= blocks.length)
+            return null;
+
+        Block block = blocks[address];
+        if(block != null || !leaders[address])
+            return block;
+
+        if(++hits[address] < HOT_THRESHOLD)
+            return null;
+
+        hits[address] = 0;
+        block = compile(address);
+        blocks[address] = block;
+
+        return block;
+    }
+
+    /**
+     * Compile code starting at given address, block stops on first branch (included), FX0A or unknown opcode (both excluded, they always go through interpreter)
+     * @param start address of first instruction
+     * @return compiled block or null if first instruction can't be part of any block or compiler refused it
+     */
+    private Block compile(int start) {
+        if(compiler == null)
+            return null;
+
+        int length = 0;
+        int address = start;
+        boolean timers = false;
+
+        while(length < MAX_BLOCK_LENGTH && decode_cache.isCacheable(address)) {
+            int decoded = decode_cache.get(address);
+            int handler = Opcodes.handlerOf(decoded);
+
+            if(handler == Opcodes.LD_VX_K || handler == Opcodes.UNKNOWN)
+                break;
+
+            timers |= handler == Opcodes.LD_VX_DT || handler == Opcodes.LD_DT_VX || handler == Opcodes.LD_ST_VX;
+            compile_buffer[length++] = decoded;
+            address += 2;
+
+            if(Opcodes.isBranch(handler))
+                break;
+        }
+
+        if(length == 0)
+            return null;
+
+        BlockCompiler.Code code = compiler.compile(start, compile_buffer, length);
+        if(code == null)
+            return null;
+
+        for(int i = start; i < address; i++)
+            covered[i] = true;
+
+        return new Block(start, length, timers, code);
+    }
+
+    /**
+     * Called on every write into memory, drops all compiled blocks if written byte belongs to any of them
+     * @param address address of written byte
+     */
+    void invalidate(int address) {
+        if(covered[address])
+            flush();
+    }
+
+    /**
+     * Drop every compiled block and all collected statistics (leaders stay, they are still valid jump targets)
+     */
+    public void flush() {
+        for(int i = 0; i < blocks.length; i++) {
+            if(blocks[i] != null) {
+                blocks[i].valid = false;
+                blocks[i] = null;
+            }
+        }
+
+        Arrays.fill(covered, false);
+        Arrays.fill(hits, 0);
+    }
+
+    /**
+     * Forget everything, call it after new program was loaded
+     */
+    public void clear() {
+        flush();
+        Arrays.fill(leaders, false);
+    }
+}
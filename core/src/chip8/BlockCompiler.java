@@ -0,0 +1,32 @@
+package chip8;
+
+/**
+ * Translates hot basic blocks into code running whole block in one call (f.e. generated JVM classes on desktop, see CHIP8.setBlockCompiler())
+ * Core doesn't contain any compiler, so without one BLOCK interpreter mode runs like CACHED one
+ */
+
+public interface BlockCompiler {
+
+    /**
+     * Compiled code of one basic block
+     */
+    interface Code {
+        /**
+         * Run block from its first instruction, block can stop early only after instruction for which context.execute() returned true,
+         * block ending with jump to its own start can run again while whole block fits into context.getBudget(),
+         * pc has to point to the next instruction to execute when this returns
+         * @param context chip running the block
+         * @return amount of executed instructions
+         */
+        int run(CHIP8.BlockContext context);
+    }
+
+    /**
+     * Compile straight code, only the last instruction can be a branch and there is never FX0A nor unknown opcode
+     * @param start address of first instruction
+     * @param instructions decoded instructions (see Opcodes) in execution order, array is reused so don't keep it
+     * @param length amount of instructions
+     * @return compiled code or null if block can't be compiled (it is run by interpreter then)
+     */
+    Code compile(int start, int[] instructions, int length);
+}
@@ -0,0 +1,352 @@
+package chip8;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Breakpoints & memory watchpoints, one bit per address of whole 4KB address space
+ * Can be modified from any thread (f.e. UI one) while chip is running on its own thread
+ */
+
+public class Breakpoints {
+
+    /**
+     * Condition checked when pc reaches conditional breakpoint, breakpoint stops emulation only if test returns true
+     * Condition is tested on emulator thread only
+     */
+    public interface Condition {
+        boolean test(Memory mem);
+    }
+
+    /**
+     * Size of address space
+     */
+    public static final int ADDRESS_SPACE = 4096;
+
+    /**
+     * Bitmaps (64 addresses per long) of breakpoints, read watchpoints and write watchpoints
+     */
+    private AtomicLongArray breakpoints, read_watches, write_watches;
+
+    /**
+     * Optional conditions of breakpoints (null = unconditional breakpoint)
+     */
+    private AtomicReferenceArray<Condition> conditions;
+
+    /**
+     * Amount of set breakpoints & watchpoints, used to skip any checks when nothing is set
+     */
+    private AtomicInteger breakpoints_count, watchpoints_count;
+
+    /**
+     * Address of last triggered watchpoint (-1 if none was triggered since last clearWatchHit()) and flag telling if it was write access
+     * Written by emulator thread only
+     */
+    private int watch_hit_address = -1;
+    private boolean watch_hit_write;
+
+    /**
+     * Construct empty breakpoints set
+     */
+    public Breakpoints() {
+        breakpoints = new AtomicLongArray(ADDRESS_SPACE / 64);
+        read_watches = new AtomicLongArray(ADDRESS_SPACE / 64);
+        write_watches = new AtomicLongArray(ADDRESS_SPACE / 64);
+        conditions = new AtomicReferenceArray<Condition>(ADDRESS_SPACE);
+
+        breakpoints_count = new AtomicInteger();
+        watchpoints_count = new AtomicInteger();
+    }
+
+    /**
+     * Add unconditional breakpoint
+     * @param address address of instruction
+     */
+    public void add(int address) {
+        add(address, null);
+    }
+
+    /**
+     * Add breakpoint which stops emulation only when condition is met, replaces condition of already existing breakpoint
+     * @param address address of instruction
+     * @param condition condition or null for unconditional breakpoint
+     */
+    public void add(int address, Condition condition) {
+        conditions.set(address & 0xFFF, condition);
+
+        if(setBit(breakpoints, address))
+            breakpoints_count.incrementAndGet();
+    }
+
+    /**
+     * Remove breakpoint (and its condition)
+     * @param address address of instruction
+     */
+    public void remove(int address) {
+        if(clearBit(breakpoints, address))
+            breakpoints_count.decrementAndGet();
+
+        conditions.set(address & 0xFFF, null);
+    }
+
+    /**
+     * @param address address of instruction
+     * @return true if there is breakpoint (conditional or not) on given address
+     */
+    public boolean contains(int address) {
+        return testBit(breakpoints, address);
+    }
+
+    /**
+     * @return true if there are no breakpoints set
+     */
+    public boolean isEmpty() {
+        return breakpoints_count.get() == 0;
+    }
+
+    /**
+     * @return true if there is any breakpoint or watchpoint set, if this is false chip doesn't have to check anything
+     */
+    public boolean isArmed() {
+        return breakpoints_count.get() != 0 || watchpoints_count.get() != 0;
+    }
+
+    /**
+     * Check if emulation has to stop before executing instruction at given address, evaluates breakpoint condition if there is any
+     * @param address address of instruction
+     * @param mem memory instance passed to condition
+     * @return true if emulation has to stop
+     */
+    public boolean shouldBreak(int address, Memory mem) {
+        if(!testBit(breakpoints, address))
+            return false;
+
+        Condition condition = conditions.get(address & 0xFFF);
+        return condition == null || condition.test(mem);
+    }
+
+    /**
+     * Add watchpoint triggered when program reads byte at given address
+     * @param address memory address
+     */
+    public void addReadWatch(int address) {
+        if(setBit(read_watches, address))
+            watchpoints_count.incrementAndGet();
+    }
+
+    /**
+     * Add watchpoint triggered when program writes byte at given address
+     * @param address memory address
+     */
+    public void addWriteWatch(int address) {
+        if(setBit(write_watches, address))
+            watchpoints_count.incrementAndGet();
+    }
+
+    /**
+     * Remove read and write watchpoints from given address
+     * @param address memory address
+     */
+    public void removeWatch(int address) {
+        if(clearBit(read_watches, address))
+            watchpoints_count.decrementAndGet();
+
+        if(clearBit(write_watches, address))
+            watchpoints_count.decrementAndGet();
+    }
+
+    /**
+     * @return true if there is any read or write watchpoint set
+     */
+    public boolean hasWatchpoints() {
+        return watchpoints_count.get() != 0;
+    }
+
+    /**
+     * Remove every breakpoint & watchpoint
+     */
+    public void clear() {
+        for(int address = 0; address < ADDRESS_SPACE; address++) {
+            remove(address);
+            removeWatch(address);
+        }
+    }
+
+    /**
+     * Write breakpoints, read watchpoints & write watchpoints bitmaps into save state
+     * @param out buffer
+     */
+    void writeState(ByteBuffer out) {
+        writeBitmap(out, breakpoints);
+        writeBitmap(out, read_watches);
+        writeBitmap(out, write_watches);
+    }
+
+    /**
+     * Replace breakpoints & watchpoints with ones written by writeState()
+     * Conditions of breakpoints which stay set are kept, conditions of removed ones are dropped
+     * @param in buffer
+     */
+    void readState(ByteBuffer in) {
+        breakpoints_count.set(readBitmap(in, breakpoints));
+        watchpoints_count.set(readBitmap(in, read_watches) + readBitmap(in, write_watches));
+
+        for(int address = 0; address < ADDRESS_SPACE; address++) {
+            if(!testBit(breakpoints, address))
+                conditions.set(address, null);
+        }
+    }
+
+    private static void writeBitmap(ByteBuffer out, AtomicLongArray bits) {
+        for(int i = 0; i < bits.length(); i++)
+            out.putLong(bits.get(i));
+    }
+
+    private static int readBitmap(ByteBuffer in, AtomicLongArray bits) {
+        int count = 0;
+        for(int i = 0; i < bits.length(); i++) {
+            long word = in.getLong();
+            bits.set(i, word);
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * Called by memory on every read while watchpoints are armed
+     * @param address read address
+     */
+    void onRead(int address) {
+        if(testBit(read_watches, address)) {
+            watch_hit_address = address;
+            watch_hit_write = false;
+        }
+    }
+
+    /**
+     * Called by memory on every write while watchpoints are armed
+     * @param address written address
+     */
+    void onWrite(int address) {
+        if(testBit(write_watches, address)) {
+            watch_hit_address = address;
+            watch_hit_write = true;
+        }
+    }
+
+    /**
+     * @return address of last triggered watchpoint or -1 if none was triggered since last clearWatchHit()
+     */
+    public int getWatchHitAddress() {
+        return watch_hit_address;
+    }
+
+    /**
+     * @return true if last triggered watchpoint was triggered by write, false if by read
+     */
+    public boolean isWatchHitWrite() {
+        return watch_hit_write;
+    }
+
+    /**
+     * Forget last triggered watchpoint
+     */
+    public void clearWatchHit() {
+        watch_hit_address = -1;
+    }
+
+    /*
+     *
+     * Bitmap helpers, every method returns true if bit state was changed
+     *
+     */
+
+    private static boolean testBit(AtomicLongArray bits, int address) {
+        address &= 0xFFF;
+        return (bits.get(address >>> 6) & (1L << address)) != 0;
+    }
+
+    private static boolean setBit(AtomicLongArray bits, int address) {
+        address &= 0xFFF;
+        int index = address >>> 6;
+        long mask = 1L << address;
+
+        while(true) {
+            long old = bits.get(index);
+            if((old & mask) != 0)
+                return false;
+
+            if(bits.compareAndSet(index, old, old | mask))
+                return true;
+        }
+    }
+
+    private static boolean clearBit(AtomicLongArray bits, int address) {
+        address &= 0xFFF;
+        int index = address >>> 6;
+        long mask = 1L << address;
+
+        while(true) {
+            long old = bits.get(index);
+            if((old & mask) == 0)
+                return false;
+
+            if(bits.compareAndSet(index, old, old & ~mask))
+                return true;
+        }
+    }
+
+    /*
+     *
+     * Ready to use conditions
+     *
+     */
+
+    /**
+     * @param register register index (0 - 15)
+     * @param value expected value (0 - 255)
+     * @return condition met when register VX is equal to given value
+     */
+    public static Condition registerEquals(final int register, final int value) {
+        return new Condition() {
+            @Override
+            public boolean test(Memory mem) {
+                return (mem.V[register] & 0xff) == (value & 0xff);
+            }
+        };
+    }
+
+    /**
+     * @param value expected value
+     * @return condition met when index register I is equal to given value
+     */
+    public static Condition indexEquals(final int value) {
+        return new Condition() {
+            @Override
+            public boolean test(Memory mem) {
+                return mem.I == value;
+            }
+        };
+    }
+
+    /**
+     * @param hits amount of times breakpoint has to be reached before it stops emulation
+     * @return condition met from hits-th time breakpoint address is reached
+     */
+    public static Condition hitCount(final int hits) {
+        return new Condition() {
+            private int count;
+
+            @Override
+            public boolean test(Memory mem) {
+                if(count < hits)
+                    count++;
+
+                return count >= hits;
+            }
+        };
+    }
+}
@@ -1,10 +1,7 @@
 package chip8;
 
-import com.badlogic.gdx.math.MathUtils;
-
-import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Main class of this emulator. Fetch, decode, execute instruction by instruction
@@ -13,6 +10,49 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class CHIP8 {
 
+    /**
+     * Ways of fetching & decoding instructions
+     * SWITCH - fetch 2 bytes from memory and decode them on every step
+     * CACHED - decode every memory slot once and reuse it until something writes into that slot
+     * BLOCK - CACHED + hot basic blocks are compiled by block compiler and run in one call (see setBlockCompiler()),
+     *         without compiler (f.e. on Android) it runs like CACHED
+     */
+    public enum InterpreterMode {
+        SWITCH, CACHED, BLOCK
+    }
+
+    /**
+     * Ways of decreasing delay & sound timers
+     * WALL_CLOCK - 60 times per each real second, good for interactive use
+     * CYCLES - once per every instructions per frame executed instructions (see setInstructionsPerFrame()), deterministic and independent from host speed
+     */
+    public enum TimerMode {
+        WALL_CLOCK, CYCLES
+    }
+
+    /**
+     * Reasons why batched execution (runCycles(), runUntilFrame()) returned
+     * COMPLETED - all requested instructions were executed
+     * BREAKPOINT - pc reached breakpoint, instruction at pc wasn't executed
+     * WATCHPOINT - last executed instruction accessed watched memory address (see Breakpoints.getWatchHitAddress())
+     * WAITING_FOR_KEY - non blocking FX0A waits for key (call again later, FX0A will be retried) or blocking one was aborted (chip was shut off)
+     * FAULT - unknown opcode was executed or invalid memory access was made with HALT fault policy (see getFaults())
+     */
+    public enum RunResult {
+        COMPLETED, BREAKPOINT, WATCHPOINT, WAITING_FOR_KEY, FAULT
+    }
+
+    /**
+     * Ways of handling invalid memory accesses (address outside of 0 - 4095), every fault is counted in Faults (see getFaults())
+     * WRAP - address is wrapped into memory (masked with 0xFFF), like on real hardware
+     * HALT - access is skipped and batched execution returns FAULT right after instruction which made it
+     * COUNT - access is skipped (reads give 0) and execution goes on
+     * Unknown opcodes always return FAULT
+     */
+    public enum FaultPolicy {
+        WRAP, HALT, COUNT
+    }
+
     /**
      * Chip components
      */
@@ -21,14 +61,49 @@ public class CHIP8 {
     private GFX gfx;
 
     /**
-     * Array containing code lines indexes where breakpoint occurs (if current line == breakpoint_index return)
+     * Pre-decoded instructions used by CACHED interpreter mode
+     */
+    private DecodeCache decode_cache;
+
+    /**
+     * Compiled basic blocks used by BLOCK interpreter mode
+     */
+    private BlockCache block_cache;
+
+    /**
+     * Random generator used by CXNN, owned by this instance only
+     */
+    private SplitMix64 random;
+
+    /**
+     * Current interpreter mode, SWITCH by default
+     */
+    private InterpreterMode interpreter_mode = InterpreterMode.SWITCH;
+
+    /**
+     * Breakpoints (if current pc is breakpoint address return) & memory watchpoints
      */
-    private ArrayList<Integer> breakpoints;
+    private Breakpoints breakpoints;
 
     /**
-     * Flag determining if chip will log about every operation in console
+     * Sink recording every executed instruction (null if tracing is off)
      */
-    private final boolean PRINT_DEBUG = false;
+    private TraceSink tracer;
+
+    /**
+     * Profiler counting executed instructions & memory accesses (null if profiling is off)
+     */
+    private Profiler profiler;
+
+    /**
+     * Runtime metrics (rates, frame pacing, key waits)
+     */
+    private Metrics metrics;
+
+    /**
+     * Context passed to compiled blocks
+     */
+    private BlockContext block_context;
 
     /**
      * loaded - variable informing us if program is fully loaded into memory
@@ -41,37 +116,121 @@ public class CHIP8 {
      */
     private boolean breakpoint;
     /**
-     * Index of code line where breakpoint occurs (grab info from this only if breakpoint = true
+     * Address of instruction where breakpoint occurs (grab info from this only if breakpoint = true
      */
-    private int breakpoint_line;
+    private int breakpoint_address;
 
     /**
-     * Timers properties, with that we have constant timers decreasing speed (decrease 1 after update_after time passed), change update_after value to new if you want (now set to 200ms)
+     * key_wait_aborted - flag set when FX0A stopped waiting without key press (faults which stop execution are flagged in Faults)
      */
-    private long last_timer_update = 0, update_after = 200;
+    private boolean key_wait_aborted;
 
+    /**
+     * key_wait_blocking - if true FX0A parks emulator thread until key is pressed, otherwise execution returns WAITING_FOR_KEY and FX0A is retried on next call
+     * waiting_for_key - true while non blocking FX0A waits for key
+     */
+    private boolean key_wait_blocking = true, waiting_for_key;
 
     /**
-    * String that contains whole program nicely formatted
-    * ====
-    * LINE_NUMBER: OPCODE
-    * ====
-    */
-    private String program_instructions;
+     * If true 1260 jump at program start switches into VIP two page 64x64 hires mode (see setVipHires())
+     */
+    private boolean vip_hires;
 
     /**
-     * Construct new chip instance
+     * Amount of instructions executed in one 60Hz frame by runUntilFrame() (500Hz / 60 by default)
+     */
+    private int instructions_per_frame = 8;
+
+    /**
+     * Amount of instructions executed by last runCycles() call
+     */
+    private int last_run_cycles;
+
+    /**
+     * Wall clock timers properties, timers are decreased with 60Hz frequency (decrease 1 after TIMER_PERIOD nanoseconds passed)
+     */
+    private static final long TIMER_PERIOD = 1000000000L / 60L;
+    private long last_timer_update;
+
+    /**
+     * Current timer mode & flag caching timer_mode == CYCLES for hot loop
+     */
+    private TimerMode timer_mode = TimerMode.WALL_CLOCK;
+    private boolean cycle_timers;
+
+    /**
+     * Amount of instructions executed since last timers tick (used in CYCLES timer mode)
+     */
+    private int frame_cycles;
+
+    /**
+     * Amount of instructions executed since program was loaded (cycles spent by non blocking FX0A waiting for key included)
+     */
+    private long instruction_count;
+
+
+    /**
+     * Movie recorder logging applied queued key changes & movie player feeding recorded ones (null if not used)
+     */
+    private MovieRecorder movie_recorder;
+    private MoviePlayer movie_player;
+
+    /**
+     * Memory image (font + program) made by load(), used by delta save states & program listing
+     * Restoring full state of other program replaces it with restored memory which isn't pristine anymore (see restore())
+     */
+    private byte[] rom_image;
+    private boolean rom_image_pristine;
+
+    /**
+     * FNV-1a 64 hash of loaded program (or of program which state was restored)
+     */
+    private long rom_hash;
+
+    /**
+     * Size of loaded program & its listing (null until someone asks for it)
+     */
+    private int program_size;
+    private ProgramListing program_listing;
+
+    /**
+     * Construct new chip instance, random generator is seeded with current time
      */
     public CHIP8() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Construct new chip instance
+     * @param seed seed of random generator used by CXNN, same seed & same input gives same run
+     */
+    public CHIP8(long seed) {
+        random = new SplitMix64(seed);
+
         mem = new Memory();
         keyboard = new Keyboard(mem);
         gfx = new GFX(mem);
+        decode_cache = new DecodeCache(mem);
+        block_cache = new BlockCache(decode_cache, mem.memory.length);
+
+        breakpoints = new Breakpoints();
+        metrics = new Metrics(mem.faults);
+        block_context = new BlockContext();
+        rom_image = new byte[mem.memory.length];
+    }
 
-        breakpoints = new ArrayList<Integer>();
+    /**
+     * Load program into memory from byte array and reseed random generator
+     * @param program_data array contains program data
+     * @param seed seed of random generator used by CXNN
+     */
+    public void load(byte[] program_data, long seed) {
+        random.setSeed(seed);
+        load(program_data);
     }
 
     /**
-     * Load program into memory from byte array
+     * Load program into memory from byte array, random generator continues its sequence
      * @param program_data array contains program data
      */
     public void load(byte[] program_data) {
@@ -81,9 +240,15 @@ public class CHIP8 {
         loaded = false;
         mem.delay_timer = 0;
         mem.sound_timer = 0;
+        last_timer_update = System.nanoTime();
+        frame_cycles = 0;
+        instruction_count = 0;
+        waiting_for_key = false;
+        mem.faults.clear();
+        metrics.clear();
 
-        //clear screen
-        gfx.clear();
+        //clear screen and go back to low resolution
+        gfx.setResolution(GFX.WIDTH, GFX.HEIGHT);
 
         //clear registers
         for(int i = 0; i < mem.V.length; i++)
@@ -98,6 +263,8 @@ public class CHIP8 {
             byte val = (byte) mem.chip8_fontset[i];
             mem.memory[i] = val;
         }
+        for(int i = 0; i < mem.chip8_big_fontset.length; i++)
+            mem.memory[Memory.bigHexadecimalSpritesStartAddress + i] = (byte) mem.chip8_big_fontset[i];
 
         //load program into memory
         int program_size = program_data.length;
@@ -105,151 +272,621 @@ public class CHIP8 {
             mem.memory[i + 512] = program_data[i]; //512 bytes offset because at this address program memory section starts
         }
 
-        //save program instructions to string and print to screen
-        StringBuilder program_instruction_set = new StringBuilder();
-        System.out.println("------\nProgram opcodes list:");
-        for(int i = 0; i < program_size; i += 2) {
-            int opcode = (short) ((mem.get(i + 512) << 8) & 0xFF00) | (mem.get(i + 512 + 1) & 0x00FF);
+        //remember pristine image for delta save states
+        System.arraycopy(mem.memory, 0, rom_image, 0, rom_image.length);
+        rom_image_pristine = true;
+        rom_hash = hash(program_data);
 
-            //remove first FFFF if occurs to make printed code just cleaner
-            String opcode_string = hex(opcode).toUpperCase();
-            if(opcode_string.startsWith("FFFF"))
-                opcode_string = opcode_string.replaceFirst("FFFF", "");
+        //memory was modified directly so every decoded instruction is outdated
+        decode_cache.clear();
+        block_cache.clear();
+        block_cache.markLeader(mem.pc);
 
-            program_instruction_set.append(i / 2).append(": ").append(opcode_string).append("\n");
+        //listing is disassembled lazily (see getProgramInstructions())
+        this.program_size = program_size;
+        program_listing = null;
+
+        //set load flag to true so we can begin with emulation process
+        loaded = true;
+    }
+
+    /**
+     * Write whole machine state (memory, registers, stack, keys, timers, random generator, screen and optionally breakpoints) into given buffer,
+     * doesn't allocate anything so it can be called every frame, call only from emulator thread (or when chip isn't running)
+     * MEMORY_DELTA is dropped (whole memory is written) if chip has no pristine program image (see restore())
+     * @param out buffer with at least SaveState.MAX_SIZE bytes remaining, state is written from its position, its byte order is kept
+     * @param flags SaveState flags (MEMORY_DELTA, BREAKPOINTS) or 0 for fixed layout state
+     * @return amount of written bytes
+     */
+    public int snapshot(ByteBuffer out, int flags) {
+        if(!rom_image_pristine)
+            flags &= ~SaveState.MEMORY_DELTA;
+
+        ByteOrder order = out.order();
+        try {
+            return writeState(out.order(ByteOrder.BIG_ENDIAN), flags);
+        } finally {
+            out.order(order);
         }
+    }
 
-        program_instructions = program_instruction_set.toString();
-        System.out.println(program_instructions);
-        System.out.println("------");
+    private int writeState(ByteBuffer out, int flags) {
+        int start = SaveState.begin(out, flags);
+        out.putLong(rom_hash);
+
+        out.putShort((short) mem.pc);
+        out.putShort((short) mem.I);
+        out.put((byte) mem.sp);
+        for(int i = 0; i < mem.stack.length; i++)
+            out.putShort((short) mem.stack[i]);
+        out.put(mem.V);
+        out.put(mem.key);
+        out.put((byte) mem.delay_timer);
+        out.put((byte) mem.sound_timer);
+
+        out.putLong(random.getState());
+        out.putLong(instruction_count);
+        out.putInt(frame_cycles);
+        out.put((byte) (waiting_for_key ? SaveState.WAITING_FOR_KEY : 0));
+        out.put(mem.rpl);
+
+        gfx.writeState(out);
+
+        if((flags & SaveState.MEMORY_DELTA) != 0)
+            SaveState.writeMemoryDelta(out, mem.memory, rom_image);
+        else
+            out.put(mem.memory);
+
+        if((flags & SaveState.BREAKPOINTS) != 0)
+            breakpoints.writeState(out);
+
+        return SaveState.finish(out, start);
+    }
+
+    /**
+     * Restore machine state written by snapshot(), doesn't allocate anything, call only from emulator thread (or when chip isn't running)
+     * Breakpoints are replaced only if state contains them
+     * Full state of other program than loaded one replaces program hash, listing & image, but restored memory isn't pristine image
+     * so later snapshots of this chip are written without MEMORY_DELTA until next load()
+     * @param in buffer positioned at state beginning, position is moved right after state, its byte order is kept
+     * @throws IllegalArgumentException if buffer doesn't contain supported state, delta state was made with other program loaded
+     * or its registers (chip stays untouched then) or memory delta are damaged (chip state is undefined then, load program again)
+     */
+    public void restore(ByteBuffer in) {
+        ByteOrder order = in.order();
+        try {
+            readState(in.order(ByteOrder.BIG_ENDIAN));
+        } finally {
+            in.order(order);
+        }
+    }
+
+    private void readState(ByteBuffer in) {
+        int start = in.position();
+        int flags = SaveState.readHeader(in);
+        int version = SaveState.getVersion(in, start);
+
+        long state_rom_hash = in.getLong();
+        if((flags & SaveState.MEMORY_DELTA) != 0 && (state_rom_hash != rom_hash || !rom_image_pristine))
+            throw new IllegalArgumentException("Save state was made with different program loaded");
+
+        //registers are checked before anything is changed, out of range pc or sp would crash emulator thread later
+        int pc = in.getShort() & 0xffff;
+        int I = in.getShort() & 0xffff;
+        int sp = in.get() & 0xff;
+        if(pc >= mem.memory.length || sp > mem.stack.length)
+            throw new IllegalArgumentException("Damaged save state, pc " + pc + " or stack pointer " + sp + " is out of range");
+
+        int stack_start = in.position();
+        for(int i = 0; i < mem.stack.length; i++) {
+            int address = in.getShort(stack_start + i * 2) & 0xffff;
+            if(address >= mem.memory.length)
+                throw new IllegalArgumentException("Damaged save state, return address " + address + " is outside of memory");
+        }
+
+        mem.pc = pc;
+        mem.I = I;
+        mem.sp = sp;
+        for(int i = 0; i < mem.stack.length; i++)
+            mem.stack[i] = in.getShort() & 0xffff;
+        in.get(mem.V);
+        in.get(mem.key);
+        mem.delay_timer = in.get() & 0xff;
+        mem.sound_timer = in.get() & 0xff;
+
+        random.setState(in.getLong());
+        instruction_count = in.getLong();
+        frame_cycles = in.getInt();
+        int state_bits = in.get();
+        if(version >= 2)
+            in.get(mem.rpl);
+
+        gfx.readState(in);
+
+        if((flags & SaveState.MEMORY_DELTA) != 0)
+            SaveState.readMemoryDelta(in, mem.memory, rom_image);
+        else
+            in.get(mem.memory);
+
+        if((flags & SaveState.BREAKPOINTS) != 0)
+            breakpoints.readState(in);
+
+        //state of other program, there is no pristine image of it so restored memory stands in for listing
+        if(state_rom_hash != rom_hash) {
+            rom_hash = state_rom_hash;
+            System.arraycopy(mem.memory, 0, rom_image, 0, rom_image.length);
+            rom_image_pristine = false;
+
+            int end = rom_image.length;
+            while(end > ProgramListing.PROGRAM_START && rom_image[end - 1] == 0)
+                end--;
+            program_size = end - ProgramListing.PROGRAM_START;
+            program_listing = null;
+        }
+
+        //non blocking FX0A restarts its wait on next step
+        waiting_for_key = (state_bits & SaveState.WAITING_FOR_KEY) != 0;
+        if(waiting_for_key)
+            keyboard.beginWait();
+
+        breakpoint = false;
+        mem.faults.stop = false;
+        key_wait_aborted = false;
+        last_timer_update = System.nanoTime();
+
+        //memory was modified directly so every decoded instruction is outdated
+        decode_cache.clear();
+        block_cache.clear();
+        block_cache.markLeader(mem.pc);
 
-        //set load flag to true so we can begin with emulation process
         loaded = true;
     }
 
     /**
      * Fetch, decode and handle 1 opcode, (In my case calling this method with frequency of 500Hz is fine)
+     * @return COMPLETED if instruction was executed, otherwise reason why it wasn't (or what it triggered)
      */
-    public void emulationStep() {
+    public RunResult emulationStep() {
         //check if program is loaded to memory
         if(!isLoaded())
-            return;
+            return RunResult.COMPLETED;
 
         //check if this line is on breakpoints list if is return until it will be removed by user
-        int line_code_index = (mem.pc - 512) / 2;
-        if(breakpoints.contains(line_code_index)) {
-            breakpoint = true;
-            breakpoint_line = line_code_index;
+        boolean armed = breakpoints.isArmed();
+        if(armed && isOnBreakpoint())
+            return RunResult.BREAKPOINT;
+        breakpoint = false;
+        mem.faults.stop = false;
+        key_wait_aborted = false;
 
-            return;
+        applyInput(1);
+
+        //update timers
+        updateTimers();
+
+        armWatchpoints(armed);
+        step(fetch());
+
+        if(armed && breakpoints.getWatchHitAddress() != -1)
+            return RunResult.WATCHPOINT;
+
+        return stopReason();
+    }
+
+    /**
+     * Run whole compiled basic block starting at current pc in one call, without breakpoint & timer checks between its instructions
+     * Works only in BLOCK interpreter mode with block compiler set, falls back to single emulationStep() when block at pc isn't hot yet
+     * or some breakpoint, tracer or profiler is set (FX0A and unknown opcodes are never compiled so they always go through emulationStep())
+     * @return amount of executed instructions
+     */
+    public int emulationBlock() {
+        if(!isLoaded())
+            return 0;
+
+        BlockCache.Block block = null;
+        if(canRunBlocks(breakpoints.isArmed()))
+            block = block_cache.lookup(mem.pc);
+
+        //block can't jump over next movie event nor timer tick it would see, looping block runs just once here
+        int budget = 0;
+        if(block != null)
+            budget = blockBudget(block, applyInput(block.length));
+
+        if(block == null || block.length > budget) {
+            emulationStep();
+            return breakpoint ? 0 : 1;
         }
         breakpoint = false;
+        mem.faults.stop = false;
 
-        //update timers
-        if(System.currentTimeMillis() - last_timer_update > update_after) {
-            if (mem.sound_timer > 0)
-                mem.sound_timer--;
+        //update timers once per block
+        updateTimers();
+
+        armWatchpoints(false);
+        return runBlock(block, budget);
+    }
+
+    /**
+     * Run up to given amount of instructions in one tight loop, loaded check & timers update are done once per call
+     * and breakpoints are checked only if there are any, so keep batches not longer than one frame (see runUntilFrame())
+     * In BLOCK interpreter mode compiled blocks that fit into remaining budget are run in one go
+     * @param cycles maximum amount of instructions to execute
+     * @return COMPLETED if all instructions were executed, otherwise reason why execution stopped earlier
+     */
+    public RunResult runCycles(int cycles) {
+        last_run_cycles = 0;
+
+        if(!isLoaded())
+            return RunResult.COMPLETED;
+
+        metrics.frame(instruction_count);
+
+        boolean check_breakpoints = breakpoints.isArmed();
+        boolean run_blocks = canRunBlocks(check_breakpoints);
+        breakpoint = false;
+        mem.faults.stop = false;
+        key_wait_aborted = false;
+
+        updateTimers();
+        armWatchpoints(check_breakpoints);
+
+        int executed = 0;
+        while(executed < cycles) {
+            //key changes happen only here, between instructions, movie player ends this part exactly at its next event
+            int limit = executed + applyInput(cycles - executed);
+
+            while(executed < limit) {
+                if(check_breakpoints && isOnBreakpoint()) {
+                    last_run_cycles = executed;
+                    return RunResult.BREAKPOINT;
+                }
+
+                if(run_blocks) {
+                    BlockCache.Block block = block_cache.lookup(mem.pc);
+
+                    int budget = block != null ? blockBudget(block, limit - executed) : 0;
+
+                    if(block != null && block.length <= budget) {
+                        executed += runBlock(block, budget);
+
+                        if(mem.faults.stop) {
+                            last_run_cycles = executed;
+                            return stopReason();
+                        }
+                        continue;
+                    }
+                }
+
+                step(fetch());
+                executed++;
+
+                if(check_breakpoints && breakpoints.getWatchHitAddress() != -1) {
+                    last_run_cycles = executed;
+                    return RunResult.WATCHPOINT;
+                }
 
-            if (mem.delay_timer > 0)
-                mem.delay_timer--;
+                if(mem.faults.stop || key_wait_aborted) {
+                    last_run_cycles = executed;
+                    return stopReason();
+                }
 
-            last_timer_update = System.currentTimeMillis();
+                //time goes on while program waits for key, so rest of budget (up to next key change) is spent idle (keeps cycle timers running)
+                if(waiting_for_key) {
+                    countCycles(limit - executed);
+                    executed = limit;
+                }
+            }
+        }
+
+        last_run_cycles = executed;
+        return stopReason();
+    }
+
+    /**
+     * Apply queued key changes (or due movie ones while movie is played), called only between instructions
+     * @param cycles amount of instructions caller wants to run
+     * @return amount of instructions which can be run before next key change has to be applied (at least 1)
+     */
+    private int applyInput(int cycles) {
+        if(movie_player != null) {
+            //live input is ignored during playback
+            while(keyboard.pollQueued() != -1);
+
+            movie_player.applyDue(keyboard, instruction_count);
+            return (int) Math.min(cycles, movie_player.getNextEventInstruction() - instruction_count);
+        }
+
+        int event;
+        while((event = keyboard.pollQueued()) != -1) {
+            int index = event >> 1;
+            byte value = (byte) (event & 1);
+
+            keyboard.justSet(index, value);
+            if(movie_recorder != null)
+                movie_recorder.record(instruction_count, index, value);
+        }
+
+        return cycles;
+    }
+
+    /**
+     * @return result of last executed instruction (COMPLETED if it didn't fail nor started waiting for key)
+     */
+    private RunResult stopReason() {
+        if(mem.faults.stop)
+            return RunResult.FAULT;
+
+        if(key_wait_aborted || waiting_for_key)
+            return RunResult.WAITING_FOR_KEY;
+
+        return RunResult.COMPLETED;
+    }
+
+    /**
+     * Run one 60Hz frame worth of instructions (see setInstructionsPerFrame()) in one call
+     * @return COMPLETED if whole frame was executed, otherwise reason why execution stopped earlier
+     */
+    public RunResult runUntilFrame() {
+        return runCycles(instructions_per_frame);
+    }
+
+    /**
+     * Check if current pc is on breakpoints list (and its condition is met), updates breakpoint flags
+     * @return true if instruction at pc must not be executed
+     */
+    private boolean isOnBreakpoint() {
+        if(breakpoints.shouldBreak(mem.pc, mem)) {
+            breakpoint = true;
+            breakpoint_address = mem.pc;
+
+            return true;
+        }
+
+        breakpoint = false;
+        return false;
+    }
+
+    /**
+     * Hook watchpoints into memory accesses only if there are any, so memory doesn't pay for them otherwise
+     * @param armed result of breakpoints.isArmed() grabbed at the beginning of current run
+     */
+    private void armWatchpoints(boolean armed) {
+        if(armed && breakpoints.hasWatchpoints()) {
+            mem.watchpoints = breakpoints;
+            breakpoints.clearWatchHit();
+        } else {
+            mem.watchpoints = null;
+        }
+    }
+
+    /**
+     * Grab instruction at current pc, every opcode on chip8 is 2 bytes so we need to connect two bytes from memory into one opcode
+     * @return packed decoded instruction (see Opcodes)
+     */
+    private int fetch() {
+        mem.instruction = mem.pc;
+        if(decode_cache.isCacheable(mem.pc)) {
+            if(interpreter_mode != InterpreterMode.SWITCH)
+                return decode_cache.get(mem.pc);
+
+            //instruction fetch doesn't go through memory get() so it doesn't trigger read watchpoints
+            return Opcodes.decode(((mem.memory[mem.pc] << 8) & 0xFF00) | (mem.memory[mem.pc + 1] & 0x00FF));
         }
 
-        //grab current opcode from memory, every opcode on chip8 is 2 bytes so we need to connect two bytes from memory into one opcode
         int opcode = (short) ((mem.get(mem.pc) << 8) & 0xFF00) | (mem.get(mem.pc + 1) & 0x00FF);
+        return Opcodes.decode(opcode);
+    }
+
+    /**
+     * Move pc to the next instruction and execute given one
+     * @param decoded packed decoded instruction fetched from current pc
+     */
+    private void step(int decoded) {
+        //step forward one opcode
+        int pc = mem.pc;
+        mem.pc += 2;
+
+        execute(decoded);
+        if(tracer != null)
+            trace(pc, decoded);
+        if(profiler != null)
+            profiler.record(pc, decoded);
+        countCycles(1);
+
+        //new pc after branch is start of some basic block
+        if(interpreter_mode == InterpreterMode.BLOCK && Opcodes.isBranch(Opcodes.handlerOf(decoded)))
+            block_cache.markLeader(mem.pc);
+    }
+
+    /**
+     * Compiled blocks run only in BLOCK mode with compiler set and nothing watching single instructions
+     * @param armed result of breakpoints.isArmed() grabbed at the beginning of current run
+     * @return true if compiled blocks can be run instead of single instructions
+     */
+    private boolean canRunBlocks(boolean armed) {
+        return interpreter_mode == InterpreterMode.BLOCK && block_cache.getCompiler() != null && !armed && tracer == null && profiler == null;
+    }
+
+    /**
+     * Instructions of block are counted after whole block, so block using timers can't run over CYCLES mode timer tick
+     * (tick can happen only after its last instruction, just like in interpreter)
+     * @param block compiled block
+     * @param budget amount of instructions which can be executed
+     * @return amount of instructions block can execute (block which loops to its own start can run several times)
+     */
+    private int blockBudget(BlockCache.Block block, int budget) {
+        if(cycle_timers && block.timers)
+            return Math.min(budget, instructions_per_frame - frame_cycles);
+
+        return budget;
+    }
+
+    /**
+     * Execute compiled block starting at current pc, instructions are counted once per block
+     * @param block compiled block
+     * @param budget maximum amount of instructions block can execute, at least block length
+     * @return amount of executed instructions
+     */
+    private int runBlock(BlockCache.Block block, int budget) {
+        block_context.block = block;
+        block_context.budget = budget;
+        int executed = block.code.run(block_context);
+        countCycles(executed);
+
+        //block stopped early only if its code was overwritten or fault halted execution, otherwise pc is right after branch
+        if(block.valid && !mem.faults.stop)
+            block_cache.markLeader(mem.pc);
+
+        return executed;
+    }
+
+    /**
+     * Record just executed instruction into trace sink
+     * @param pc address of instruction
+     * @param decoded packed decoded instruction
+     */
+    private void trace(int pc, int decoded) {
+        tracer.record(instruction_count, pc, Opcodes.opcodeOf(decoded), mem);
+    }
+
+    /**
+     * Count executed instructions, in CYCLES timer mode decrease timers every instructions per frame instructions
+     * @param cycles amount of executed instructions
+     */
+    private void countCycles(int cycles) {
+        instruction_count += cycles;
+
+        if(cycle_timers) {
+            frame_cycles += cycles;
+
+            while(frame_cycles >= instructions_per_frame) {
+                frame_cycles -= instructions_per_frame;
+                tickTimers(1);
+            }
+        }
+    }
+
+    /**
+     * In WALL_CLOCK timer mode decrease timers once for every 1/60 second passed since last update
+     */
+    private void updateTimers() {
+        if(cycle_timers)
+            return;
+
+        long elapsed = System.nanoTime() - last_timer_update;
+        if(elapsed >= TIMER_PERIOD) {
+            long ticks = elapsed / TIMER_PERIOD;
+            last_timer_update += ticks * TIMER_PERIOD;
 
-        println("========= \n" + String.format("opcode: %01X", opcode)); //debug print what current opcode is
+            tickTimers((int) Math.min(ticks, 256));
+        }
+    }
+
+    /**
+     * Decrease both timers (not below 0)
+     * @param ticks amount of 60Hz ticks
+     */
+    private void tickTimers(int ticks) {
+        metrics.tick(ticks);
+
+        if (mem.sound_timer > 0)
+            mem.sound_timer = Math.max(0, mem.sound_timer - ticks);
+
+        if (mem.delay_timer > 0)
+            mem.delay_timer = Math.max(0, mem.delay_timer - ticks);
+    }
+
+    /**
+     * Execute one already decoded instruction, pc has to point to the next instruction already
+     * @param decoded packed decoded instruction (see Opcodes)
+     */
+    private void execute(int decoded) {
+        int opcode = Opcodes.opcodeOf(decoded);
 
         //just grab every 'piece' of opcode to make code for interpreting opcode cleaner
-        int first = (opcode & 0xF000) >> 12; //shift with proper amount of bits (4 per digit) because without this result from f.e. 0x1234 would be 0x1000 instead of 0x1
-        int second = (opcode & 0x0F00) >> 8;
+        int second = (opcode & 0x0F00) >> 8; //shift with proper amount of bits (4 per digit) because without this result from f.e. 0x1234 would be 0x1000 instead of 0x1
         int third = (opcode & 0x00F0) >> 4;
         int fourth = (opcode & 0x000F);
 
-        //debug
-        println("first: " + hexDec(first) + " second: " + hexDec(second) + " third: " +hexDec(third) + " fourth: " + hexDec(fourth) + " pc: " + (mem.pc / 2) + "(" + (mem.pc - 512) / 2 + ")" + " sp: " + mem.sp);
-
         int last3 = opcode & 0x0FFF; //NNN
         int last2 = opcode & 0x00FF; //NN
 
-        //step forward one opcode
-        mem.pc += 2;
-
-        //decode first 4 bytes of opcode
         //names of instruction and definitions from wikipedia https://en.wikipedia.org/wiki/CHIP-8 (section Opcode table)
-        switch(opcode & 0xF000) {
-            //0x00 opcodes
-            case 0x00:
-                switch(opcode & 0x000F) {
-                    case 0x0000: // 0x00E0: Clears the screen
-                        println("0x00E0");
-
-                        gfx.clear();
-                        break;
+        switch(Opcodes.handlerOf(decoded)) {
+            case Opcodes.CLS: // 0x00E0: Clears the screen
+                gfx.clear();
+                break;
 
-                    case 0x000E: // 0x00EE: Returns from subroutine
-                        println("0x00EE");
+            case Opcodes.RET: // 0x00EE: Returns from subroutine
+                mem.sp -= 1;
+                mem.pc = mem.stack[mem.sp];
 
-                        mem.sp -= 1;
-                        mem.pc = mem.stack[mem.sp];
+                break;
 
-                        break;
+            case Opcodes.SCD: //00CN Scrolls screen down by N rows
+                gfx.scrollDown(fourth);
+                break;
 
-                    default:
-                        System.err.println("Unknown 0x00 opcode: " + String.format("%01X", opcode));
-                        break;
-                }
+            case Opcodes.SCR: //00FB Scrolls screen right by 4 pixels
+                gfx.scrollRight(4);
+                break;
+
+            case Opcodes.SCL: //00FC Scrolls screen left by 4 pixels
+                gfx.scrollLeft(4);
+                break;
+
+            case Opcodes.EXIT: //00FD Exits interpreter, chip just stays at this instruction
+                mem.pc -= 2;
+                break;
+
+            case Opcodes.LOW: //00FE Disables high resolution mode (64x32), screen is cleared
+                gfx.setResolution(GFX.WIDTH, GFX.HEIGHT);
+                break;
+
+            case Opcodes.HIGH: //00FF Enables high resolution mode (128x64), screen is cleared
+                gfx.setResolution(GFX.HIRES_WIDTH, GFX.HIRES_HEIGHT);
                 break;
 
-            case 0x1000: //1NNN goto
-                println("1NNN NNN: " + hexDec(last3));
+            case Opcodes.JP: //1NNN goto
+                //VIP two page hires programs start with 1260 jump, real VIP switched into 64x64 mode there and continued at 2C0
+                if(vip_hires && last3 == 0x260 && mem.pc == 0x202) {
+                    gfx.setResolution(64, 64);
+                    last3 = 0x2C0;
+                }
 
                 mem.pc = last3;
                 break;
 
-            case 0x2000: //2NNN call subroutine at NNN
+            case Opcodes.CALL: //2NNN call subroutine at NNN
                 mem.stack[mem.sp] = mem.pc;
                 mem.sp++;
                 mem.pc = last3;
 
-                println("2NNN NNN: " + hexDec(last3));
-
                 break;
 
-            case 0x3000: //3XNN Skips the next instruction if VX equals NN
+            case Opcodes.SE_VX_NN: //3XNN Skips the next instruction if VX equals NN
                 if(mem.V[second] == last2)
                     mem.pc += 2;
 
-                println("3XNN X: " + second + " NN: " + hexDec(last2));
-
                 break;
 
-            case 0x4000: //4XNN Skips the next instruction if VX doesn't equal NN.
+            case Opcodes.SNE_VX_NN: //4XNN Skips the next instruction if VX doesn't equal NN.
                 if(mem.V[second] != last2)
                     mem.pc += 2;
 
-                println("4XNN X: " + second + " NN: " + hexDec(last2));
-
                 break;
 
-            case 0x5000: //5XY0 Skips the next instruction if VX equals VY.
-                println("5XY0 X: " + hexDec(second) + " Y: " + hexDec(third));
-
+            case Opcodes.SE_VX_VY: //5XY0 Skips the next instruction if VX equals VY.
                 if(mem.V[second] == mem.V[third])
                     mem.pc += 2;
 
                 break;
 
-            case 0x6000: //6XNN Sets VX to NN.
-                println("6XNN X: " + hexDec(second) + " NN: " + hexDec(last2));
-
+            case Opcodes.LD_VX_NN: //6XNN Sets VX to NN.
                 mem.V[second] = (byte) last2;
                 break;
 
-            case 0x7000: //7XNN Adds NN to VX. (Carry flag is not changed)
-                println("7XNN X: " + hexDec(second) + " NN: " + hexDec(last2));
-
+            case Opcodes.ADD_VX_NN: //7XNN Adds NN to VX. (Carry flag is not changed)
                 int add_val = (last2) + mem.V[second];
                 if(add_val > 255) {
                     add_val -= 256;
@@ -258,317 +895,481 @@ public class CHIP8 {
                 mem.V[second] = (byte) add_val;
                 break;
 
-            case 0x8000:
-                switch(opcode & 0x000F) {
-                    case 0x0000: //8XY0 Sets VX to the value of VY.
-                        println("8XY0 X: " + hexDec(second) + " Y: " + hexDec(third));
-
-                        mem.V[second] = mem.V[third];
-                    break;
+            case Opcodes.LD_VX_VY: //8XY0 Sets VX to the value of VY.
+                mem.V[second] = mem.V[third];
+                break;
 
-                    case 0x0001: //8XY1 Sets VX to VX or VY. (Bitwise OR operation)
-                        println("8XY1 X: " + hexDec(second) + " Y: " + hexDec(third));
+            case Opcodes.OR: //8XY1 Sets VX to VX or VY. (Bitwise OR operation)
+                mem.V[second] = (byte) (mem.V[second] | mem.V[third]);
+                break;
 
-                        mem.V[second] = (byte) (mem.V[second] | mem.V[third]);
-                        break;
+            case Opcodes.AND: //8XY2 Sets VX to VX and VY. (Bitwise AND operation)
+                mem.V[second] = (byte) (mem.V[second] & mem.V[third]);
+                break;
 
-                    case 0x0002: //8XY2 Sets VX to VX and VY. (Bitwise AND operation)
-                        println("8XY2 X: " + hexDec(second) + " Y: " + hexDec(third));
+            case Opcodes.XOR: //8XY3 Sets VX to VX xor VY
+                mem.V[second] = (byte) (mem.V[second] ^ mem.V[third]);
+                break;
 
-                        mem.V[second] = (byte) (mem.V[second] & mem.V[third]);
-                        break;
+            case Opcodes.ADD_VX_VY: //8XY4 Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't
+                byte add_result = (byte) (mem.V[second] + mem.V[third]);
 
-                    case 0x0003: //8XY3 Sets VX to VX xor VY
-                        println("8XY3 X: " + hexDec(second) + " Y: " + hexDec(third));
+                //if one of the parameters of add operation is bigger than result there is carry
+                if((add_result & 0xff) < (mem.V[third] & 0xff) || (add_result & 0xff) < (mem.V[second] & 0xff)) { //remember to grab bytes without signs
+                    mem.V[15] = 1;
+                } else{
+                    mem.V[15] = 0;
+                }
 
-                        mem.V[second] = (byte) (mem.V[second] ^ mem.V[third]);
-                        break;
+                mem.V[second] = add_result;
+                break;
 
-                    case 0x0004: //8XY4 Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't
-                        println("8XY4 X: " + hexDec(second) + " Y: " + hexDec(third));
+            case Opcodes.SUB: //8XY5 VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+                byte sub_result = (byte) (mem.V[second] - mem.V[third]); //yes from this could be negative number but when deciding if borrow is 1 or 0 sign is skipped
 
-                        byte add_result = (byte) (mem.V[second] + mem.V[third]);
+                //if first parameter in sub operation is less than second there will be negative number so set borrow to 1
+                if((mem.V[second] & 0xff) > (mem.V[third] & 0xff)) { //remember to grab unsigned byte from signed one
+                    mem.V[15] = 1;
+                } else {
+                    mem.V[15] = 0;
+                }
 
-                        //if one of the parameters of add operation is bigger than result there is carry
-                        if((add_result & 0xff) < (mem.V[third] & 0xff) || (add_result & 0xff) < (mem.V[second] & 0xff)) { //remember to grab bytes without signs
-                            mem.V[15] = 1;
-                        } else{
-                            mem.V[15] = 0;
-                        }
+                mem.V[second] = sub_result;
+                break;
 
-                        mem.V[second] = add_result;
-                        break;
+            case Opcodes.SHR: //8XY6 Shifts VY right by one and copies the result to VX. VF is set to the value of the least significant bit of VY before the shift.
+                byte right_least_significant = (byte)(mem.V[second] & (byte) 0x01);
+                mem.V[0xF] = right_least_significant; //Set VF to the least significant bit of VX before shifting operation
 
-                    case 0x0005: //8XY5 VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        println("8XY5 X: " + hexDec(second) + " Y: " + hexDec(third));
+                int right_vx = (mem.V[second] & 0xff);
+                mem.V[second] = (byte) (right_vx >>> 1); // >>> operator means right shift one bit without care about sign bit
+                break;
 
-                        byte sub_result = (byte) (mem.V[second] - mem.V[third]); //yes from this could be negative number but when deciding if borrow is 1 or 0 sign is skipped
+            case Opcodes.SUBN: //8XY7 Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+                //welp almost same thing as in 8XY5
+                byte subn_result = (byte) (mem.V[third] - mem.V[second]);
 
-                        //if first parameter in sub operation is less than second there will be negative number so set borrow to 1
-                        if((mem.V[second] & 0xff) > (mem.V[third] & 0xff)) { //remember to grab unsigned byte from signed one
-                            mem.V[15] = 1;
-                        } else {
-                            mem.V[15] = 0;
-                        }
+                if((mem.V[third] & 0xff) > (mem.V[second] & 0xff)) { //as always grab byte without sign bit
+                    mem.V[0xF] = 1;
+                } else {
+                    mem.V[0xF] = 0;
+                }
 
-                        mem.V[second] = sub_result;
-                        break;
+                mem.V[second] = subn_result;
+                break;
 
-                    case 0x0006: //8XY6 Shifts VY right by one and copies the result to VX. VF is set to the value of the least significant bit of VY before the shift.
-                        println("8XY6 X: " + hexDec(second) + " Y: " + hexDec(third));
+            case Opcodes.SHL: //8XYE Shifts VY left by one and copies the result to VX. VF is set to the value of the most significant bit of VY before the shift.
+                byte rbit_most_significant = (byte)(mem.V[second] & 0x80); //0x80 == 128
+                if(rbit_most_significant != 0) {
+                    rbit_most_significant = 1; //if 0x10000000 -> set to 0x01
+                }
+                mem.V[15] = rbit_most_significant; //Set VF to the most significant bit of VX before shifting operation
 
-                        byte right_least_significant = (byte)(mem.V[second] & (byte) 0x01);
-                        mem.V[0xF] = right_least_significant; //Set VF to the least significant bit of VX before shifting operation
+                int rbit_vx = (mem.V[second] & 0xff); //int -> uint just like in 8XY6
+                mem.V[second] = (byte) (rbit_vx << 1);
+                break;
 
-                        int right_vx = (mem.V[second] & 0xff);
-                        mem.V[second] = (byte) (right_vx >>> 1); // >>> operator means right shift one bit without care about sign bit
-                        break;
+            case Opcodes.SNE_VX_VY: //9XY0 Skips the next instruction if VX doesn't equal VY. (Usually the next instruction is a jump to skip a code block)
+                if(mem.V[second] != mem.V[third])
+                    mem.pc += 2;
 
-                    case 0x0007: //8XY7 Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        println("8XY7 X: " + hexDec(second) + " Y: " + hexDec(third));
+                break;
 
-                        //welp almost same thing as in 8XY5
-                        byte subn_result = (byte) (mem.V[third] - mem.V[second]);
+            case Opcodes.LD_I: //ANNN Sets I to the address NNN.
+                mem.I = last3;
+                break;
 
-                        if((mem.V[third] & 0xff) > (mem.V[second] & 0xff)) { //as always grab byte without sign bit
-                            mem.V[0xF] = 1;
-                        } else {
-                            mem.V[0xF] = 0;
-                        }
+            case Opcodes.JP_V0: // BNNN Jumps to the address NNN plus V0.
+                mem.pc = mem.V[0] + last3;
+                break;
 
-                        mem.V[second] = subn_result;
-                        break;
+            case Opcodes.RND: //CXNN Sets VX to the result of a bitwise and operation on a random number (Typically: 0 to 255) and NN.
+                mem.V[second] = (byte) (random.nextByte() & last2);
+                break;
 
-                    case 0x000E: //8XYE Shifts VY left by one and copies the result to VX. VF is set to the value of the most significant bit of VY before the shift.
-                        println("8XYE X: " + hexDec(second) + " Y: " + hexDec(third));
+            case Opcodes.DRW: //DXYN Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels. Each row of 8 pixels is read as bit-coded starting from memory location I;
+                        // I value doesn’t change after the execution of this instruction.
+                        // As described above, VF is set to 1 if any screen pixels are flipped from set to unset when the sprite is drawn, and to 0 if that doesn’t happen
 
-                        byte rbit_most_significant = (byte)(mem.V[second] & 0x80); //0x80 == 128
-                        if(rbit_most_significant != 0) {
-                            rbit_most_significant = 1; //if 0x10000000 -> set to 0x01
-                        }
-                        mem.V[15] = rbit_most_significant; //Set VF to the most significant bit of VX before shifting operation
+                gfx.draw(second, third, fourth);
+                metrics.draw();
+                break;
 
-                        int rbit_vx = (mem.V[second] & 0xff); //int -> uint just like in 8XY6
-                        mem.V[second] = (byte) (rbit_vx << 1);
-                        break;
+            case Opcodes.SKP: //EX9E Skips the next instruction if the key stored in VX is pressed. (Usually the next instruction is a jump to skip a code block)
+                if(mem.key[mem.V[second]] == 1)
+                    mem.pc += 2;
 
-                    default:
-                        System.err.println("Unknown 0x8 opcode: " + String.format("%01X", opcode));
-                        break;
-                }
                 break;
 
-            case 0x9000: //9XY0 Skips the next instruction if VX doesn't equal VY. (Usually the next instruction is a jump to skip a code block)
-                println("9XY0 X: " + hexDec(second) + " Y: " + hexDec(third));
-
-                if(mem.V[second] != mem.V[third])
+            case Opcodes.SKNP: //EXA1 Skips the next instruction if the key stored in VX isn't pressed. (Usually the next instruction is a jump to skip a code block)
+                if(mem.key[mem.V[second]] != 1)
                     mem.pc += 2;
 
                 break;
 
-            case 0xA000: //ANNN Sets I to the address NNN.
-                println("ANNN NNN: " + hexDec(last3));
-
-                mem.I = last3;
+            case Opcodes.LD_VX_DT: //FX07 Sets VX to the value of the delay timer.
+                mem.V[second] = (byte) mem.delay_timer;
                 break;
 
-            case 0xB000: // BNNN Jumps to the address NNN plus V0.
-                println("BNNN NNN: " + hexDec(last3));
+            case Opcodes.LD_VX_K: //key press is awaited, and then stored in VX. (Blocking Operation. All instruction halted until next key event)
+                int pressed_key;
+                if(key_wait_blocking) {
+                    //park this thread until some key will be pressed or chip will be shut off
+                    metrics.keyWaitStarted();
+                    pressed_key = keyboard.awaitKeyPress();
+                    key_wait_aborted = pressed_key == -1;
+                    metrics.keyWaitEnded();
+                } else {
+                    //start waiting on first execution of this instruction, later ones just check if key was pressed meanwhile
+                    if(!waiting_for_key) {
+                        keyboard.beginWait();
+                        metrics.keyWaitStarted();
+                    }
+
+                    pressed_key = keyboard.pollKeyPress();
+                    waiting_for_key = pressed_key == -1;
+                    if(!waiting_for_key)
+                        metrics.keyWaitEnded();
+
+                    //no key yet, execute this instruction again on next step
+                    if(waiting_for_key) {
+                        mem.pc -= 2;
+                        break;
+                    }
+                }
 
-                mem.pc = mem.V[0] + last3;
+                mem.V[second] = (byte) Math.max(pressed_key, 0);
                 break;
 
-            case 0xC000: //CXNN Sets VX to the result of a bitwise and operation on a random number (Typically: 0 to 255) and NN.
-                println("CXNN NN: " + hexDec(last2));
+            case Opcodes.LD_DT_VX: //FX15 Sets the delay timer to VX.
+                mem.delay_timer = mem.V[second] & 0xff;
+                break;
 
-                mem.V[second] = (byte) (MathUtils.random(0, 255) & last2);
+            case Opcodes.LD_ST_VX: //FX18 Sets the sound timer to VX.
+                mem.sound_timer = mem.V[second] & 0xff;
                 break;
 
-            case 0xD000: //DXYN Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels. Each row of 8 pixels is read as bit-coded starting from memory location I;
-                        // I value doesn’t change after the execution of this instruction.
-                        // As described above, VF is set to 1 if any screen pixels are flipped from set to unset when the sprite is drawn, and to 0 if that doesn’t happen
+            case Opcodes.ADD_I_VX: //FX1E Adds VX to I.
+                mem.I += mem.V[second];
+                break;
 
-                println("DXYN X: " + hexDec(second) + " Y: " + hexDec(third) + " N: " + hexDec(fourth));
+            case Opcodes.LD_F_VX: //FX29 Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font.
+                mem.I = (short) (Memory.hexadecimalSpritesStartAddress + 5 * mem.V[second]);
+                break;
 
-                gfx.draw(second, third, fourth);
+            case Opcodes.LD_HF_VX: //FX30 Sets I to the location of the big sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 8x10 font.
+                mem.I = Memory.bigHexadecimalSpritesStartAddress + 10 * (mem.V[second] & 0xF);
                 break;
 
-            case 0xE000:
-                switch(opcode & 0x00FF) {
-                    case 0x009E: //EX9E Skips the next instruction if the key stored in VX is pressed. (Usually the next instruction is a jump to skip a code block)
-                        println("EX9E X: " + hexDec(second));
+            case Opcodes.LD_B_VX: //FX33 Stores the binary-coded decimal representation of VX, with the most significant of three digits at the address in I, the middle digit at I plus 1,
+                            // and the least significant digit at I plus 2.
+                            // (In other words, take the decimal representation of VX, place the hundreds digit in memory at location in I, the tens digit at location I+1, and the ones digit at location I+2.)
 
-                        if(mem.key[mem.V[second]] == 1)
-                            mem.pc += 2;
+                int start_memory_addr = mem.I;
+                int fx33_vx = mem.V[second] & 0xff; //get uint from register VX
 
-                        break;
+                int fx33_hundreds = fx33_vx / 100; //hundreds
+                fx33_vx = fx33_vx - fx33_hundreds * 100;
 
-                    case 0x00A1: //EXA1 Skips the next instruction if the key stored in VX isn't pressed. (Usually the next instruction is a jump to skip a code block)
-                        println("EXA1 X: " + hexDec(second));
+                int fx33_tens = fx33_vx / 10; //tens
+                fx33_vx = fx33_vx - fx33_tens * 10;
 
-                        if(mem.key[mem.V[second]] != 1)
-                            mem.pc += 2;
+                int fx33_units = fx33_vx; //units
 
-                        break;
+                mem.set(start_memory_addr, (byte) fx33_hundreds);
+                mem.set((start_memory_addr + 1), (byte) fx33_tens);
+                mem.set((start_memory_addr + 2), (byte) fx33_units);
+                break;
 
-                    default:
-                        System.err.println("Unknown 0xE opcode: " + String.format("%01X", opcode));
-                        break;
+            case Opcodes.LD_I_VX: //FX55 Stores V0 to VX (including VX) in memory starting at address I. I is increased by 1 for each value written.
+                for(byte reg = 0; reg <= second; reg++){
+                    mem.set((short) mem.I + reg, mem.V[reg]);
                 }
+
                 break;
 
-            case 0xF000:
-                switch(opcode & 0x00FF) {
-                    case 0x0007: //FX07 Sets VX to the value of the delay timer.
-                        println("FX07 X: " + hexDec(second));
+            case Opcodes.LD_VX_I: //FX65 Fills V0 to VX (including VX) with values from memory starting at address I. I is increased by 1 for each value written.
+                for(int i = 0; i <= second; i++) {
+                    mem.V[i] = mem.get(mem.I + i);
+                }
 
-                        mem.V[second] = (byte) mem.delay_timer;
-                        break;
+                break;
 
-                    case 0x000A: //key press is awaited, and then stored in VX. (Blocking Operation. All instruction halted until next key event)
-                        println("FX0A X: " + hexDec(second));
-
-                        final AtomicBoolean loop = new AtomicBoolean(true);
-                        final AtomicInteger pressed_key = new AtomicInteger(0);
-
-                        Keyboard.KeyCallback callback = new Keyboard.KeyCallback() {
-                            @Override
-                            public void pressed(int keycode) {
-                                pressed_key.set(keycode);
-                                loop.set(false);
-                            }
-                        };
-                        keyboard.waitForKeyPress(callback);
-
-                        //wait until some key will be pressed, or break loop if chip is shutdown flag is true
-                        while(loop.get() && !shutoff) {
-                            if(!keyboard.getPendingCallbacks().contains(callback) || shutoff) {
-                                break;
-                            }
-                        }
+            case Opcodes.LD_R_VX: //FX75 Stores V0 to VX (including VX) in RPL user flags
+                System.arraycopy(mem.V, 0, mem.rpl, 0, second + 1);
+                break;
 
-                        mem.V[second] = (byte) pressed_key.get();
-                        break;
+            case Opcodes.LD_VX_R: //FX85 Fills V0 to VX (including VX) with values from RPL user flags
+                System.arraycopy(mem.rpl, 0, mem.V, 0, second + 1);
+                break;
 
-                    case 0x0015: //FX15 Sets the delay timer to VX.
-                        println("FX15 X: " + hexDec(second));
+            default:
+                mem.faults.record(Faults.UNKNOWN_OPCODE, mem.pc - 2, opcode);
+                mem.faults.stop = true;
+                break;
+        }
 
-                        mem.delay_timer = mem.V[second];
-                        break;
+    }
 
-                    case 0x0018: //FX18 Sets the sound timer to VX.
-                        println("FX18 X: " + hexDec(second));
+    /**
+     * FNV-1a 64 hash
+     * @param data data to hash
+     * @return hash
+     */
+    private static long hash(byte[] data) {
+        long hash = 0xcbf29ce484222325L;
 
-                        mem.sound_timer = mem.V[second];
-                        break;
+        for(byte b : data) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
 
-                    case 0x001E: //FX1E Adds VX to I.
-                        println("FX1E X: " + hexDec(second));
+        return hash;
+    }
 
-                        mem.I += mem.V[second];
-                        break;
+    /**
+     * Flag determining if loading program into memory is done
+     * @return flag determining if loading program into memory is done
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
 
-                    case 0x0029: //FX29 Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font.
-                        println("FX29 X: " + hexDec(second));
+    /**
+     * Call it before setting you chip instance to null to avoid blocking chip block because of some non broken while(true) loop which still waits for key input
+     * Method that sets shutoff flag to true
+     */
+    public void shutoff() {
+        shutoff = true;
+        keyboard.cancelWait();
+    }
 
-                        mem.I = (short) (Memory.hexadecimalSpritesStartAddress + 5 * mem.V[second]);
-                        break;
+    /**
+     * Set compiler of hot basic blocks used in BLOCK interpreter mode, call it from emulator thread (or when chip isn't running)
+     * @param compiler block compiler (f.e. one generating JVM classes), null makes BLOCK mode run like CACHED
+     */
+    public void setBlockCompiler(BlockCompiler compiler) {
+        block_cache.setCompiler(compiler);
+    }
 
-                    case 0x0033: //FX33 Stores the binary-coded decimal representation of VX, with the most significant of three digits at the address in I, the middle digit at I plus 1,
-                                    // and the least significant digit at I plus 2.
-                                    // (In other words, take the decimal representation of VX, place the hundreds digit in memory at location in I, the tens digit at location I+1, and the ones digit at location I+2.)
-                        println("FX33 X: " + hexDec(second));
+    /**
+     * @return compiler of hot basic blocks, null if there isn't any
+     */
+    public BlockCompiler getBlockCompiler() {
+        return block_cache.getCompiler();
+    }
 
-                        int start_memory_addr = mem.I;
-                        int fx33_vx = mem.V[second] & 0xff; //get uint from register VX
+    /**
+     * Change the way instructions are fetched & decoded, can be called at any moment
+     * @param mode new interpreter mode
+     */
+    public void setInterpreterMode(InterpreterMode mode) {
+        //memory writes are tracked only in cached modes, so caches have to start from scratch
+        decode_cache.clear();
+        block_cache.clear();
+        block_cache.markLeader(mem.pc);
+        mem.decode_cache = (mode != InterpreterMode.SWITCH) ? decode_cache : null;
+
+        interpreter_mode = mode;
+    }
 
-                        int fx33_hundreds = fx33_vx / 100; //hundreds
-                        fx33_vx = fx33_vx - fx33_hundreds * 100;
+    /**
+     * Start recording key changes applied from Keyboard.queue(), call right after load() (before any instruction is executed)
+     * Switches FX0A to non blocking one, blocking FX0A applies key changes on its own and they wouldn't be recorded
+     * @param recorder recorder, null stops recording (call MovieRecorder.finish() afterwards)
+     * @throws IllegalStateException if some instructions were already executed since load()
+     */
+    public void setMovieRecorder(MovieRecorder recorder) {
+        if(recorder != null) {
+            if(instruction_count != 0)
+                throw new IllegalStateException("Movie recording has to start right after load()");
 
-                        int fx33_tens = fx33_vx / 10; //tens
-                        fx33_vx = fx33_vx - fx33_tens * 10;
+            recorder.begin(rom_hash, random.getState(), instructions_per_frame, cycle_timers, vip_hires);
+            setKeyWaitBlocking(false);
+        }
 
-                        int fx33_units = fx33_vx; //units
+        movie_recorder = recorder;
+    }
 
-                        mem.set(start_memory_addr, (byte) fx33_hundreds);
-                        mem.set((start_memory_addr + 1), (byte) fx33_tens);
-                        mem.set((start_memory_addr + 2), (byte) fx33_units);
-                        break;
+    /**
+     * Start replaying movie, call right after load() with program movie was recorded with
+     * Sets random generator seed, instructions per frame, timer mode & VIP hires mode recorded in movie and switches FX0A to non blocking one
+     * @param player player, null stops playback
+     * @throws IllegalStateException if some instructions were already executed since load()
+     * @throws IllegalArgumentException if movie was recorded with other program
+     */
+    public void setMoviePlayer(MoviePlayer player) {
+        if(player != null) {
+            if(instruction_count != 0)
+                throw new IllegalStateException("Movie playback has to start right after load()");
+
+            if(player.getRomHash() != rom_hash)
+                throw new IllegalArgumentException("Movie was recorded with different program");
+
+            random.setState(player.getSeed());
+            setInstructionsPerFrame(player.getInstructionsPerFrame());
+            setTimerMode(player.isCycleTimers() ? TimerMode.CYCLES : TimerMode.WALL_CLOCK);
+            setVipHires(player.isVipHires());
+            setKeyWaitBlocking(false);
+        }
 
-                    case 0x0055: //FX55 Stores V0 to VX (including VX) in memory starting at address I. I is increased by 1 for each value written.
-                        println("FX55 X: " + hexDec(second));
+        movie_player = player;
+    }
 
-                        for(byte reg = 0; reg <= second; reg++){
-                            mem.set((short) mem.I + reg, mem.V[reg]);
-                        }
+    /**
+     * @return FNV-1a 64 hash of loaded program (0 if nothing was loaded yet)
+     */
+    public long getRomHash() {
+        return rom_hash;
+    }
 
-                        break;
+    /**
+     * Random generator used by CXNN, its state is part of machine state (see SplitMix64.getState())
+     * @return random generator of this chip
+     */
+    public SplitMix64 getRandom() {
+        return random;
+    }
 
-                    case 0x0065: //FX65 Fills V0 to VX (including VX) with values from memory starting at address I. I is increased by 1 for each value written.
-                        println("FX65 X: " + hexDec(second));
+    /**
+     * @return current interpreter mode
+     */
+    public InterpreterMode getInterpreterMode() {
+        return interpreter_mode;
+    }
 
-                        for(int i = 0; i <= second; i++) {
-                            mem.V[i] = mem.get(mem.I + i);
-                        }
+    /**
+     * Set amount of instructions executed by runUntilFrame(), usually clock frequency / 60
+     * @param instructions_per_frame instructions per one 60Hz frame (at least 1)
+     */
+    public void setInstructionsPerFrame(int instructions_per_frame) {
+        this.instructions_per_frame = Math.max(1, instructions_per_frame);
+    }
 
-                        break;
+    /**
+     * Start or stop recording executed instructions, sink is called on emulator thread (dump Tracer when chip isn't running)
+     * @param tracer sink recording every executed instruction (f.e. Tracer or TraceWriter), null turns tracing off
+     */
+    public void setTracer(TraceSink tracer) {
+        this.tracer = tracer;
+    }
 
-                    default:
-                        System.err.println("Unknown 0xF opcode: " + String.format("%01X", opcode));
-                        break;
-                }
+    /**
+     * @return current trace sink, null if tracing is off
+     */
+    public TraceSink getTracer() {
+        return tracer;
+    }
 
-                break;
+    /**
+     * Start or stop profiling, counters are updated on emulator thread (they can be read from any thread, see Profiler)
+     * @param profiler profiler counting executed instructions & memory accesses, null turns profiling off
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        mem.profiler = profiler;
+    }
 
-            default:
-                System.err.println(String.format("Unknown opcode: %01X", opcode));
-                break;
-        }
+    /**
+     * @return current profiler, null if profiling is off
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
 
+    /**
+     * Runtime metrics of this chip, updated by emulator thread and readable from any thread (see Metrics)
+     * @return metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Print String s to console if print_debug flag is set to true
-     * @param s string that will be printed to console if print_debug flag = true
+     * Choose what happens with invalid memory accesses, COUNT by default
+     * @param policy new fault policy
      */
-    private void println(String s) {
-        if(PRINT_DEBUG)
-            System.out.println(s);
+    public void setFaultPolicy(FaultPolicy policy) {
+        mem.faults.policy = policy;
     }
 
+    /**
+     * Counters of faults since program was loaded, read them from emulator thread (or when chip isn't running)
+     * @return faults counters
+     */
+    public Faults getFaults() {
+        return mem.faults;
+    }
 
-    /*
-     *
-     * Method used to grab value stored and formatted in string for debug purposes (to print in console)
-     *
+    /**
+     * Change the way timers are decreased
+     * @param mode new timer mode
      */
+    public void setTimerMode(TimerMode mode) {
+        timer_mode = mode;
+        cycle_timers = (mode == TimerMode.CYCLES);
 
-    private String bin(int val) {
-        return Integer.toBinaryString(val);
+        frame_cycles = 0;
+        last_timer_update = System.nanoTime();
     }
 
-    private String hex(int val) {
-        return Integer.toHexString(val);
+    /**
+     * Choose how FX0A waits for key
+     * @param blocking true - emulator thread is parked until key is pressed (default), false - execution returns WAITING_FOR_KEY and FX0A is retried on next call
+     */
+    public void setKeyWaitBlocking(boolean blocking) {
+        key_wait_blocking = blocking;
     }
 
-    private String hexDec(int val) {
-        return hex(val) + "(" + val + ")";
+    /**
+     * @return true if FX0A parks emulator thread until key is pressed
+     */
+    public boolean isKeyWaitBlocking() {
+        return key_wait_blocking;
     }
 
     /**
-     * Flag determining if loading program into memory is done
-     * @return flag determining if loading program into memory is done
+     * Enable VIP two page hires programs (f.e. roms/hires), they start with 1260 jump which switches into 64x64 mode and continues at 2C0
+     * Off by default, because ordinary programs can start with jump to 260 too
+     * @param vip_hires true to handle 1260 jump at program start as VIP hires mode switch
      */
-    public boolean isLoaded() {
-        return loaded;
+    public void setVipHires(boolean vip_hires) {
+        this.vip_hires = vip_hires;
     }
 
     /**
-     * Call it before setting you chip instance to null to avoid blocking chip block because of some non broken while(true) loop which still waits for key input
-     * Method that sets shutoff flag to true
+     * @return true if 1260 jump at program start switches into VIP 64x64 hires mode
      */
-    public void shutoff() {
-        shutoff = true;
+    public boolean isVipHires() {
+        return vip_hires;
+    }
+
+    /**
+     * @return current timer mode
+     */
+    public TimerMode getTimerMode() {
+        return timer_mode;
+    }
+
+    /**
+     * @return amount of instructions executed since program was loaded (cycles spent by non blocking FX0A waiting for key included)
+     */
+    public long getInstructionCount() {
+        return instruction_count;
+    }
+
+    /**
+     * @return amount of instructions executed by runUntilFrame()
+     */
+    public int getInstructionsPerFrame() {
+        return instructions_per_frame;
+    }
+
+    /**
+     * @return amount of instructions executed by last runCycles() / runUntilFrame() call
+     */
+    public int getLastRunCycles() {
+        return last_run_cycles;
     }
 
     /**
@@ -583,23 +1384,35 @@ public class CHIP8 {
      * @return number of line of code were breakpoint occurs
      */
     public int getBreakpointLine() {
-        return breakpoint_line;
+        return (breakpoint_address - 512) / 2;
+    }
+
+    /**
+     * Use only if isBreakpoint() = true
+     * @return address of instruction were breakpoint occurs
+     */
+    public int getBreakpointAddress() {
+        return breakpoint_address;
     }
 
     /**
-     * Array containing all breakpoints.
-     * Add, remove breakpoints directly to this exposed array
-     * @return array containing all current breakpoints
+     * Breakpoints & watchpoints of this chip.
+     * Add, remove breakpoints directly to this exposed instance, it is safe to do this from any thread
+     * @return breakpoints instance
      */
-    public ArrayList<Integer> getBreakpoints() {
+    public Breakpoints getBreakpoints() {
         return breakpoints;
     }
 
     /**
-     * @return String which contains whole list of loaded program instruction in hex format and dec format of line number, ready for f.e. showing to user what is loaded or whatever
+     * Listing of loaded program with mnemonics, lines are disassembled on demand and cached by program hash (see ProgramListing)
+     * @return lazy listing of loaded program, toString() gives whole listing
      */
-    public String getProgramInstructions() {
-        return program_instructions;
+    public ProgramListing getProgramInstructions() {
+        if(program_listing == null)
+            program_listing = ProgramListing.of(rom_hash, rom_image, ProgramListing.PROGRAM_START, program_size);
+
+        return program_listing;
     }
 
     /**
@@ -625,4 +1438,47 @@ public class CHIP8 {
     public Keyboard getKeyboard() {
         return keyboard;
     }
+
+    /**
+     * Chip seen by compiled blocks (see BlockCompiler), generated code keeps V registers in its own locals and handles simple instructions itself,
+     * everything else (drawing, scrolling, random numbers, memory accesses) goes through execute()
+     */
+    public final class BlockContext {
+        /**
+         * Memory of chip, compiled code reads & writes its registers directly
+         */
+        public final Memory memory = mem;
+
+        /**
+         * Currently running block & maximum amount of instructions it can execute
+         */
+        private BlockCache.Block block;
+        private int budget;
+
+        private BlockContext() {
+        }
+
+        /**
+         * Block which jumps back to its own start can run again only if its whole length still fits into budget
+         * @return maximum amount of instructions running block can execute (at least its length)
+         */
+        public int getBudget() {
+            return budget;
+        }
+
+        /**
+         * Execute one instruction of running block in interpreter, V registers in memory have to be up to date before the call
+         * and registers changed by instruction have to be read back after it
+         * @param decoded packed decoded instruction (see Opcodes), never a branch
+         * @param address address of instruction
+         * @return true if block has to stop right after this instruction (its code was overwritten or fault halted execution)
+         */
+        public boolean execute(int decoded, int address) {
+            mem.instruction = address;
+            mem.pc = address + 2;
+            CHIP8.this.execute(decoded);
+
+            return !block.valid || mem.faults.stop;
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package chip8;
+
+import java.util.Arrays;
+
+/**
+ * Cache of pre-decoded instructions, one slot per memory address (chip8 programs are allowed to jump to odd addresses so every address gets its own slot)
+ * Slot holds packed decoded instruction (see Opcodes) or 0 if it wasn't decoded yet / was invalidated by write into memory
+ */
+
+public class DecodeCache {
+
+    /**
+     * Memory instance from which opcodes are fetched
+     */
+    private Memory mem;
+
+    /**
+     * Packed decoded instructions indexed by address
+     */
+    private int[] slots;
+
+    /**
+     * Block cache that has to be notified about writes into memory too (null if chip doesn't run compiled blocks)
+     */
+    BlockCache block_cache;
+
+    /**
+     * Construct new decode cache
+     * @param mem memory instance from which opcodes will be fetched
+     */
+    public DecodeCache(Memory mem) {
+        this.mem = mem;
+
+        slots = new int[mem.memory.length];
+    }
+
+    /**
+     * Grab decoded instruction stored at given address, decode it if this slot is empty
+     * @param address address of instruction, 0 - 4094
+     * @return packed decoded instruction
+     */
+    public int get(int address) {
+        int decoded = slots[address];
+
+        if(decoded == 0) {
+            int opcode = ((mem.memory[address] << 8) & 0xFF00) | (mem.memory[address + 1] & 0x00FF);
+            decoded = Opcodes.decode(opcode);
+            slots[address] = decoded;
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Drop slots that contain byte at given address (instruction starting at this address and one starting 1 byte before)
+     * @param address address of written byte
+     */
+    public void invalidate(int address) {
+        slots[address] = 0;
+
+        if(address > 0)
+            slots[address - 1] = 0;
+
+        if(block_cache != null)
+            block_cache.invalidate(address);
+    }
+
+    /**
+     * Drop every decoded instruction, call it after memory was modified directly (f.e. new program was loaded)
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+    }
+
+    /**
+     * @return true if given address can be fetched through cache (instruction fits fully into memory)
+     */
+    public boolean isCacheable(int address) {
+        return address >= 0 && address < slots.length - 1;
+    }
+}
@@ -0,0 +1,94 @@
+package chip8;
+
+/**
+ * Translates opcodes into mnemonics (f.e. 6310 -> "LD V3, 0x10", D015 -> "DRW V0, V1, 5"), names follow Cowgod's Chip-8 technical reference
+ * Opcodes are decoded by Opcodes.handler(), so listing shows the same instruction as the one interpreter executes, unknown opcodes are shown as data ("DW 0x1234")
+ */
+
+public class Disassembler {
+
+    /**
+     * @param opcode 2 byte opcode
+     * @return mnemonic of opcode
+     */
+    public static String mnemonic(int opcode) {
+        return append(new StringBuilder(16), opcode).toString();
+    }
+
+    /**
+     * Append mnemonic of opcode
+     * @param out destination
+     * @param opcode 2 byte opcode
+     * @return out
+     */
+    public static StringBuilder append(StringBuilder out, int opcode) {
+        opcode &= 0xFFFF;
+
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int n = opcode & 0x000F;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+
+        switch(Opcodes.handler(opcode)) {
+            case Opcodes.CLS: return out.append("CLS");
+            case Opcodes.RET: return out.append("RET");
+            case Opcodes.JP: return address(out.append("JP "), nnn);
+            case Opcodes.CALL: return address(out.append("CALL "), nnn);
+            case Opcodes.SE_VX_NN: return value(register(out.append("SE "), x).append(", "), nn);
+            case Opcodes.SNE_VX_NN: return value(register(out.append("SNE "), x).append(", "), nn);
+            case Opcodes.SE_VX_VY: return register(register(out.append("SE "), x).append(", "), y);
+            case Opcodes.LD_VX_NN: return value(register(out.append("LD "), x).append(", "), nn);
+            case Opcodes.ADD_VX_NN: return value(register(out.append("ADD "), x).append(", "), nn);
+            case Opcodes.LD_VX_VY: return register(register(out.append("LD "), x).append(", "), y);
+            case Opcodes.OR: return register(register(out.append("OR "), x).append(", "), y);
+            case Opcodes.AND: return register(register(out.append("AND "), x).append(", "), y);
+            case Opcodes.XOR: return register(register(out.append("XOR "), x).append(", "), y);
+            case Opcodes.ADD_VX_VY: return register(register(out.append("ADD "), x).append(", "), y);
+            case Opcodes.SUB: return register(register(out.append("SUB "), x).append(", "), y);
+            case Opcodes.SHR: return register(register(out.append("SHR "), x).append(", "), y);
+            case Opcodes.SUBN: return register(register(out.append("SUBN "), x).append(", "), y);
+            case Opcodes.SHL: return register(register(out.append("SHL "), x).append(", "), y);
+            case Opcodes.SNE_VX_VY: return register(register(out.append("SNE "), x).append(", "), y);
+            case Opcodes.LD_I: return address(out.append("LD I, "), nnn);
+            case Opcodes.JP_V0: return address(out.append("JP V0, "), nnn);
+            case Opcodes.RND: return value(register(out.append("RND "), x).append(", "), nn);
+            case Opcodes.DRW: return register(register(out.append("DRW "), x).append(", "), y).append(", ").append(n);
+            case Opcodes.SKP: return register(out.append("SKP "), x);
+            case Opcodes.SKNP: return register(out.append("SKNP "), x);
+            case Opcodes.LD_VX_DT: return register(out.append("LD "), x).append(", DT");
+            case Opcodes.LD_VX_K: return register(out.append("LD "), x).append(", K");
+            case Opcodes.LD_DT_VX: return register(out.append("LD DT, "), x);
+            case Opcodes.LD_ST_VX: return register(out.append("LD ST, "), x);
+            case Opcodes.ADD_I_VX: return register(out.append("ADD I, "), x);
+            case Opcodes.LD_F_VX: return register(out.append("LD F, "), x);
+            case Opcodes.LD_B_VX: return register(out.append("LD B, "), x);
+            case Opcodes.LD_I_VX: return register(out.append("LD [I], "), x);
+            case Opcodes.LD_VX_I: return register(out.append("LD "), x).append(", [I]");
+            case Opcodes.SCD: return out.append("SCD ").append(n);
+            case Opcodes.SCR: return out.append("SCR");
+            case Opcodes.SCL: return out.append("SCL");
+            case Opcodes.EXIT: return out.append("EXIT");
+            case Opcodes.LOW: return out.append("LOW");
+            case Opcodes.HIGH: return out.append("HIGH");
+            case Opcodes.LD_HF_VX: return register(out.append("LD HF, "), x);
+            case Opcodes.LD_R_VX: return register(out.append("LD R, "), x);
+            case Opcodes.LD_VX_R: return register(out.append("LD "), x).append(", R");
+
+            default:
+                return Tracer.appendHex(out.append("DW 0x"), opcode, 4);
+        }
+    }
+
+    private static StringBuilder register(StringBuilder out, int index) {
+        return Tracer.appendHex(out.append('V'), index, 1);
+    }
+
+    private static StringBuilder value(StringBuilder out, int value) {
+        return Tracer.appendHex(out.append("0x"), value, 2);
+    }
+
+    private static StringBuilder address(StringBuilder out, int address) {
+        return Tracer.appendHex(out.append("0x"), address, 3);
+    }
+}
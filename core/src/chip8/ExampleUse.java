@@ -6,6 +6,11 @@ package chip8;
 
 public class ExampleUse {
 
+    /**
+     * Description of fault which stopped emulation (null while program runs), shown by your UI
+     */
+    private volatile String last_fault;
+
     public static void main(String[] args) {
         ExampleUse use = new ExampleUse();
         use.setup();
@@ -23,11 +28,21 @@ public class ExampleUse {
 
             @Override
             public void run() {
-                final float UPS = 500; //500 steps each second of emulation
-                final float sleep_time = 1f / UPS * 1000f; //calculate period from frequency (in milis thats why * 1000) so we know for how long thread must sleep each frame
+                final int UPS = 500; //500 steps each second of emulation
+                final float sleep_time = 1f / 60f * 1000f; //run whole 60Hz frame at once and sleep rest of it
+                chip.setInstructionsPerFrame(UPS / 60);
 
                 while(true) {
-                    chip.emulationStep();
+                    //FAULT means unknown opcode or invalid memory access with HALT fault policy, chip keeps details in its Faults
+                    CHIP8.RunResult result = chip.runUntilFrame();
+                    if(result == CHIP8.RunResult.FAULT) {
+                        Faults faults = chip.getFaults();
+                        if(faults.getLastType() == Faults.UNKNOWN_OPCODE) {
+                            //program can't go on, show faults.describeLast() to user and stop emulation
+                            last_fault = faults.describeLast();
+                            return;
+                        }
+                    }
 
                     try {
                         Thread.sleep((long) sleep_time);
@@ -72,4 +87,11 @@ public class ExampleUse {
         chip_thread.interrupt();
     }
 
+    /**
+     * @return description of fault which stopped emulation, null if program is still running
+     */
+    public String getLastFault() {
+        return last_fault;
+    }
+
 }
@@ -0,0 +1,200 @@
+package chip8;
+
+import java.util.Arrays;
+
+/**
+ * Counters of faults (invalid memory accesses & unknown opcodes) per fault type and per address of instruction which caused them
+ * Recording a fault doesn't allocate anything, only the first fault of every type allocates its per address counters
+ * What happens with invalid memory access is decided by chip fault policy (see CHIP8.setFaultPolicy())
+ */
+
+public class Faults {
+
+    /**
+     * Fault types
+     */
+    public static final int UNKNOWN_OPCODE = 0, INVALID_READ = 1, INVALID_WRITE = 2;
+
+    /**
+     * Number of fault types
+     */
+    public static final int TYPES = 3;
+
+    /**
+     * Size of address space of counted instructions
+     */
+    private static final int ADDRESS_SPACE = 4096;
+
+    /**
+     * Policy used by memory for invalid accesses, COUNT by default
+     */
+    CHIP8.FaultPolicy policy = CHIP8.FaultPolicy.COUNT;
+
+    /**
+     * Set when fault has to end batched execution (unknown opcode or invalid access with HALT policy), cleared by chip before every batch
+     */
+    boolean stop;
+
+    /**
+     * Amount of faults per type & per type and instruction address (lazily allocated)
+     */
+    private long[] counts;
+    private int[][] pc_counts;
+
+    /**
+     * Last recorded fault, type is -1 if there wasn't any
+     */
+    private int last_type = -1, last_pc, last_value;
+
+    public Faults() {
+        counts = new long[TYPES];
+        pc_counts = new int[TYPES][];
+    }
+
+    /**
+     * Count fault
+     * @param type fault type
+     * @param pc address of instruction which caused fault
+     * @param value accessed address (invalid accesses) or opcode (unknown opcodes)
+     */
+    void record(int type, int pc, int value) {
+        pc &= ADDRESS_SPACE - 1;
+
+        counts[type]++;
+
+        if(pc_counts[type] == null)
+            pc_counts[type] = new int[ADDRESS_SPACE];
+        pc_counts[type][pc]++;
+
+        last_type = type;
+        last_pc = pc;
+        last_value = value;
+    }
+
+    /**
+     * Reset all counters
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        for(int[] pcs : pc_counts) {
+            if(pcs != null)
+                Arrays.fill(pcs, 0);
+        }
+
+        last_type = -1;
+        stop = false;
+    }
+
+    /**
+     * @param type fault type
+     * @return amount of faults of given type
+     */
+    public long getCount(int type) {
+        return counts[type];
+    }
+
+    /**
+     * @param type fault type
+     * @param pc instruction address
+     * @return amount of faults of given type caused by instruction at given address
+     */
+    public int getCount(int type, int pc) {
+        int[] pcs = pc_counts[type];
+        return pcs != null ? pcs[pc & (ADDRESS_SPACE - 1)] : 0;
+    }
+
+    /**
+     * @return amount of faults of all types
+     */
+    public long getTotal() {
+        long total = 0;
+        for(long count : counts)
+            total += count;
+
+        return total;
+    }
+
+    /**
+     * Collect addresses of instructions which caused faults of given type
+     * @param type fault type
+     * @param out array filled with addresses (in ascending order), addresses which don't fit are skipped
+     * @return amount of addresses which caused faults (can be more than out length)
+     */
+    public int getFaultingAddresses(int type, int[] out) {
+        int[] pcs = pc_counts[type];
+        if(pcs == null)
+            return 0;
+
+        int found = 0;
+        for(int pc = 0; pc < pcs.length; pc++) {
+            if(pcs[pc] != 0) {
+                if(found < out.length)
+                    out[found] = pc;
+                found++;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * @return type of last fault, -1 if there wasn't any since last clear
+     */
+    public int getLastType() {
+        return last_type;
+    }
+
+    /**
+     * @return address of instruction which caused last fault
+     */
+    public int getLastAddress() {
+        return last_pc;
+    }
+
+    /**
+     * @return accessed address (invalid accesses) or opcode (unknown opcodes) of last fault
+     */
+    public int getLastValue() {
+        return last_value;
+    }
+
+    /**
+     * @param type fault type
+     * @return readable name of fault type
+     */
+    public static String getTypeName(int type) {
+        switch(type) {
+            case UNKNOWN_OPCODE:
+                return "unknown opcode";
+            case INVALID_READ:
+                return "invalid read";
+            case INVALID_WRITE:
+                return "invalid write";
+            default:
+                return "none";
+        }
+    }
+
+    /**
+     * @return description of last fault, f.e. "invalid read of 0x1003 by instruction at 0x2A4", "none" if there wasn't any
+     */
+    public String describeLast() {
+        if(last_type == -1)
+            return getTypeName(last_type);
+
+        StringBuilder out = new StringBuilder(48);
+        out.append(getTypeName(last_type)).append(last_type == UNKNOWN_OPCODE ? " 0x" : " of 0x");
+        //invalid addresses lie outside of 12 bit address space, so they need 4 digits just like opcodes
+        Tracer.appendHex(out, last_value, 4).append(" by instruction at 0x");
+        Tracer.appendHex(out, last_pc, 3);
+
+        return out.toString();
+    }
+
+    /**
+     * @return policy used for invalid memory accesses
+     */
+    public CHIP8.FaultPolicy getPolicy() {
+        return policy;
+    }
+}
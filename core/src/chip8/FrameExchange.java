@@ -0,0 +1,175 @@
+package chip8;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free triple buffer used to hand completed frames from emulator thread (producer) to render thread (consumer)
+ * Producer owns back buffer, consumer owns front buffer and the third one sits in the middle, buffers change owners only by atomic index swap
+ * so consumer always gets the newest completed frame and neither side ever waits for the other one
+ */
+
+public class FrameExchange {
+
+    /**
+     * Flag stored together with middle buffer index, set when middle buffer holds frame not taken by consumer yet
+     */
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    /**
+     * Amount of last frames which dirty rows masks are remembered, consumer lagging more frames behind gets all rows marked as dirty
+     */
+    private static final int HISTORY = 64;
+
+    /**
+     * Frame buffers, sequence numbers & formats of frames they hold
+     */
+    private final long[][] buffers;
+    private final long[] sequences;
+    private final int[] formats;
+
+    /**
+     * Index of middle buffer | FRESH flag
+     */
+    private final AtomicInteger middle;
+
+    /**
+     * back - index of buffer owned by producer
+     * front - index of buffer owned by consumer
+     */
+    private int back, front;
+
+    /**
+     * Sequence number of last published frame (written by producer side only), bumped before history entry of frame is written
+     * so consumer which read an overwritten entry always sees it moved
+     */
+    private volatile long sequence;
+
+    /**
+     * Dirty rows masks of last published frames, indexed by sequence number % HISTORY
+     */
+    private final AtomicLongArray dirty_history;
+
+    /**
+     * Consumer side, sequence number of previously acquired frame & rows changed between it and current front buffer
+     */
+    private long consumed_sequence;
+    private long front_dirty;
+
+    /**
+     * Construct new exchange
+     * @param frame_size size of one frame (amount of longs)
+     */
+    public FrameExchange(int frame_size) {
+        buffers = new long[3][frame_size];
+        sequences = new long[3];
+        formats = new int[3];
+
+        dirty_history = new AtomicLongArray(HISTORY);
+
+        back = 0;
+        middle = new AtomicInteger(1);
+        front = 2;
+    }
+
+    /**
+     * Producer side, copy completed frame into back buffer and swap it with middle one
+     * @param frame frame data (first frame_size longs are published)
+     * @param dirty_rows mask of rows changed since previously published frame (bit y = row y)
+     */
+    public void publish(long[] frame, long dirty_rows) {
+        publish(frame, buffers[back].length, 0, dirty_rows);
+    }
+
+    /**
+     * Producer side, copy completed frame which uses only part of buffer into back buffer and swap it with middle one
+     * @param frame frame data
+     * @param length amount of published longs (rest of buffer is left as it was)
+     * @param format user defined description of frame layout (f.e. resolution), handed over together with frame
+     * @param dirty_rows mask of rows changed since previously published frame (bit y = row y)
+     */
+    public void publish(long[] frame, int length, int format, long dirty_rows) {
+        long next = sequence + 1;
+
+        System.arraycopy(frame, 0, buffers[back], 0, length);
+        sequences[back] = next;
+        formats[back] = format;
+
+        //announce sequence first (seqlock style), entry of frame next - HISTORY is gone from now on
+        sequence = next;
+        dirty_history.set((int) (next % HISTORY), dirty_rows);
+
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Consumer side, take newest published frame if there is one not taken yet
+     * @return true if front buffer was replaced with newer frame
+     */
+    public boolean acquire() {
+        if((middle.get() & FRESH) == 0)
+            return false;
+
+        front = middle.getAndSet(front) & INDEX_MASK;
+
+        //sum up rows changed by every frame published since previously acquired one, including frames consumer never saw
+        long acquired = sequences[front];
+        long dirty = 0;
+        if(acquired - consumed_sequence >= HISTORY) {
+            dirty = -1L;
+        } else {
+            for(long s = consumed_sequence + 1; s <= acquired; s++)
+                dirty |= dirty_history.get((int) (s % HISTORY));
+
+            //producer could overwrite history entries while we were reading them, entry of frame s is overwritten
+            //only after sequence reached s + HISTORY, so any started overwrite of read entries is visible here
+            if(sequence - consumed_sequence > HISTORY)
+                dirty = -1L;
+        }
+
+        front_dirty = dirty;
+        consumed_sequence = acquired;
+        return true;
+    }
+
+    /**
+     * Consumer side, rows that differ between front buffer and frame acquired before it (bit y = row y)
+     * @return dirty rows mask
+     */
+    public long getFrontDirtyRows() {
+        return front_dirty;
+    }
+
+    /**
+     * Consumer side, buffer with last acquired frame, it stays untouched until next acquire() (don't modify it)
+     * @return front buffer
+     */
+    public long[] getFrontBuffer() {
+        return buffers[front];
+    }
+
+    /**
+     * Consumer side, format passed to publish() together with last acquired frame
+     * @return frame format
+     */
+    public int getFrontFormat() {
+        return formats[front];
+    }
+
+    /**
+     * Consumer side, sequence number of last acquired frame (0 if nothing was acquired yet), equal numbers mean identical frames
+     * @return frame sequence number
+     */
+    public long getFrontSequence() {
+        return sequences[front];
+    }
+
+    /**
+     * Producer side
+     * @return sequence number of last published frame
+     */
+    public long getPublishedSequence() {
+        return sequence;
+    }
+}
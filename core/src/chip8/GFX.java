@@ -1,16 +1,58 @@
 package chip8;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- * Class holding pixels state and handling draw sprite opcode
+ * Class holding pixels state and handling draw sprite & scroll opcodes
+ * Pixels are packed, width / 64 longs per row (row y starts at index y * width / 64), most significant bit of the first long is the leftmost pixel (x = 0)
+ * Resolution can change at runtime (64x32 low res, 128x64 SUPER-CHIP high res, 64x64 VIP two page mode), buffers are sized for the biggest one
+ * Drawing happens on emulator thread, every DXYN, 00E0, scroll & resolution change publishes completed frame which render thread grabs with update()
  * Created by RYZEN on 31.03.2018.
  */
 
 public class GFX {
 
     /**
-     * Current pixels state array & buffer used in render process
+     * Observer notified on emulator thread about every completed frame (after each DXYN, 00E0, scroll & resolution change), useful for recorders & streamers
+     */
+    public interface FrameListener {
+        /**
+         * @param rows packed rows of completed frame (width / 64 longs per row), valid only during this call (don't modify it)
+         * @param width width of completed frame
+         * @param height height of completed frame
+         * @param dirty_rows rows changed by this frame (bit y = row y)
+         * @param sequence sequence number of this frame
+         */
+        void frameCompleted(long[] rows, int width, int height, long dirty_rows, long sequence);
+    }
+
+    /**
+     * Registered frame listeners, copied on every change so emulator thread can iterate it without locks
+     */
+    private volatile FrameListener[] listeners = new FrameListener[0];
+
+    /**
+     * Current pixels state (emulator thread) & buffer used in render process (render thread), width / 64 longs per row
+     */
+    private long pixels[], pixels_buffer[];
+
+    /**
+     * Current resolution (emulator thread) & resolution of frame in pixels buffer (render thread)
+     */
+    private int width, height, words_per_row;
+    private int buffer_width, buffer_height;
+
+    /**
+     * Triple buffer handing completed frames from emulator thread to render thread
+     */
+    private FrameExchange exchange;
+
+    /**
+     * Unpacked view of pixels buffer returned by getPixelsBuffer(), rebuilt only when buffer changed since last call
      */
-    private boolean pixels[][], pixels_buffer[][];
+    private boolean pixels_view[][];
+    private boolean view_outdated;
 
     /**
      * Memory instance used to access registers & draw flag
@@ -18,10 +60,20 @@ public class GFX {
     private Memory mem;
 
     /**
-     * Resolution of screen
+     * Default (low) resolution of screen
      */
     public static final int WIDTH = 64, HEIGHT = 32;
 
+    /**
+     * SUPER-CHIP high resolution of screen
+     */
+    public static final int HIRES_WIDTH = 128, HIRES_HEIGHT = 64;
+
+    /**
+     * Biggest supported resolution, every buffer is allocated for it (height is limited by 64 bits of dirty rows masks)
+     */
+    public static final int MAX_WIDTH = 128, MAX_HEIGHT = 64;
+
     /**
      * Construct new GFX class instance
      * @param mem memory instance
@@ -29,96 +81,382 @@ public class GFX {
     public GFX(Memory mem) {
         this.mem = mem;
 
-        pixels = new boolean[WIDTH][HEIGHT];
-        pixels_buffer = new boolean[WIDTH][HEIGHT];
+        pixels = new long[MAX_WIDTH / 64 * MAX_HEIGHT];
+        exchange = new FrameExchange(pixels.length);
+        pixels_buffer = exchange.getFrontBuffer();
+
+        width = buffer_width = WIDTH;
+        height = buffer_height = HEIGHT;
+        words_per_row = WIDTH / 64;
+        pixels_view = new boolean[WIDTH][HEIGHT];
+    }
+
+    /**
+     * Change resolution, screen is cleared
+     * @param width new width (64 or 128)
+     * @param height new height (1 - 64)
+     */
+    public void setResolution(int width, int height) {
+        if((width != 64 && width != 128) || height < 1 || height > MAX_HEIGHT)
+            throw new IllegalArgumentException("Unsupported resolution: " + width + "x" + height);
+
+        this.width = width;
+        this.height = height;
+        words_per_row = width / 64;
+
+        Arrays.fill(pixels, 0);
+        publish(-1L);
     }
 
     /**
      * Clear screen (just set all pixels to false)
      */
     public void clear() {
-        for(int i = 0; i < pixels.length; i++) {
-            for (int j = 0; j < pixels[0].length; j++) {
-                pixels[i][j] = false;
-                pixels_buffer[i][j] = false;
+        long dirty = 0;
+        for(int y = 0; y < height; y++) {
+            for(int word = y * words_per_row; word < (y + 1) * words_per_row; word++) {
+                if(pixels[word] != 0)
+                    dirty |= 1L << y;
             }
         }
+
+        Arrays.fill(pixels, 0);
+
+        publish(dirty);
     }
 
     /**
-     * Method handling DXYN opcode
+     * Method handling DXYN opcode, every sprite row is XORed into screen row with one operation per row long
+     * DXY0 draws 16x16 sprite (2 bytes per row) in 128 pixels wide mode and 8x16 sprite (1 byte per row) otherwise, like SUPER-CHIP
      * @param x X
      * @param y Y
      * @param nibble N
      */
     public void draw(int x, int y, int nibble) {
-        byte offset = 0;
+        int local_x = (mem.V[x] & 0xff) % width;
+        int local_y = mem.V[y] & 0xff;
 
-        byte vf = 0;
-        while(offset < nibble) {
+        boolean big = nibble == 0 && width == HIRES_WIDTH;
+        int rows = nibble == 0 ? 16 : nibble;
+        int sprite_width = big ? 16 : 8;
 
-            byte curr_byte = mem.get((short) (mem.I + offset)); //read one byte
-            for(int i = 0; i <= 7; i++) {
+        long erased = 0, dirty = 0;
+        for(int offset = 0; offset < rows; offset++) {
+            long sprite_row;
+            if(big)
+                sprite_row = ((mem.get((short) (mem.I + offset * 2)) & 0xff) << 8) | (mem.get((short) (mem.I + offset * 2 + 1)) & 0xff);
+            else
+                sprite_row = mem.get((short) (mem.I + offset)) & 0xff; //read one byte
 
-                //transform local into real cords
-                int local_x = mem.V[x] & 0xff;
-                int local_y = mem.V[y] & 0xff;
-                int real_x = (local_x + i) % WIDTH;
-                int real_y = (local_y + offset) % HEIGHT;
+            int real_y = (local_y + offset) % height;
+            int word = real_y * words_per_row;
 
-                boolean previous_pixel = pixels[real_x][real_y]; //previous state of pixel
-                boolean new_pixel = previous_pixel ^ isBitSet(curr_byte,7 - i); //new state of pixel
+            //move sprite row to the leftmost bits and then rotate it into place, rotation wraps pixels around screen edge
+            long sprite = sprite_row << (64 - sprite_width);
+            long changed;
+            if(words_per_row == 1) {
+                sprite = Long.rotateRight(sprite, local_x);
 
-                pixels[real_x][real_y] = new_pixel;
-
-                if(previous_pixel && !new_pixel) {
-                    vf = 1; //pixel erased
+                long previous = pixels[word];
+                erased |= previous & sprite; //pixels that are set in both will be erased
+                pixels[word] = previous ^ sprite;
+                changed = sprite;
+            } else {
+                //128 bits row, rotate (high, low) pair of longs
+                long high = sprite, low = 0;
+                int shift = local_x;
+                if(shift >= 64) {
+                    low = high;
+                    high = 0;
+                    shift -= 64;
+                }
+                if(shift != 0) {
+                    long rotated_high = (high >>> shift) | (low << (64 - shift));
+                    low = (low >>> shift) | (high << (64 - shift));
+                    high = rotated_high;
                 }
+
+                erased |= (pixels[word] & high) | (pixels[word + 1] & low);
+                pixels[word] ^= high;
+                pixels[word + 1] ^= low;
+                changed = high | low;
             }
 
-            mem.V[15] = vf; //update VF register (1 = pixel has been erased)
-            offset++;
+            if(changed != 0)
+                dirty |= 1L << real_y;
         }
 
-        mem.draw_flag = true;
+        mem.V[15] = (byte) (erased != 0 ? 1 : 0); //update VF register (1 = pixel has been erased)
+
+        publish(dirty);
+    }
+
+    /**
+     * Method handling 00CN opcode, move whole screen down, rows scrolled in at the top are empty
+     * @param amount amount of rows
+     */
+    public void scrollDown(int amount) {
+        amount = Math.min(amount, height);
+        if(amount == 0)
+            return;
+
+        //rows are contiguous so whole screen moves with one copy
+        System.arraycopy(pixels, 0, pixels, amount * words_per_row, (height - amount) * words_per_row);
+        Arrays.fill(pixels, 0, amount * words_per_row, 0);
+
+        publish(-1L >>> (64 - height));
+    }
+
+    /**
+     * Method handling 00FB opcode, move whole screen right, pixels scrolled out are lost
+     * @param amount amount of pixels (1 - 63)
+     */
+    public void scrollRight(int amount) {
+        for(int y = 0; y < height; y++) {
+            int first = y * words_per_row;
+
+            for(int word = first + words_per_row - 1; word > first; word--)
+                pixels[word] = (pixels[word] >>> amount) | (pixels[word - 1] << (64 - amount));
+            pixels[first] >>>= amount;
+        }
+
+        publish(-1L >>> (64 - height));
+    }
+
+    /**
+     * Method handling 00FC opcode, move whole screen left, pixels scrolled out are lost
+     * @param amount amount of pixels (1 - 63)
+     */
+    public void scrollLeft(int amount) {
+        for(int y = 0; y < height; y++) {
+            int last = (y + 1) * words_per_row - 1;
+
+            for(int word = y * words_per_row; word < last; word++)
+                pixels[word] = (pixels[word] << amount) | (pixels[word + 1] >>> (64 - amount));
+            pixels[last] <<= amount;
+        }
+
+        publish(-1L >>> (64 - height));
     }
 
     /**
-     * Call it before your rendering process, copies current pixels state to buffer and because of that removes flickering effect
+     * Hand completed frame over to render thread and notify listeners
+     * @param dirty rows changed by this frame
      */
-    public void update() {
-        if(mem.draw_flag) {
-            copyPixels();
-            mem.draw_flag = false;
+    private void publish(long dirty) {
+        exchange.publish(pixels, height * words_per_row, (width << 16) | height, dirty);
+        mem.draw_flag = true;
+
+        FrameListener[] current = listeners;
+        if(current.length != 0) {
+            long sequence = exchange.getPublishedSequence();
+
+            for(FrameListener listener : current)
+                listener.frameCompleted(pixels, width, height, dirty, sequence);
         }
     }
 
     /**
-     * After drawing process copy pixels to buffer which is used in rendering process
+     * Write resolution & current pixels state into save state
+     * @param out buffer
+     */
+    void writeState(ByteBuffer out) {
+        out.putShort((short) width);
+        out.putShort((short) height);
+
+        for(int i = 0; i < height * words_per_row; i++)
+            out.putLong(pixels[i]);
+    }
+
+    /**
+     * Read pixels state written by writeState() and publish it as new frame with every row dirty
+     * @param in buffer
+     */
+    void readState(ByteBuffer in) {
+        int state_width = in.getShort(), state_height = in.getShort();
+        if((state_width != 64 && state_width != 128) || state_height < 1 || state_height > MAX_HEIGHT)
+            throw new IllegalArgumentException("Unsupported save state resolution: " + state_width + "x" + state_height);
+
+        width = state_width;
+        height = state_height;
+        words_per_row = width / 64;
+
+        Arrays.fill(pixels, 0);
+        for(int i = 0; i < height * words_per_row; i++)
+            pixels[i] = in.getLong();
+
+        publish(-1L);
+    }
+
+    /**
+     * Register frame listener, can be called from any thread
+     * @param listener listener called on emulator thread after every completed frame
+     */
+    public synchronized void addFrameListener(FrameListener listener) {
+        FrameListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+
+        listeners = updated;
+    }
+
+    /**
+     * Unregister frame listener, can be called from any thread
+     * @param listener previously registered listener
      */
-    private void copyPixels() {
-        for(int y = 0; y < HEIGHT; y++) {
-            for (int x = 0; x < WIDTH; x++) {
-                pixels_buffer[x][y] = pixels[x][y];
+    public synchronized void removeFrameListener(FrameListener listener) {
+        for(int i = 0; i < listeners.length; i++) {
+            if(listeners[i] == listener) {
+                FrameListener[] updated = new FrameListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+
+                listeners = updated;
+                return;
             }
         }
     }
 
     /**
-     * Check if bit on bit index place in byte b is 1
-     * @param b byte
-     * @param bit bit index
-     * @return true if bit on bit index in byte b is equal to 1
+     * Call it before your rendering process (on render thread), grabs newest completed frame into pixels buffer, because of that removes flickering effect
+     * @return true if pixels buffer changed since last call
+     */
+    public boolean update() {
+        mem.draw_flag = false;
+
+        if(exchange.acquire()) {
+            pixels_buffer = exchange.getFrontBuffer();
+            view_outdated = true;
+
+            int format = exchange.getFrontFormat();
+            buffer_width = format >>> 16;
+            buffer_height = format & 0xffff;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Sequence number of frame in pixels buffer, grows with every completed frame so consumers can skip unchanged frames
+     * @return sequence number of frame in pixels buffer (0 if there was no frame yet)
      */
-    private boolean isBitSet(byte b, int bit) {
-        return (b & (1 << bit)) != 0;
+    public long getFrameSequence() {
+        return exchange.getFrontSequence();
+    }
+
+    /**
+     * Rows changed between frame in pixels buffer and frame which was there before last update() that brought new frame,
+     * frames published meanwhile but never grabbed by update() are included
+     * @return dirty rows mask (bit y = row y)
+     */
+    public long getDirtyRows() {
+        return exchange.getFrontDirtyRows();
     }
 
     /**
      * Getter for pixels buffer, use this buffer to grab info which pixel should be rendered
-     * @return array holding state about pixels
+     * Unpacks packed rows, prefer getRow() / getRowsBuffer() in renderers which are called every frame
+     * @return array holding state about pixels, indexed [x][y] (its size follows resolution of pixels buffer)
      */
     public boolean[][] getPixelsBuffer() {
+        if(view_outdated) {
+            if(pixels_view.length != buffer_width || pixels_view[0].length != buffer_height)
+                pixels_view = new boolean[buffer_width][buffer_height];
+
+            for(int y = 0; y < buffer_height; y++) {
+                for(int x = 0; x < buffer_width; x++)
+                    pixels_view[x][y] = isPixelSet(x, y);
+            }
+
+            view_outdated = false;
+        }
+
+        return pixels_view;
+    }
+
+    /**
+     * Packed row of pixels buffer, most significant bit is the leftmost pixel
+     * @param y row index (0 - getHeight() - 1)
+     * @return the leftmost 64 pixels of row
+     */
+    public long getRow(int y) {
+        return pixels_buffer[y * (buffer_width / 64)];
+    }
+
+    /**
+     * Packed part of row of pixels buffer, most significant bit is the leftmost pixel of part
+     * @param y row index (0 - getHeight() - 1)
+     * @param word index of 64 pixels part (0 - getWidth() / 64 - 1)
+     * @return row pixels x = word * 64 to word * 64 + 63
+     */
+    public long getRow(int y, int word) {
+        return pixels_buffer[y * (buffer_width / 64) + word];
+    }
+
+    /**
+     * Check state of one pixel in pixels buffer
+     * @param x column (0 - getWidth() - 1)
+     * @param y row (0 - getHeight() - 1)
+     * @return true if pixel is set
+     */
+    public boolean isPixelSet(int x, int y) {
+        return (pixels_buffer[y * (buffer_width / 64) + (x >>> 6)] & (1L << (63 - (x & 63)))) != 0;
+    }
+
+    /**
+     * Packed pixels buffer, getWidth() / 64 longs per row (don't modify it, array is swapped by every update() call which brings new frame)
+     * Array is sized for the biggest resolution, only first getRowsLength() longs belong to frame
+     * @return pixels buffer rows
+     */
+    public long[] getRowsBuffer() {
         return pixels_buffer;
     }
+
+    /**
+     * @return amount of longs of pixels buffer which belong to frame (getWidth() / 64 * getHeight())
+     */
+    public int getRowsLength() {
+        return buffer_width / 64 * buffer_height;
+    }
+
+    /**
+     * FNV-1a 64 hash of frame in pixels buffer (only rows of its resolution), same frames give same hash
+     * @return hash
+     */
+    public long getFrameHash() {
+        long hash = 0xcbf29ce484222325L;
+
+        for(int index = 0, length = getRowsLength(); index < length; index++) {
+            long row = pixels_buffer[index];
+            for(int i = 0; i < 8; i++) {
+                hash ^= (row >>> (i * 8)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * @return width of frame in pixels buffer
+     */
+    public int getWidth() {
+        return buffer_width;
+    }
+
+    /**
+     * @return height of frame in pixels buffer
+     */
+    public int getHeight() {
+        return buffer_height;
+    }
+
+    /**
+     * Resolution chip currently draws in, may be ahead of pixels buffer, call from emulator thread
+     * @return true if screen is 128 pixels wide
+     */
+    public boolean isHires() {
+        return width == HIRES_WIDTH;
+    }
 }
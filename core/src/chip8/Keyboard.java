@@ -1,10 +1,12 @@
 package chip8;
 
 import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Class responsible for sending input state to chip
  * With this class you can use any library for handling input, just call justSet() method when you need to change chip input state
+ * or queue() it when chip runs on other thread, queued changes are applied by chip between instructions so runs can be recorded & replayed
  * Created by RYZEN on 01.04.2018.
  */
 
@@ -23,6 +25,29 @@ public class Keyboard {
     }
     private ArrayList<KeyCallback> callbacks;
 
+    /**
+     * FX0A wait state
+     * waiting - true while chip waits for key press
+     * waiting_thread - thread parked in awaitKeyPress() (null in non blocking wait), it applies queued changes itself
+     * awaited_key - key pressed while waiting, -1 if nothing was pressed yet
+     * wait_cancelled - set by cancelWait() to unblock parked thread without key press, stays set so no wait can start after that
+     */
+    private volatile boolean waiting, wait_cancelled;
+    private volatile Thread waiting_thread;
+    private volatile int awaited_key = -1;
+
+    /**
+     * Key changes waiting to be applied by chip, ring of packed (index << 1) | pressed events, guarded by itself
+     */
+    private final int[] queued_events = new int[64];
+    private int queued_first, queued_count;
+    private volatile boolean has_queued;
+
+    /**
+     * Amount of queued changes lost because queue was full (see queue())
+     */
+    private long lost_events;
+
     /**
      * Construct new keyboard class instance
      * @param memory memory instance used to modify keys state stored there
@@ -51,6 +76,154 @@ public class Keyboard {
         }
 
         memory.key[index] = value;
+
+        //wake up chip waiting in FX0A
+        if(value == 1 && waiting && awaited_key == -1) {
+            awaited_key = index;
+
+            Thread thread = waiting_thread;
+            if(thread != null)
+                LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Thread safe way of changing key state, change is applied by chip between instructions (at the beginning of next emulationStep() / runCycles() call)
+     * or by chip thread parked in blocking FX0A, so changes are always applied on chip thread in order they were queued
+     * When queue is full (chip doesn't run) change replaces the newest queued change of the same key, so final key state is kept
+     * and only intermediate presses are lost, change is dropped if there is no queued change of that key, both are counted (see getLostEvents())
+     * @param index index of key that state was changed (0 - 15)
+     * @param value new state of that key (1 - pressed, 0 - nope)
+     * @return false if change was dropped
+     */
+    public boolean queue(int index, byte value) {
+        int event = (index << 1) | (value != 0 ? 1 : 0);
+        boolean queued = true;
+
+        synchronized (queued_events) {
+            if(queued_count < queued_events.length) {
+                queued_events[(queued_first + queued_count) % queued_events.length] = event;
+                queued_count++;
+            } else {
+                queued = coalesce(event);
+                lost_events++;
+            }
+
+            has_queued = true;
+        }
+
+        //waiter publishes itself before it polls queue and this reads it after queueing, so change is never left behind parked thread
+        Thread thread = waiting_thread;
+        if(thread != null)
+            LockSupport.unpark(thread);
+
+        return queued;
+    }
+
+    /**
+     * Replace the newest queued change of the same key with given one, call only with full queue while holding its lock
+     * @param event packed event
+     * @return false if no change of that key is queued
+     */
+    private boolean coalesce(int event) {
+        for(int i = queued_count - 1; i >= 0; i--) {
+            int slot = (queued_first + i) % queued_events.length;
+
+            if((queued_events[slot] >> 1) == (event >> 1)) {
+                queued_events[slot] = event;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Take the oldest queued key change (called by chip)
+     * @return packed (index << 1) | pressed event or -1 if nothing is queued
+     */
+    int pollQueued() {
+        if(!has_queued)
+            return -1;
+
+        synchronized (queued_events) {
+            if(queued_count == 0)
+                return -1;
+
+            int event = queued_events[queued_first];
+            queued_first = (queued_first + 1) % queued_events.length;
+            queued_count--;
+            has_queued = queued_count > 0;
+
+            return event;
+        }
+    }
+
+    /**
+     * Start waiting for key press, from now first pressed key is remembered (used by non blocking FX0A)
+     */
+    public void beginWait() {
+        awaited_key = -1;
+        waiting = !wait_cancelled;
+    }
+
+    /**
+     * Check if key was pressed since beginWait(), ends wait if it was
+     * @return pressed key index or -1 if nothing was pressed yet
+     */
+    public int pollKeyPress() {
+        int key = awaited_key;
+        if(key != -1)
+            waiting = false;
+
+        return key;
+    }
+
+    /**
+     * Park calling thread until some key is pressed or cancelWait() is called, doesn't allocate and doesn't spin (used by blocking FX0A)
+     * Changes queued meanwhile are applied by calling thread (see queue())
+     * @return pressed key index or -1 if wait was cancelled
+     */
+    public int awaitKeyPress() {
+        waiting_thread = Thread.currentThread();
+        beginWait();
+
+        while(true) {
+            int event;
+            while((event = pollQueued()) != -1)
+                justSet(event >> 1, (byte) (event & 1));
+
+            if(awaited_key != -1 || wait_cancelled)
+                break;
+
+            LockSupport.park(this);
+        }
+
+        waiting = false;
+        waiting_thread = null;
+
+        return awaited_key;
+    }
+
+    /**
+     * Stop pending FX0A wait immediately and don't let any new one block (called when chip is shut off)
+     */
+    public void cancelWait() {
+        wait_cancelled = true;
+        waiting = false;
+
+        Thread thread = waiting_thread;
+        if(thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return amount of queued changes which were dropped or replaced by newer change of the same key because queue was full
+     */
+    public long getLostEvents() {
+        synchronized (queued_events) {
+            return lost_events;
+        }
     }
 
     /**
@@ -65,7 +238,7 @@ public class Keyboard {
      * @return Flag determining if there are any pending key callbacks waiting for some key to be pressed
      */
     public boolean isWaitingForKey() {
-        return callbacks.size() > 0;
+        return waiting || callbacks.size() > 0;
     }
 
     /**
@@ -27,6 +27,26 @@ public class Memory {
             0xF0, 0x80, 0xF0, 0x80, 0x80  // F
     };
 
+    /** SUPER-CHIP 8x10 FONT DATA **/
+    public short[] chip8_big_fontset = new short[] {
+            0x3C, 0x7E, 0xE7, 0xC3, 0xC3, 0xC3, 0xC3, 0xE7, 0x7E, 0x3C, // 0
+            0x18, 0x38, 0x58, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x3C, // 1
+            0x3E, 0x7F, 0xC3, 0x06, 0x0C, 0x18, 0x30, 0x60, 0xFF, 0xFF, // 2
+            0x3C, 0x7E, 0xC3, 0x03, 0x0E, 0x0E, 0x03, 0xC3, 0x7E, 0x3C, // 3
+            0x06, 0x0E, 0x1E, 0x36, 0x66, 0xC6, 0xFF, 0xFF, 0x06, 0x06, // 4
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFE, 0x03, 0xC3, 0x7E, 0x3C, // 5
+            0x3E, 0x7C, 0xC0, 0xC0, 0xFC, 0xFE, 0xC3, 0xC3, 0x7E, 0x3C, // 6
+            0xFF, 0xFF, 0x03, 0x06, 0x0C, 0x18, 0x30, 0x60, 0x60, 0x60, // 7
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7E, 0x7E, 0xC3, 0xC3, 0x7E, 0x3C, // 8
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7F, 0x3F, 0x03, 0x03, 0x3E, 0x7C, // 9
+            0x18, 0x3C, 0x66, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, // A
+            0xFC, 0xFE, 0xC3, 0xC3, 0xFE, 0xFE, 0xC3, 0xC3, 0xFE, 0xFC, // B
+            0x3C, 0x7E, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0x7E, 0x3C, // C
+            0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, // D
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFC, 0xC0, 0xC0, 0xFF, 0xFF, // E
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFC, 0xC0, 0xC0, 0xC0, 0xC0  // F
+    };
+
     /**
      * 16 (V0, V1 to VE + carry register(VF)) registers
      */
@@ -45,6 +65,10 @@ public class Memory {
      * offset address where sprites memory part starts, well just 0
      */
     public static short hexadecimalSpritesStartAddress = 0x000;
+    /**
+     * offset address where big (8x10) sprites memory part starts, right after small ones
+     */
+    public static short bigHexadecimalSpritesStartAddress = 0x050;
     /**
      * Byte array, memory, 4096 bytes
      */
@@ -64,6 +88,11 @@ public class Memory {
      */
     public byte[] key; //16 keys as input
 
+    /**
+     * SUPER-CHIP RPL user flags (FX75 & FX85), they aren't cleared when other program is loaded
+     */
+    public byte[] rpl;
+
     /**
      * Draw flag, if true chip requests redraw after drawing process set it manually to false
      * (chip sets it in GFX class)
@@ -76,14 +105,42 @@ public class Memory {
      */
     public int delay_timer, sound_timer;
 
+    /**
+     * Decode cache that has to be notified about every write into memory (null if chip doesn't use cached interpreter)
+     */
+    DecodeCache decode_cache;
+
+    /**
+     * Watchpoints notified about every read & write (null if there are no watchpoints set, chip updates it before running)
+     */
+    Breakpoints watchpoints;
+
+    /**
+     * Profiler counting reads & writes per address (null if profiling is off)
+     */
+    Profiler profiler;
+
+    /**
+     * Fault counters & policy deciding what happens with invalid accesses
+     */
+    Faults faults;
+
+    /**
+     * Address of instruction which is fetched or executed right now, chip sets it before touching memory on its behalf
+     * so invalid accesses (also the ones made by instruction fetch itself) are attributed to it
+     */
+    int instruction;
+
     /**
      * Construct new memory instance, just create all needed variables
      */
     public Memory() {
+        faults = new Faults();
         V = new byte[16];
         memory = new byte[4096];
         stack = new int[16];
         key = new byte[16];
+        rpl = new byte[16];
     }
 
     /**
@@ -93,11 +150,22 @@ public class Memory {
      */
     public void set(int address, byte value) {
         if(address >= memory.length || address < 0) {
-            System.err.println("Invalid memory address! (set " + address + ")");
-            return;
+            address = invalidAccess(Faults.INVALID_WRITE, address);
+            if(address == -1)
+                return;
         }
 
         memory[address] = value;
+
+        if(watchpoints != null)
+            watchpoints.onWrite(address);
+
+        if(profiler != null)
+            profiler.writes[address]++;
+
+        //drop decoded instruction which contains this byte so self modifying programs still work
+        if(decode_cache != null)
+            decode_cache.invalidate(address);
     }
 
     /**
@@ -107,10 +175,39 @@ public class Memory {
      */
     public byte get(int address) {
         if(address >= memory.length || address < 0) {
-            System.err.println("Invalid memory address! (get " + address + ")");
-            return 0;
+            address = invalidAccess(Faults.INVALID_READ, address);
+            if(address == -1)
+                return 0;
         }
 
+        if(watchpoints != null)
+            watchpoints.onRead(address);
+
+        if(profiler != null)
+            profiler.reads[address]++;
+
         return memory[address];
     }
-}
+
+    /**
+     * Count invalid access and apply fault policy
+     * @param type INVALID_READ or INVALID_WRITE
+     * @param address invalid address
+     * @return wrapped address which should be accessed instead, -1 if access should be skipped
+     */
+    private int invalidAccess(int type, int address) {
+        faults.record(type, instruction, address);
+
+        switch(faults.policy) {
+            case WRAP:
+                return address & (memory.length - 1);
+
+            case HALT:
+                faults.stop = true;
+                return -1;
+
+            default:
+                return -1;
+        }
+    }
+}
\ No newline at end of file
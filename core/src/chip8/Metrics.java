@@ -0,0 +1,369 @@
+package chip8;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Runtime metrics of one chip: instructions, frames, DXYN draws & timer ticks per second, time spent in FX0A waiting for key,
+ * faults, shortfall of achieved clock against target frequency and histogram of frame time jitter
+ * Frame is one runCycles() / runUntilFrame() call (hosts run one per 60Hz frame), hosts stepping single instructions get only totals
+ *
+ * Counters are plain fields written only by emulator thread, instruction loop doesn't touch them at all (DXYN, timer ticks & FX0A
+ * do one increment), rates are computed once per second at frame start and published to other threads with one volatile write,
+ * so any thread (f.e. JMX) can read them
+ */
+
+public class Metrics {
+
+    /**
+     * Expected time between frames
+     */
+    public static final long FRAME_PERIOD = 1000000000L / 60L;
+
+    /**
+     * Upper bounds (exclusive, nanoseconds) of jitter histogram buckets, jitter is difference between frame time and FRAME_PERIOD,
+     * last bucket takes everything above the last bound
+     */
+    private static final long[] JITTER_BOUNDS = {
+            250000L, 500000L, 1000000L, 2000000L, 4000000L, 8000000L, 16000000L
+    };
+
+    /**
+     * Amount of jitter histogram buckets
+     */
+    public static final int JITTER_BUCKETS = JITTER_BOUNDS.length + 1;
+
+    /**
+     * Length of window over which rates are computed
+     */
+    private static final long RATE_WINDOW = 1000000000L;
+
+    /**
+     * Faults of chip memory (counted by memory itself)
+     */
+    private Faults faults;
+
+    /**
+     * Totals since last clear, written by emulator thread
+     */
+    private long instructions, frames, draws, timer_ticks, key_waits, key_wait_time;
+
+    /**
+     * Start of current FX0A wait (non blocking one lasts over many frames), 0 if chip doesn't wait
+     */
+    private long key_wait_start;
+
+    /**
+     * Jitter histogram & the longest frame
+     */
+    private long[] jitter;
+    private long max_frame_time;
+
+    /**
+     * Clock frequency host tries to run chip at, 0 if unknown
+     */
+    private int target_frequency;
+
+    /**
+     * Previous frame start & start of current rate window with totals at its beginning
+     */
+    private long last_frame_time, window_start, window_instructions, window_frames, window_draws, window_ticks;
+
+    /**
+     * Rates computed over the last finished window
+     */
+    private double instructions_per_second, frames_per_second, draws_per_second, ticks_per_second;
+
+    /**
+     * Written after every frame, readers read it first so they see everything written before it
+     */
+    private volatile long published;
+
+    /**
+     * @param faults faults counters of chip memory
+     */
+    Metrics(Faults faults) {
+        this.faults = faults;
+        jitter = new long[JITTER_BUCKETS];
+        clear();
+    }
+
+    /**
+     * Reset all counters & rates (program was loaded)
+     */
+    void clear() {
+        instructions = frames = draws = timer_ticks = key_waits = key_wait_time = 0;
+        key_wait_start = 0;
+        Arrays.fill(jitter, 0);
+        max_frame_time = 0;
+
+        last_frame_time = window_start = 0;
+        window_instructions = window_frames = window_draws = window_ticks = 0;
+        instructions_per_second = frames_per_second = draws_per_second = ticks_per_second = 0;
+
+        published = System.nanoTime();
+    }
+
+    /**
+     * Count DXYN
+     */
+    void draw() {
+        draws++;
+    }
+
+    /**
+     * Count 60Hz timer ticks
+     * @param ticks amount of ticks
+     */
+    void tick(int ticks) {
+        timer_ticks += ticks;
+    }
+
+    /**
+     * FX0A started waiting for key
+     */
+    void keyWaitStarted() {
+        key_wait_start = System.nanoTime();
+        key_waits++;
+    }
+
+    /**
+     * FX0A stopped waiting (key was pressed or wait was aborted)
+     */
+    void keyWaitEnded() {
+        if(key_wait_start != 0) {
+            key_wait_time += System.nanoTime() - key_wait_start;
+            key_wait_start = 0;
+        }
+    }
+
+    /**
+     * Frame started, update jitter histogram, recompute rates once per window and publish everything
+     * @param instruction_count amount of instructions executed by chip since load
+     */
+    void frame(long instruction_count) {
+        long now = System.nanoTime();
+        instructions = instruction_count;
+        frames++;
+
+        if(last_frame_time != 0) {
+            long frame_time = now - last_frame_time;
+            max_frame_time = Math.max(max_frame_time, frame_time);
+
+            long deviation = Math.abs(frame_time - FRAME_PERIOD);
+            int bucket = 0;
+            while(bucket < JITTER_BOUNDS.length && deviation >= JITTER_BOUNDS[bucket])
+                bucket++;
+            jitter[bucket]++;
+        }
+        last_frame_time = now;
+
+        if(window_start == 0) {
+            startWindow(now);
+        } else if(now - window_start >= RATE_WINDOW) {
+            double seconds = (now - window_start) / 1e9;
+            instructions_per_second = (instructions - window_instructions) / seconds;
+            frames_per_second = (frames - window_frames) / seconds;
+            draws_per_second = (draws - window_draws) / seconds;
+            ticks_per_second = (timer_ticks - window_ticks) / seconds;
+
+            startWindow(now);
+        }
+
+        published = now;
+    }
+
+    private void startWindow(long now) {
+        window_start = now;
+        window_instructions = instructions;
+        window_frames = frames;
+        window_draws = draws;
+        window_ticks = timer_ticks;
+    }
+
+    /**
+     * Set clock frequency host tries to run chip at (used to compute shortfall), call it from emulator thread
+     * @param frequency target frequency in Hz
+     */
+    public void setTargetFrequency(int frequency) {
+        target_frequency = frequency;
+    }
+
+    /**
+     * @return nanoTime() of the last frame (or clear), reading it makes all other getters up to date
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return amount of instructions executed since load (as of last frame)
+     */
+    public long getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return amount of frames since load
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return amount of executed DXYN since load
+     */
+    public long getDraws() {
+        return draws;
+    }
+
+    /**
+     * @return amount of 60Hz timer ticks since load
+     */
+    public long getTimerTicks() {
+        return timer_ticks;
+    }
+
+    /**
+     * @return amount of FX0A waits since load
+     */
+    public long getKeyWaits() {
+        return key_waits;
+    }
+
+    /**
+     * @return time spent by FX0A waiting for key since load in nanoseconds (finished waits only)
+     */
+    public long getKeyWaitTime() {
+        return key_wait_time;
+    }
+
+    /**
+     * @return amount of faults since load
+     */
+    public long getFaults() {
+        return faults.getTotal();
+    }
+
+    /**
+     * @return achieved clock over the last second
+     */
+    public double getInstructionsPerSecond() {
+        return instructions_per_second;
+    }
+
+    /**
+     * @return frames over the last second
+     */
+    public double getFramesPerSecond() {
+        return frames_per_second;
+    }
+
+    /**
+     * @return DXYN draws over the last second
+     */
+    public double getDrawsPerSecond() {
+        return draws_per_second;
+    }
+
+    /**
+     * @return timer ticks over the last second
+     */
+    public double getTimerTicksPerSecond() {
+        return ticks_per_second;
+    }
+
+    /**
+     * @return clock frequency host tries to run chip at, 0 if it wasn't set
+     */
+    public int getTargetFrequency() {
+        return target_frequency;
+    }
+
+    /**
+     * @return how many instructions per second chip fell behind target frequency over the last second (0 if it didn't)
+     */
+    public double getShortfall() {
+        return Math.max(0, target_frequency - instructions_per_second);
+    }
+
+    /**
+     * @return shortfall as fraction of target frequency (0 - 1)
+     */
+    public double getShortfallRatio() {
+        return target_frequency > 0 ? getShortfall() / target_frequency : 0;
+    }
+
+    /**
+     * @param bucket histogram bucket (0 - JITTER_BUCKETS - 1)
+     * @return amount of frames with jitter falling into given bucket
+     */
+    public long getJitter(int bucket) {
+        return jitter[bucket];
+    }
+
+    /**
+     * @param bucket histogram bucket
+     * @return upper bound of jitter of given bucket in nanoseconds, Long.MAX_VALUE for the last one
+     */
+    public static long getJitterBound(int bucket) {
+        return bucket < JITTER_BOUNDS.length ? JITTER_BOUNDS[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the longest time between two frames in nanoseconds
+     */
+    public long getMaxFrameTime() {
+        return max_frame_time;
+    }
+
+    /**
+     * Write all metrics as text, one value per line
+     * @param out destination
+     * @throws IOException if destination fails
+     */
+    public void dump(Appendable out) throws IOException {
+        //volatile read first, so values written by emulator thread are visible
+        long age = System.nanoTime() - getPublished();
+
+        StringBuilder text = new StringBuilder(512);
+        text.append("last frame: ").append(age / 1000000L).append(" ms ago\n");
+        text.append("instructions/s: ").append(Math.round(instructions_per_second)).append('\n');
+        text.append("target frequency: ").append(target_frequency).append(" Hz\n");
+        text.append("shortfall: ").append(Math.round(getShortfall())).append(" (").append(Math.round(getShortfallRatio() * 100)).append("%)\n");
+        text.append("frames/s: ").append(Math.round(frames_per_second)).append('\n');
+        text.append("draws/s: ").append(Math.round(draws_per_second)).append('\n');
+        text.append("timer ticks/s: ").append(Math.round(ticks_per_second)).append('\n');
+        text.append("instructions: ").append(instructions).append('\n');
+        text.append("frames: ").append(frames).append('\n');
+        text.append("draws: ").append(draws).append('\n');
+        text.append("timer ticks: ").append(timer_ticks).append('\n');
+        text.append("key waits: ").append(key_waits).append(", ").append(key_wait_time / 1000000L).append(" ms\n");
+        text.append("faults: ").append(getFaults()).append('\n');
+        text.append("max frame time: ").append(max_frame_time / 1000L).append(" us\n");
+
+        text.append("frame jitter:\n");
+        for(int bucket = 0; bucket < JITTER_BUCKETS; bucket++) {
+            if(bucket < JITTER_BOUNDS.length)
+                text.append("  < ").append(JITTER_BOUNDS[bucket] / 1000L).append(" us: ");
+            else
+                text.append("  >= ").append(JITTER_BOUNDS[bucket - 1] / 1000L).append(" us: ");
+
+            text.append(jitter[bucket]).append('\n');
+        }
+
+        out.append(text);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            dump(out);
+        } catch (IOException e) {
+            //StringBuilder doesn't throw
+        }
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package chip8;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Replays movie written by MovieRecorder, key transitions are applied exactly at instructions count they were recorded at
+ * Movie is streamed from channel, so its length doesn't matter
+ * Attach player with CHIP8.setMoviePlayer() right after load(), then just run chip with any batch sizes (f.e. runCycles() with huge budget for uncapped playback)
+ */
+
+public class MoviePlayer {
+
+    /**
+     * Source of movie & buffer with not decoded part of it
+     */
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private boolean end_of_stream;
+
+    /**
+     * Header values
+     */
+    private long rom_hash, seed;
+    private int instructions_per_frame;
+    private boolean cycle_timers, vip_hires;
+
+    /**
+     * Next record (next_instruction is Long.MAX_VALUE after the last one)
+     */
+    private long next_instruction;
+    private int next_key;
+    private byte next_value;
+
+    /**
+     * Amount of applied key transitions
+     */
+    private int played;
+
+    /**
+     * First read error, playback ends after it
+     */
+    private IOException error;
+
+    /**
+     * Construct player and read movie header
+     * @param channel source of movie, it isn't closed by player
+     * @throws IOException if header can't be read
+     * @throws IllegalArgumentException if channel doesn't contain supported movie
+     */
+    public MoviePlayer(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+
+        buffer = ByteBuffer.allocate(8192);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.flip();
+
+        if(!fill(MovieRecorder.HEADER_SIZE))
+            throw new EOFException("Movie header is missing");
+
+        if(buffer.getInt() != MovieRecorder.MAGIC)
+            throw new IllegalArgumentException("Not a chip8 movie");
+
+        int version = buffer.getShort() & 0xffff;
+        if(version != MovieRecorder.VERSION)
+            throw new IllegalArgumentException("Unsupported movie version: " + version);
+
+        int flags = buffer.getShort() & 0xffff;
+        cycle_timers = (flags & MovieRecorder.CYCLE_TIMERS) != 0;
+        vip_hires = (flags & MovieRecorder.VIP_HIRES) != 0;
+        rom_hash = buffer.getLong();
+        seed = buffer.getLong();
+        instructions_per_frame = buffer.getInt();
+
+        next_instruction = 0;
+        readNext();
+    }
+
+    /**
+     * Apply every key transition recorded at or before given instructions count, called by chip between instructions
+     * @param keyboard keyboard of chip
+     * @param instruction current instructions count
+     */
+    void applyDue(Keyboard keyboard, long instruction) {
+        while(next_instruction <= instruction) {
+            keyboard.justSet(next_key, next_value);
+            played++;
+
+            readNext();
+        }
+    }
+
+    /**
+     * @return instructions count of next key transition, Long.MAX_VALUE if there isn't any
+     */
+    public long getNextEventInstruction() {
+        return next_instruction;
+    }
+
+    /**
+     * @return true if every key transition was applied
+     */
+    public boolean isFinished() {
+        return next_instruction == Long.MAX_VALUE;
+    }
+
+    /**
+     * Decode next record, ends playback at end of stream
+     */
+    private void readNext() {
+        try {
+            long delta = 0;
+            int shift = 0;
+
+            while(true) {
+                if(!fill(1)) {
+                    next_instruction = Long.MAX_VALUE;
+                    return;
+                }
+
+                byte b = buffer.get();
+                delta |= (long) (b & 0x7f) << shift;
+                shift += 7;
+
+                if(b >= 0)
+                    break;
+            }
+
+            if(!fill(1))
+                throw new EOFException("Movie ends in the middle of record");
+
+            int key = buffer.get();
+            next_instruction += delta;
+            next_key = key & 0xF;
+            next_value = (byte) ((key & 0x10) != 0 ? 1 : 0);
+        } catch (IOException e) {
+            error = e;
+            next_instruction = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Make sure buffer has at least given amount of bytes remaining
+     * @return false if stream ended before that
+     */
+    private boolean fill(int bytes) throws IOException {
+        while(buffer.remaining() < bytes) {
+            if(end_of_stream)
+                return false;
+
+            buffer.compact();
+            if(channel.read(buffer) == -1)
+                end_of_stream = true;
+            buffer.flip();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return hash of program movie was recorded with (see CHIP8.getRomHash())
+     */
+    public long getRomHash() {
+        return rom_hash;
+    }
+
+    /**
+     * @return random generator seed movie was recorded with
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return instructions per frame chip used while recording
+     */
+    public int getInstructionsPerFrame() {
+        return instructions_per_frame;
+    }
+
+    /**
+     * @return true if chip used CYCLES timer mode while recording
+     */
+    public boolean isCycleTimers() {
+        return cycle_timers;
+    }
+
+    /**
+     * @return true if chip handled VIP hires mode switch while recording (see CHIP8.setVipHires())
+     */
+    public boolean isVipHires() {
+        return vip_hires;
+    }
+
+    /**
+     * @return amount of already applied key transitions
+     */
+    public int getPlayed() {
+        return played;
+    }
+
+    /**
+     * @return read error which ended playback early, null if there wasn't any
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Replay movie at uncapped speed and print final state, useful as reproducible performance workload
+     * Usage: MoviePlayer program movie [frames after movie end]
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.out.println("Usage: MoviePlayer program movie [frames after movie end]");
+            return;
+        }
+
+        FileInputStream program_in = new FileInputStream(args[0]);
+        FileChannel program_channel = program_in.getChannel();
+        ByteBuffer program = ByteBuffer.allocate((int) program_channel.size());
+        while(program.hasRemaining() && program_channel.read(program) != -1);
+        program_in.close();
+
+        int extra_frames = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        FileInputStream movie_in = new FileInputStream(args[1]);
+        try {
+            MoviePlayer player = new MoviePlayer(movie_in.getChannel());
+
+            CHIP8 chip = new CHIP8();
+            chip.setInterpreterMode(CHIP8.InterpreterMode.BLOCK);
+            chip.load(program.array());
+            chip.setMoviePlayer(player);
+
+            long start = System.nanoTime();
+            while(!player.isFinished()) {
+                if(chip.runCycles(1 << 20) == CHIP8.RunResult.FAULT)
+                    System.out.println("Unknown opcode at instruction " + chip.getInstructionCount());
+            }
+
+            for(int i = 0; i < extra_frames; i++)
+                chip.runUntilFrame();
+            long time = System.nanoTime() - start;
+
+            if(player.getError() != null)
+                System.out.println("Movie is damaged: " + player.getError().getMessage());
+
+            GFX gfx = chip.getGFX();
+            gfx.update();
+            System.out.println("key transitions: " + player.getPlayed() + " instructions: " + chip.getInstructionCount()
+                    + " framebuffer hash: " + String.format("%016x", gfx.getFrameHash())
+                    + " time: " + (time / 1000000) + "ms");
+        } finally {
+            movie_in.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package chip8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Records key transitions of chip against executed instructions count, so MoviePlayer can replay run exactly
+ * Movie format (big endian):
+ *
+ * header:
+ *  int magic ("C8MV"), short version, short flags (see CYCLE_TIMERS, VIP_HIRES), long program hash (see CHIP8.getRomHash()), long random generator seed, int instructions per frame
+ * records until end of stream:
+ *  varint amount of instructions executed since previous record (since load() for the first one), byte key index | (pressed ? 0x10 : 0)
+ *
+ * Attach recorder with CHIP8.setMovieRecorder() right after load() and feed input through Keyboard.queue(), so key changes happen between instructions
+ * Replay is exact only with CYCLES timer mode, wall clock timers depend on host speed (FX0A is switched to non blocking one while recording & replaying)
+ */
+
+public class MovieRecorder {
+
+    /**
+     * Format identification
+     */
+    public static final int MAGIC = 0x43384d56;
+    public static final int VERSION = 1;
+
+    /**
+     * Header flags
+     * CYCLE_TIMERS - chip used CYCLES timer mode
+     * VIP_HIRES - chip handled VIP hires mode switch (see CHIP8.setVipHires())
+     */
+    public static final int CYCLE_TIMERS = 1, VIP_HIRES = 2;
+
+    /**
+     * Size of header
+     */
+    static final int HEADER_SIZE = 4 + 2 + 2 + 8 + 8 + 4;
+
+    /**
+     * Destination of movie & buffer collecting records, flushed when it's almost full
+     */
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Instructions count of previous record
+     */
+    private long last_instruction;
+
+    /**
+     * Amount of recorded key transitions
+     */
+    private int records;
+
+    /**
+     * First write error, recording stops after it
+     */
+    private IOException error;
+
+    /**
+     * Construct recorder
+     * @param channel destination of movie, it isn't closed by recorder
+     */
+    public MovieRecorder(WritableByteChannel channel) {
+        this.channel = channel;
+
+        buffer = ByteBuffer.allocate(8192);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Write header, called by chip when recorder is attached
+     */
+    void begin(long rom_hash, long seed, int instructions_per_frame, boolean cycle_timers, boolean vip_hires) {
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) ((cycle_timers ? CYCLE_TIMERS : 0) | (vip_hires ? VIP_HIRES : 0)));
+        buffer.putLong(rom_hash);
+        buffer.putLong(seed);
+        buffer.putInt(instructions_per_frame);
+
+        last_instruction = 0;
+    }
+
+    /**
+     * Record key transition, called by chip on emulator thread when queued key change is applied
+     * @param instruction instructions count at moment of change
+     * @param index key index (0 - 15)
+     * @param value new state of key (1 - pressed, 0 - released)
+     */
+    void record(long instruction, int index, byte value) {
+        if(error != null)
+            return;
+
+        long delta = instruction - last_instruction;
+        if(delta < 0) {
+            error = new IOException("Instructions count went back while recording (was chip state restored?)");
+            return;
+        }
+
+        //longest record is 10 bytes varint + key byte
+        if(buffer.remaining() < 11)
+            flush();
+
+        while(delta >= 0x80) {
+            buffer.put((byte) (delta | 0x80));
+            delta >>>= 7;
+        }
+        buffer.put((byte) delta);
+        buffer.put((byte) ((index & 0xF) | (value != 0 ? 0x10 : 0)));
+
+        last_instruction = instruction;
+        records++;
+    }
+
+    /**
+     * Write buffered records into channel, call it when recording is done (before closing channel)
+     * @throws IOException if any write failed since recording began
+     */
+    public void finish() throws IOException {
+        flush();
+
+        if(error != null)
+            throw error;
+    }
+
+    private void flush() {
+        if(error != null)
+            return;
+
+        buffer.flip();
+        try {
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            error = e;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return amount of recorded key transitions
+     */
+    public int getRecords() {
+        return records;
+    }
+}
@@ -0,0 +1,221 @@
+package chip8;
+
+/**
+ * Handler ids of every supported instruction and decoder translating raw opcodes into them
+ * Decoded instruction is packed into one int: (handler id << 16) | opcode, operands (X, Y, N, NN, NNN) are grabbed straight from opcode bits
+ */
+
+public class Opcodes {
+
+    /**
+     * Handler ids, 0 is reserved for "not decoded yet" slot in decode cache
+     */
+    public static final int UNKNOWN = 1;
+    public static final int CLS = 2;        //00E0
+    public static final int RET = 3;        //00EE
+    public static final int JP = 4;         //1NNN
+    public static final int CALL = 5;       //2NNN
+    public static final int SE_VX_NN = 6;   //3XNN
+    public static final int SNE_VX_NN = 7;  //4XNN
+    public static final int SE_VX_VY = 8;   //5XY0
+    public static final int LD_VX_NN = 9;   //6XNN
+    public static final int ADD_VX_NN = 10; //7XNN
+    public static final int LD_VX_VY = 11;  //8XY0
+    public static final int OR = 12;        //8XY1
+    public static final int AND = 13;       //8XY2
+    public static final int XOR = 14;       //8XY3
+    public static final int ADD_VX_VY = 15; //8XY4
+    public static final int SUB = 16;       //8XY5
+    public static final int SHR = 17;       //8XY6
+    public static final int SUBN = 18;      //8XY7
+    public static final int SHL = 19;       //8XYE
+    public static final int SNE_VX_VY = 20; //9XY0
+    public static final int LD_I = 21;      //ANNN
+    public static final int JP_V0 = 22;     //BNNN
+    public static final int RND = 23;       //CXNN
+    public static final int DRW = 24;       //DXYN
+    public static final int SKP = 25;       //EX9E
+    public static final int SKNP = 26;      //EXA1
+    public static final int LD_VX_DT = 27;  //FX07
+    public static final int LD_VX_K = 28;   //FX0A
+    public static final int LD_DT_VX = 29;  //FX15
+    public static final int LD_ST_VX = 30;  //FX18
+    public static final int ADD_I_VX = 31;  //FX1E
+    public static final int LD_F_VX = 32;   //FX29
+    public static final int LD_B_VX = 33;   //FX33
+    public static final int LD_I_VX = 34;   //FX55
+    public static final int LD_VX_I = 35;   //FX65
+
+    /**
+     * SUPER-CHIP extensions (DXY0 16x16 sprite is handled by DRW)
+     */
+    public static final int SCD = 36;       //00CN
+    public static final int SCR = 37;       //00FB
+    public static final int SCL = 38;       //00FC
+    public static final int EXIT = 39;      //00FD
+    public static final int LOW = 40;       //00FE
+    public static final int HIGH = 41;      //00FF
+    public static final int LD_HF_VX = 42;  //FX30
+    public static final int LD_R_VX = 43;   //FX75
+    public static final int LD_VX_R = 44;   //FX85
+
+    /**
+     * Number of handler ids (including reserved 0), useful for sizing per handler arrays
+     */
+    public static final int COUNT = 45;
+
+    /**
+     * Opcode pattern of every handler id (f.e. "8XY4"), indexed by handler id
+     */
+    private static final String[] PATTERNS = {
+            "----", "????", "00E0", "00EE", "1NNN", "2NNN", "3XNN", "4XNN", "5XY0", "6XNN", "7XNN",
+            "8XY0", "8XY1", "8XY2", "8XY3", "8XY4", "8XY5", "8XY6", "8XY7", "8XYE", "9XY0",
+            "ANNN", "BNNN", "CXNN", "DXYN", "EX9E", "EXA1", "FX07", "FX0A", "FX15", "FX18",
+            "FX1E", "FX29", "FX33", "FX55", "FX65",
+            "00CN", "00FB", "00FC", "00FD", "00FE", "00FF", "FX30", "FX75", "FX85"
+    };
+
+    /**
+     * Decode raw opcode into packed form (handler id << 16) | opcode
+     * @param opcode 2 byte opcode
+     * @return packed decoded instruction
+     */
+    public static int decode(int opcode) {
+        opcode &= 0xFFFF;
+        return (handler(opcode) << 16) | opcode;
+    }
+
+    /**
+     * Grab handler id from packed decoded instruction
+     * @param decoded packed decoded instruction
+     * @return handler id
+     */
+    public static int handlerOf(int decoded) {
+        return decoded >>> 16;
+    }
+
+    /**
+     * Grab raw opcode from packed decoded instruction
+     * @param decoded packed decoded instruction
+     * @return 2 byte opcode
+     */
+    public static int opcodeOf(int decoded) {
+        return decoded & 0xFFFF;
+    }
+
+    /**
+     * @param handler handler id
+     * @return opcode pattern of instruction with given handler id (f.e. "DXYN"), "????" for unknown opcodes
+     */
+    public static String patternOf(int handler) {
+        return PATTERNS[handler];
+    }
+
+    /**
+     * Check if instruction with given handler id can move pc somewhere else than to the next instruction (jumps, calls, returns & skips)
+     * @param handler handler id
+     * @return true if instruction ends basic block
+     */
+    public static boolean isBranch(int handler) {
+        switch(handler) {
+            case RET:
+            case JP:
+            case CALL:
+            case SE_VX_NN:
+            case SNE_VX_NN:
+            case SE_VX_VY:
+            case SNE_VX_VY:
+            case JP_V0:
+            case SKP:
+            case SKNP:
+            case EXIT:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Find handler id for given opcode, names of instruction and definitions from wikipedia https://en.wikipedia.org/wiki/CHIP-8 (section Opcode table)
+     * @param opcode 2 byte opcode
+     * @return handler id (UNKNOWN if opcode is not supported)
+     */
+    public static int handler(int opcode) {
+        switch(opcode & 0xF000) {
+            case 0x0000:
+                switch(opcode & 0x0FFF) {
+                    case 0x00FB: return SCR;
+                    case 0x00FC: return SCL;
+                    case 0x00FD: return EXIT;
+                    case 0x00FE: return LOW;
+                    case 0x00FF: return HIGH;
+                }
+
+                if((opcode & 0x0FF0) == 0x00C0)
+                    return SCD;
+
+                //other 0NNN are matched only by the last digit, f.e. 0230 clears screen in VIP 64x64 mode
+                switch(opcode & 0x000F) {
+                    case 0x0000: return CLS;
+                    case 0x000E: return RET;
+                    default: return UNKNOWN;
+                }
+
+            case 0x1000: return JP;
+            case 0x2000: return CALL;
+            case 0x3000: return SE_VX_NN;
+            case 0x4000: return SNE_VX_NN;
+            case 0x5000: return SE_VX_VY;
+            case 0x6000: return LD_VX_NN;
+            case 0x7000: return ADD_VX_NN;
+
+            case 0x8000:
+                switch(opcode & 0x000F) {
+                    case 0x0000: return LD_VX_VY;
+                    case 0x0001: return OR;
+                    case 0x0002: return AND;
+                    case 0x0003: return XOR;
+                    case 0x0004: return ADD_VX_VY;
+                    case 0x0005: return SUB;
+                    case 0x0006: return SHR;
+                    case 0x0007: return SUBN;
+                    case 0x000E: return SHL;
+                    default: return UNKNOWN;
+                }
+
+            case 0x9000: return SNE_VX_VY;
+            case 0xA000: return LD_I;
+            case 0xB000: return JP_V0;
+            case 0xC000: return RND;
+            case 0xD000: return DRW;
+
+            case 0xE000:
+                switch(opcode & 0x00FF) {
+                    case 0x009E: return SKP;
+                    case 0x00A1: return SKNP;
+                    default: return UNKNOWN;
+                }
+
+            case 0xF000:
+                switch(opcode & 0x00FF) {
+                    case 0x0007: return LD_VX_DT;
+                    case 0x000A: return LD_VX_K;
+                    case 0x0015: return LD_DT_VX;
+                    case 0x0018: return LD_ST_VX;
+                    case 0x001E: return ADD_I_VX;
+                    case 0x0029: return LD_F_VX;
+                    case 0x0030: return LD_HF_VX;
+                    case 0x0033: return LD_B_VX;
+                    case 0x0055: return LD_I_VX;
+                    case 0x0065: return LD_VX_I;
+                    case 0x0075: return LD_R_VX;
+                    case 0x0085: return LD_VX_R;
+                    default: return UNKNOWN;
+                }
+
+            default:
+                return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package chip8;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Profiler counting where program spends its cycles, attach it with CHIP8.setProfiler()
+ * Counts executed instructions per address & per handler (opcode class), memory reads & writes per address (heatmap)
+ * and taken backward jumps & calls (1NNN/2NNN with target at or before their own address) which close hot loops
+ * All counters are preallocated int arrays, so profiling doesn't allocate anything, counters are only formatted when report is made
+ * Counters can be read from other thread while chip is running, they just don't have to be exactly in sync with each other
+ */
+
+public class Profiler {
+
+    /**
+     * Size of profiled address space
+     */
+    public static final int ADDRESS_SPACE = 4096;
+
+    /**
+     * Default amount of entries in every report section
+     */
+    public static final int DEFAULT_REPORT_ENTRIES = 16;
+
+    /**
+     * Executed instructions per address & per handler id
+     */
+    private int[] hits, handlers;
+
+    /**
+     * Memory reads & writes per address (accessed by memory directly), instruction fetch isn't counted
+     */
+    int[] reads, writes;
+
+    /**
+     * Taken back-edges per address of jump / call and their last target
+     */
+    private int[] back_edges, back_edge_targets;
+
+    public Profiler() {
+        hits = new int[ADDRESS_SPACE];
+        handlers = new int[Opcodes.COUNT];
+        reads = new int[ADDRESS_SPACE];
+        writes = new int[ADDRESS_SPACE];
+        back_edges = new int[ADDRESS_SPACE];
+        back_edge_targets = new int[ADDRESS_SPACE];
+    }
+
+    /**
+     * Count executed instruction
+     * @param pc address of instruction
+     * @param decoded packed decoded instruction
+     */
+    void record(int pc, int decoded) {
+        pc &= ADDRESS_SPACE - 1;
+        int handler = Opcodes.handlerOf(decoded);
+
+        hits[pc]++;
+        handlers[handler]++;
+
+        if(handler == Opcodes.JP || handler == Opcodes.CALL) {
+            int target = decoded & 0xFFF;
+            if(target <= pc) {
+                back_edges[pc]++;
+                back_edge_targets[pc] = target;
+            }
+        }
+    }
+
+    /**
+     * Reset all counters
+     */
+    public void clear() {
+        Arrays.fill(hits, 0);
+        Arrays.fill(handlers, 0);
+        Arrays.fill(reads, 0);
+        Arrays.fill(writes, 0);
+        Arrays.fill(back_edges, 0);
+    }
+
+    /**
+     * @return amount of instructions executed since last clear
+     */
+    public long getTotal() {
+        //summed from handler counters, so counting instruction costs only two increments
+        long total = 0;
+        for(int count : handlers)
+            total += count;
+
+        return total;
+    }
+
+    /**
+     * @param address instruction address
+     * @return amount of executions of instruction at given address
+     */
+    public int getHits(int address) {
+        return hits[address & (ADDRESS_SPACE - 1)];
+    }
+
+    /**
+     * @param handler handler id (see Opcodes)
+     * @return amount of executed instructions of given class
+     */
+    public int getHandlerHits(int handler) {
+        return handlers[handler];
+    }
+
+    /**
+     * @param address memory address
+     * @return amount of reads of given address (sprites, FX65, ...)
+     */
+    public int getReads(int address) {
+        return reads[address & (ADDRESS_SPACE - 1)];
+    }
+
+    /**
+     * @param address memory address
+     * @return amount of writes into given address (FX33, FX55, ...)
+     */
+    public int getWrites(int address) {
+        return writes[address & (ADDRESS_SPACE - 1)];
+    }
+
+    /**
+     * @param address address of jump or call
+     * @return how many times jump / call at given address went backwards
+     */
+    public int getBackEdges(int address) {
+        return back_edges[address & (ADDRESS_SPACE - 1)];
+    }
+
+    /**
+     * @param address address of jump or call
+     * @return target of the last backward jump / call at given address (start of loop)
+     */
+    public int getBackEdgeTarget(int address) {
+        return back_edge_targets[address & (ADDRESS_SPACE - 1)];
+    }
+
+    /**
+     * @param from first address of loop (back-edge target)
+     * @param to last address of loop (back-edge source)
+     * @return amount of instructions executed in given address range
+     */
+    public long getHits(int from, int to) {
+        long sum = 0;
+        for(int address = Math.max(0, from); address <= Math.min(to, ADDRESS_SPACE - 1); address++)
+            sum += hits[address];
+
+        return sum;
+    }
+
+    /**
+     * Write text report: hottest instructions, instruction classes, hottest loops and most read & written addresses
+     * @param out destination
+     * @throws IOException if destination fails
+     */
+    public void report(Appendable out) throws IOException {
+        report(out, DEFAULT_REPORT_ENTRIES);
+    }
+
+    /**
+     * Write text report, see report(Appendable)
+     * @param out destination
+     * @param entries maximal amount of entries in every section
+     * @throws IOException if destination fails
+     */
+    public void report(Appendable out, int entries) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int[] top = new int[Math.max(1, entries)];
+        long total = getTotal();
+
+        out.append("Instructions: ").append(Long.toString(total)).append('\n');
+
+        out.append("\nHottest instructions (address, executions, share):\n");
+        int found = top(hits, top);
+        for(int i = 0; i < found; i++) {
+            line.setLength(0);
+            Tracer.appendHex(line.append("  "), top[i], 3).append("  ").append(hits[top[i]]);
+            appendShare(line, hits[top[i]], total).append('\n');
+            out.append(line);
+        }
+
+        out.append("\nInstruction classes (opcode, executions, share):\n");
+        found = top(handlers, top);
+        for(int i = 0; i < found; i++) {
+            line.setLength(0);
+            line.append("  ").append(Opcodes.patternOf(top[i])).append("  ").append(handlers[top[i]]);
+            appendShare(line, handlers[top[i]], total).append('\n');
+            out.append(line);
+        }
+
+        out.append("\nHottest loops (start-end, back-edges, instructions inside, share):\n");
+        found = top(back_edges, top);
+        for(int i = 0; i < found; i++) {
+            int start = back_edge_targets[top[i]];
+            long inside = getHits(start, top[i]);
+
+            line.setLength(0);
+            Tracer.appendHex(line.append("  "), start, 3).append('-');
+            Tracer.appendHex(line, top[i], 3).append("  ").append(back_edges[top[i]]).append("  ").append(inside);
+            appendShare(line, inside, total).append('\n');
+            out.append(line);
+        }
+
+        out.append("\nMost read addresses (address, reads):\n");
+        found = top(reads, top);
+        for(int i = 0; i < found; i++) {
+            line.setLength(0);
+            Tracer.appendHex(line.append("  "), top[i], 3).append("  ").append(reads[top[i]]).append('\n');
+            out.append(line);
+        }
+
+        out.append("\nMost written addresses (address, writes):\n");
+        found = top(writes, top);
+        for(int i = 0; i < found; i++) {
+            line.setLength(0);
+            Tracer.appendHex(line.append("  "), top[i], 3).append("  ").append(writes[top[i]]).append('\n');
+            out.append(line);
+        }
+    }
+
+    private static StringBuilder appendShare(StringBuilder out, long count, long total) {
+        //share in tenths of percent, so report doesn't depend on locale
+        long permille = total > 0 ? count * 1000 / total : 0;
+        return out.append("  ").append(permille / 10).append('.').append(permille % 10).append('%');
+    }
+
+    /**
+     * Find indices of the highest non zero counters
+     * @param counters counters
+     * @param out filled with indices of the highest counters in descending order
+     * @return amount of found indices
+     */
+    private static int top(int[] counters, int[] out) {
+        int found = 0;
+        for(int index = 0; index < counters.length; index++) {
+            int count = counters[index];
+            if(count == 0 || (found == out.length && count <= counters[out[found - 1]]))
+                continue;
+
+            //insert keeping descending order, the lowest one falls out when out is full
+            int position = Math.min(found, out.length - 1);
+            while(position > 0 && counters[out[position - 1]] < count) {
+                out[position] = out[position - 1];
+                position--;
+            }
+            out[position] = index;
+
+            if(found < out.length)
+                found++;
+        }
+
+        return found;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            report(out);
+        } catch (IOException e) {
+            //StringBuilder doesn't throw
+        }
+
+        return out.toString();
+    }
+}
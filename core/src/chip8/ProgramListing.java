@@ -0,0 +1,182 @@
+package chip8;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lazy listing of loaded program, one line per 2 bytes from program start ("line: opcode  mnemonic", f.e. "3: 6310  LD V3, 0x10")
+ * Lines are disassembled on first request only and then cached, listings are shared by all chips which loaded the same program
+ * (looked up by program hash), so loading program doesn't pay for listing at all
+ * Listing shows program as it was loaded, self modifying code doesn't change it
+ */
+
+public class ProgramListing {
+
+    /**
+     * Amount of listings kept in cache
+     */
+    private static final int CACHE_SIZE = 16;
+
+    /**
+     * The most recently used listings by program hash
+     */
+    private static final Map<Long, ProgramListing> cache = new LinkedHashMap<Long, ProgramListing>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ProgramListing> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Address of program start
+     */
+    public static final int PROGRAM_START = 512;
+
+    /**
+     * Copy of program bytes
+     */
+    private byte[] program;
+
+    /**
+     * Disassembled lines (null until requested), lines are immutable strings so sharing them between threads is safe
+     */
+    private String[] lines;
+
+    private ProgramListing(byte[] program) {
+        this.program = program;
+        lines = new String[(program.length + 1) / 2];
+    }
+
+    /**
+     * Grab cached listing of program or create new one
+     * @param hash program hash
+     * @param memory array with program
+     * @param offset offset of program in array
+     * @param length program length in bytes
+     * @return listing of program
+     */
+    static ProgramListing of(long hash, byte[] memory, int offset, int length) {
+        synchronized (cache) {
+            ProgramListing listing = cache.get(hash);
+            //hash collision of different programs mustn't show listing of the other one
+            if(listing != null && listing.matches(memory, offset, length))
+                return listing;
+
+            byte[] program = new byte[length];
+            System.arraycopy(memory, offset, program, 0, length);
+
+            listing = new ProgramListing(program);
+            cache.put(hash, listing);
+            return listing;
+        }
+    }
+
+    /**
+     * @param memory array with program
+     * @param offset offset of program in array
+     * @param length program length in bytes
+     * @return true if listing was made of the same bytes
+     */
+    private boolean matches(byte[] memory, int offset, int length) {
+        if(program.length != length)
+            return false;
+
+        for(int i = 0; i < length; i++) {
+            if(program[i] != memory[offset + i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return amount of lines (instructions)
+     */
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * @param line line index
+     * @return address of instruction on given line
+     */
+    public int getAddress(int line) {
+        return PROGRAM_START + line * 2;
+    }
+
+    /**
+     * @param address instruction address
+     * @return index of line containing given address, -1 if address is outside of program
+     */
+    public int getLine(int address) {
+        int line = (address - PROGRAM_START) / 2;
+        return address >= PROGRAM_START && line < lines.length ? line : -1;
+    }
+
+    /**
+     * @param line line index
+     * @return opcode on given line (odd last byte is completed with 0)
+     */
+    public int getOpcode(int line) {
+        int high = program[line * 2] & 0xFF;
+        int low = line * 2 + 1 < program.length ? program[line * 2 + 1] & 0xFF : 0;
+
+        return (high << 8) | low;
+    }
+
+    /**
+     * @param line line index
+     * @return mnemonic of instruction on given line
+     */
+    public String getMnemonic(int line) {
+        return Disassembler.mnemonic(getOpcode(line));
+    }
+
+    /**
+     * @param line line index
+     * @return whole text of given line, f.e. "3: 6310  LD V3, 0x10"
+     */
+    public String getText(int line) {
+        String text = lines[line];
+
+        if(text == null) {
+            StringBuilder out = new StringBuilder(24);
+            out.append(line).append(": ");
+            Tracer.appendHex(out, getOpcode(line), 4).append("  ");
+            Disassembler.append(out, getOpcode(line));
+
+            text = out.toString();
+            lines[line] = text;
+        }
+
+        return text;
+    }
+
+    /**
+     * Append lines of instructions in given address range, one per line
+     * @param out destination
+     * @param from first address
+     * @param to last address (inclusive)
+     * @return out
+     */
+    public StringBuilder append(StringBuilder out, int from, int to) {
+        if(to < PROGRAM_START)
+            return out;
+
+        int first = Math.max(0, (from - PROGRAM_START) / 2);
+        int last = Math.min(lines.length - 1, (to - PROGRAM_START) / 2);
+
+        for(int line = first; line <= last; line++)
+            out.append(getText(line)).append('\n');
+
+        return out;
+    }
+
+    /**
+     * @return whole listing, disassembles every line not requested yet
+     */
+    @Override
+    public String toString() {
+        return append(new StringBuilder(lines.length * 24), PROGRAM_START, PROGRAM_START + program.length - 1).toString();
+    }
+}
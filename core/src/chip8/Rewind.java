@@ -0,0 +1,295 @@
+package chip8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame granular rewind history, capture() machine state after every frame and stepBack() to go back one frame at time
+ * Every entry is previous state XOR newer state, run length encoded, so frame which changed only few bytes takes only few bytes
+ * Entries are stored in fixed size byte arena used as ring, when it's full the oldest entries are dropped, so memory use is bounded
+ * Because XOR is symmetric the newest state XOR newest entry gives state before it, no key frames are needed
+ * Call everything from thread which runs the chip
+ */
+
+public class Rewind {
+
+    /**
+     * Default history limits, 10 minutes of 60Hz frames in 4MB
+     */
+    public static final int DEFAULT_ARENA_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FRAMES = 60 * 60 * 10;
+
+    private CHIP8 chip;
+
+    /**
+     * Newest captured state (head of history) & scratch for state being captured, both fixed layout snapshots (see SaveState)
+     */
+    private byte[] head, current;
+    private ByteBuffer head_buffer, current_buffer;
+    private int state_length = -1;
+
+    /**
+     * Program hash of captured states, history is dropped when other program is loaded
+     */
+    private long rom_hash;
+
+    /**
+     * Encoded entries ring, arena holds entries bytes, offsets & lengths are indexed by entry slot
+     */
+    private byte[] arena;
+    private int[] offsets, lengths;
+    private int oldest, count;
+
+    /**
+     * Next free byte of arena
+     */
+    private int arena_head;
+
+    /**
+     * Scratch for entry being encoded, it's never longer than max_entry_size
+     */
+    private byte[] encoded;
+    private int max_entry_size;
+
+    /**
+     * Construct rewind history with default limits
+     * @param chip chip which state is captured
+     */
+    public Rewind(CHIP8 chip) {
+        this(chip, DEFAULT_ARENA_SIZE, DEFAULT_MAX_FRAMES);
+    }
+
+    /**
+     * Construct rewind history
+     * @param chip chip which state is captured
+     * @param arena_size amount of bytes used for history entries
+     * @param max_frames maximal amount of remembered frames
+     */
+    public Rewind(CHIP8 chip, int arena_size, int max_frames) {
+        this.chip = chip;
+
+        head = new byte[SaveState.MAX_SIZE];
+        current = new byte[SaveState.MAX_SIZE];
+        head_buffer = ByteBuffer.wrap(head);
+        current_buffer = ByteBuffer.wrap(current);
+
+        //worst case encoding is one varint pair per 2 state bytes
+        max_entry_size = SaveState.MAX_SIZE / 2 * 4 + SaveState.MAX_SIZE + 8;
+        encoded = new byte[max_entry_size];
+
+        arena = new byte[Math.max(arena_size, max_entry_size)];
+        offsets = new int[max_frames];
+        lengths = new int[max_frames];
+    }
+
+    /**
+     * Capture state of chip as the newest history entry, call after every emulated frame
+     */
+    public void capture() {
+        current_buffer.clear();
+        int length = chip.snapshot(current_buffer, 0);
+
+        //different layout or other program, history doesn't connect with this state
+        if(length != state_length || chip.getRomHash() != rom_hash) {
+            clear();
+
+            state_length = length;
+            rom_hash = chip.getRomHash();
+            System.arraycopy(current, 0, head, 0, length);
+            return;
+        }
+
+        int entry_length = encode();
+        store(entry_length);
+
+        //new state becomes head
+        byte[] swap = head;
+        head = current;
+        current = swap;
+
+        ByteBuffer swap_buffer = head_buffer;
+        head_buffer = current_buffer;
+        current_buffer = swap_buffer;
+    }
+
+    /**
+     * Restore chip to state one frame older than the newest one and drop the newest one
+     * @return false if there is no older state (chip stays at the oldest one)
+     */
+    public boolean stepBack() {
+        if(count == 0) {
+            //keep chip at the oldest state while rewind is held
+            if(state_length != -1)
+                restoreHead();
+
+            return false;
+        }
+
+        int slot = (oldest + count - 1) % offsets.length;
+        decode(offsets[slot], lengths[slot]);
+        count--;
+
+        arena_head = offsets[slot];
+        if(count == 0)
+            arena_head = 0;
+
+        restoreHead();
+        return true;
+    }
+
+    /**
+     * Drop whole history
+     */
+    public void clear() {
+        oldest = 0;
+        count = 0;
+        arena_head = 0;
+        state_length = -1;
+    }
+
+    private void restoreHead() {
+        head_buffer.clear();
+        head_buffer.limit(state_length);
+        chip.restore(head_buffer);
+    }
+
+    /**
+     * Encode head XOR current into encoded scratch as pairs of (varint zero bytes amount, varint literal bytes amount, literal bytes)
+     * @return encoded length
+     */
+    private int encode() {
+        int position = 0, index = 0;
+
+        while(index < state_length) {
+            int zeros_start = index;
+            while(index < state_length && head[index] == current[index])
+                index++;
+
+            //literal run ends with 2 zero bytes in a row (or state end)
+            int literal_start = index, literal_end = index;
+            while(index < state_length) {
+                if(head[index] != current[index])
+                    literal_end = index + 1;
+                else if(index - literal_end >= 1)
+                    break;
+
+                index++;
+            }
+
+            if(literal_end == literal_start)
+                break; //only zeros left, decoder treats missing rest as zeros
+
+            position = putVarint(position, literal_start - zeros_start);
+            position = putVarint(position, literal_end - literal_start);
+            for(int i = literal_start; i < literal_end; i++)
+                encoded[position++] = (byte) (head[i] ^ current[i]);
+
+            index = literal_end;
+        }
+
+        return position;
+    }
+
+    /**
+     * XOR entry into head, so head becomes state which was captured before it
+     */
+    private void decode(int offset, int length) {
+        int end = offset + length, index = 0;
+
+        while(offset < end) {
+            //varints inlined, they are written by putVarint()
+            int zeros = 0, shift = 0;
+            byte b;
+            do {
+                b = arena[offset++];
+                zeros |= (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+
+            int literals = 0;
+            shift = 0;
+            do {
+                b = arena[offset++];
+                literals |= (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+
+            index += zeros;
+            for(int i = 0; i < literals; i++)
+                head[index++] ^= arena[offset++];
+        }
+    }
+
+    /**
+     * Copy encoded entry into arena as the newest entry, drops the oldest entries which are in the way
+     */
+    private void store(int length) {
+        if(arena_head + length > arena.length) {
+            //entries behind head are left from previous pass over arena, so they are the oldest ones
+            while(count > 0 && offsets[oldest] >= arena_head) {
+                oldest = (oldest + 1) % offsets.length;
+                count--;
+            }
+
+            arena_head = 0;
+        }
+
+        int start = arena_head, end = arena_head + length;
+
+        //drop entries overlapping new one and entries which don't fit into slots ring
+        while(count > 0) {
+            int oldest_start = offsets[oldest];
+            int oldest_end = oldest_start + lengths[oldest];
+            boolean overlaps = oldest_start < end && start < oldest_end;
+
+            if(!overlaps && count < offsets.length)
+                break;
+
+            oldest = (oldest + 1) % offsets.length;
+            count--;
+        }
+
+        System.arraycopy(encoded, 0, arena, start, length);
+
+        int slot = (oldest + count) % offsets.length;
+        offsets[slot] = start;
+        lengths[slot] = length;
+        count++;
+
+        arena_head = end;
+    }
+
+    private int putVarint(int position, int value) {
+        while(value >= 0x80) {
+            encoded[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+
+        encoded[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * @return amount of frames chip can be rewound by
+     */
+    public int getFrames() {
+        return count;
+    }
+
+    /**
+     * @return amount of arena bytes used by history
+     */
+    public int getUsedBytes() {
+        int used = 0;
+        for(int i = 0; i < count; i++)
+            used += lengths[(oldest + i) % offsets.length];
+
+        return used;
+    }
+
+    /**
+     * @return chip which state is captured
+     */
+    public CHIP8 getChip() {
+        return chip;
+    }
+}
@@ -0,0 +1,276 @@
+package chip8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Binary save state format used by CHIP8.snapshot() & CHIP8.restore(), everything is big endian
+ *
+ * header:
+ *  int magic ("C8ST"), short version, short flags, int length (of whole state, header included)
+ * body:
+ *  long rom hash (FNV-1a 64 of loaded program)
+ *  short pc, short I, byte sp, 16 x short stack, 16 x byte V, 16 x byte keys, byte delay timer, byte sound timer
+ *  long random generator state, long instruction count, int cycles since last timers tick, byte state bits (see WAITING_FOR_KEY)
+ *  16 x byte RPL user flags (since version 2)
+ *  short screen width, short screen height, packed framebuffer rows (width / 64 longs per row, height rows)
+ *  memory: 4096 raw bytes, or with MEMORY_DELTA flag runs of (short skip, short length, length x byte) against pristine loaded rom image until whole memory is covered
+ *  breakpoints (only with BREAKPOINTS flag): breakpoints, read watchpoints & write watchpoints bitmaps, 64 longs each
+ *
+ * State written without flags has fixed layout for given screen resolution (same size and every field at same offset), so states can be compared or XORed byte by byte
+ * States of older versions can still be restored
+ */
+
+public class SaveState {
+
+    /**
+     * Format identification
+     */
+    public static final int MAGIC = 0x43385354;
+    public static final int VERSION = 2;
+
+    /**
+     * Flags
+     * MEMORY_DELTA - store only memory bytes which differ from rom image loaded by load() (state can be restored only on chip with same rom loaded)
+     * BREAKPOINTS - store breakpoints & watchpoints (conditions of conditional breakpoints can't be stored)
+     */
+    public static final int MEMORY_DELTA = 1, BREAKPOINTS = 2;
+
+    /**
+     * Size of header (magic, version, flags, length)
+     */
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * State bits
+     */
+    static final int WAITING_FOR_KEY = 1;
+
+    /**
+     * Size of memory dump, delta is never longer than raw dump + one run header
+     */
+    static final int MEMORY_SIZE = 4096;
+    private static final int MAX_MEMORY_SIZE = MEMORY_SIZE + 4;
+
+    /**
+     * Size of one watchpoints / breakpoints bitmap
+     */
+    static final int BITMAP_LONGS = Breakpoints.ADDRESS_SPACE / 64;
+
+    /**
+     * Maximal size of state written with any flags, buffer of this size always fits any state
+     */
+    public static final int MAX_SIZE = HEADER_SIZE + 8
+            + 2 + 2 + 1 + 16 * 2 + 16 + 16 + 1 + 1
+            + 8 + 8 + 4 + 1
+            + 16
+            + 2 + 2 + GFX.MAX_WIDTH / 64 * GFX.MAX_HEIGHT * 8
+            + MAX_MEMORY_SIZE
+            + 3 * BITMAP_LONGS * 8;
+
+    private SaveState() {
+    }
+
+    /**
+     * Write header with zero length, length is filled by finish()
+     * @param out big endian buffer
+     * @param flags flags
+     * @return position of state beginning
+     */
+    static int begin(ByteBuffer out, int flags) {
+        int start = out.position();
+        out.putInt(MAGIC);
+        out.putShort((short) VERSION);
+        out.putShort((short) flags);
+        out.putInt(0);
+
+        return start;
+    }
+
+    /**
+     * Fill length field of state which begins at given position
+     * @param out buffer
+     * @param start position of state beginning
+     * @return state length
+     */
+    static int finish(ByteBuffer out, int start) {
+        int length = out.position() - start;
+        out.putInt(start + 8, length);
+
+        return length;
+    }
+
+    /**
+     * Read and verify header
+     * @param in big endian buffer positioned at state beginning
+     * @return flags of state
+     * @throws IllegalArgumentException if buffer doesn't contain supported state
+     */
+    static int readHeader(ByteBuffer in) {
+        if(in.remaining() < HEADER_SIZE || in.getInt() != MAGIC)
+            throw new IllegalArgumentException("Not a chip8 save state");
+
+        int version = in.getShort() & 0xffff;
+        if(version < 1 || version > VERSION)
+            throw new IllegalArgumentException("Unsupported save state version: " + version);
+
+        int flags = in.getShort() & 0xffff;
+        int length = in.getInt();
+        if(length < HEADER_SIZE || in.remaining() < length - HEADER_SIZE)
+            throw new IllegalArgumentException("Truncated save state");
+
+        return flags;
+    }
+
+    /**
+     * Grab version of state verified by readHeader()
+     * @param in buffer
+     * @param start position of state beginning
+     * @return state version
+     */
+    static int getVersion(ByteBuffer in, int start) {
+        return in.getShort(start + 4) & 0xffff;
+    }
+
+    /**
+     * Write memory as runs of bytes which differ from image, short gaps are merged into runs so delta is never much longer than raw memory
+     * @param out buffer
+     * @param memory current memory
+     * @param image pristine memory image
+     */
+    static void writeMemoryDelta(ByteBuffer out, byte[] memory, byte[] image) {
+        int address = 0;
+        while(address < memory.length) {
+            int skip_start = address;
+            while(address < memory.length && memory[address] == image[address])
+                address++;
+
+            //run ends after last changed byte followed by 4 unchanged ones (or memory end)
+            int run_start = address, run_end = address;
+            while(address < memory.length) {
+                if(memory[address] != image[address])
+                    run_end = address + 1;
+                else if(address - run_end >= 3)
+                    break;
+
+                address++;
+            }
+
+            //few unchanged bytes at the memory end are cheaper inside run than in another one
+            if(address == memory.length)
+                run_end = address;
+
+            out.putShort((short) (run_start - skip_start));
+            out.putShort((short) (run_end - run_start));
+            out.put(memory, run_start, run_end - run_start);
+
+            address = run_end;
+        }
+    }
+
+    /**
+     * Read memory written by writeMemoryDelta(), whole delta is verified before memory is touched
+     * @param in buffer
+     * @param memory memory to fill
+     * @param image pristine memory image
+     * @throws IllegalArgumentException if runs don't fit into memory or buffer ends before memory is covered
+     */
+    static void readMemoryDelta(ByteBuffer in, byte[] memory, byte[] image) {
+        int position = in.position(), end = in.limit();
+
+        int address = 0;
+        while(address < memory.length) {
+            if(end - position < 4)
+                throw new IllegalArgumentException("Truncated memory delta in save state");
+
+            address += in.getShort(position) & 0xffff;
+            int length = in.getShort(position + 2) & 0xffff;
+            position += 4;
+
+            if(address + length > memory.length)
+                throw new IllegalArgumentException("Damaged memory delta in save state, run of " + length + " bytes at " + address + " is outside of memory");
+            if(end - position < length)
+                throw new IllegalArgumentException("Truncated memory delta in save state");
+
+            position += length;
+            address += length;
+        }
+
+        System.arraycopy(image, 0, memory, 0, memory.length);
+
+        address = 0;
+        while(address < memory.length) {
+            address += in.getShort() & 0xffff;
+
+            int length = in.getShort() & 0xffff;
+            in.get(memory, address, length);
+            address += length;
+        }
+    }
+
+    /**
+     * Write whole state (from position to limit of buffer) into channel
+     * @param channel channel
+     * @param state buffer with state, f.e. filled by CHIP8.snapshot() and flipped
+     * @throws IOException if write fails
+     */
+    public static void write(WritableByteChannel channel, ByteBuffer state) throws IOException {
+        while(state.hasRemaining())
+            channel.write(state);
+    }
+
+    /**
+     * Read one state from channel, more states can be stored in one stream one after another
+     * @param channel channel
+     * @param state buffer big enough for state (see MAX_SIZE), after return it contains state from position 0 to limit ready for CHIP8.restore()
+     * @return false if channel ended before next state
+     * @throws IOException if read fails or channel ends in the middle of state
+     * @throws IllegalArgumentException if channel doesn't contain supported state
+     */
+    public static boolean read(ReadableByteChannel channel, ByteBuffer state) throws IOException {
+        state.clear();
+        state.limit(HEADER_SIZE);
+
+        if(!readFully(channel, state, true))
+            return false;
+
+        //header is always big endian, caller's buffer keeps its byte order
+        ByteBuffer header = state.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if(header.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a chip8 save state");
+
+        int length = header.getInt(8);
+        if(length < HEADER_SIZE || length > state.capacity())
+            throw new IllegalArgumentException("Invalid save state length: " + length);
+
+        state.limit(length);
+        readFully(channel, state, false);
+        state.flip();
+
+        return true;
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer, boolean eof_allowed) throws IOException {
+        boolean started = false;
+
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+
+            if(read == -1) {
+                if(eof_allowed && !started)
+                    return false;
+
+                throw new EOFException("Save state ends unexpectedly");
+            }
+
+            if(read > 0)
+                started = true;
+        }
+
+        return true;
+    }
+}
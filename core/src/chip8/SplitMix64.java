@@ -0,0 +1,64 @@
+package chip8;
+
+/**
+ * Small & fast pseudo random generator (SplitMix64) used by CXNN, every chip instance owns its own one
+ * so instances never contend on shared generator and same seed always gives same sequence
+ * Whole state is one long, so it can be saved & restored together with rest of machine state
+ */
+
+public class SplitMix64 {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Generator state
+     */
+    private long state;
+
+    /**
+     * Construct generator with given seed
+     * @param seed seed
+     */
+    public SplitMix64(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Start sequence of given seed from the beginning
+     * @param seed seed
+     */
+    public void setSeed(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * @return next random 64 bits
+     */
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return next random byte (0 - 255)
+     */
+    public int nextByte() {
+        return (int) (nextLong() >>> 56);
+    }
+
+    /**
+     * @return current state, generator set to it (see setState()) continues with exactly same sequence
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * @param state state previously grabbed by getState()
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+}
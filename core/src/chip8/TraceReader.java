@@ -0,0 +1,223 @@
+package chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Reads trace written by TraceWriter record by record, segment after segment (segments deleted by writer's limit are skipped)
+ * Usage as command line tool: TraceReader base_path [--pc FROM-TO] [--op PATTERN] [--limit N]
+ *  --pc prints only instructions with address in given hexadecimal range (f.e. 200-2FF)
+ *  --op prints only opcodes matching pattern, hexadecimal digits have to match and every other character matches anything (f.e. DXYN, 8XY4, FX1E, 00E0, 1)
+ */
+
+public class TraceReader {
+
+    /**
+     * Segment files in order
+     */
+    private ArrayList<File> segments;
+    private int next_segment;
+
+    /**
+     * Currently read segment, its records count & offset of current record
+     */
+    private MappedByteBuffer segment;
+    private int records, record, position;
+
+    /**
+     * Open trace
+     * @param base_path path of segments without index suffix (same as passed to TraceWriter)
+     * @throws IOException if there is no segment of given trace
+     */
+    public TraceReader(String base_path) throws IOException {
+        File base = new File(base_path).getAbsoluteFile();
+        String prefix = base.getName() + ".";
+
+        ArrayList<Integer> indices = new ArrayList<Integer>();
+        File[] files = base.getParentFile().listFiles();
+        if(files != null) {
+            for(File file : files) {
+                String name = file.getName();
+                if(!name.startsWith(prefix))
+                    continue;
+
+                try {
+                    indices.add(Integer.parseInt(name.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    //not a segment
+                }
+            }
+        }
+
+        if(indices.isEmpty())
+            throw new IOException("No trace segments found: " + base_path);
+
+        Collections.sort(indices);
+        segments = new ArrayList<File>();
+        for(int index : indices)
+            segments.add(TraceWriter.segmentFile(base.getPath(), index));
+    }
+
+    /**
+     * Move to the next record
+     * @return false if there are no more records
+     * @throws IOException if segment can't be read or isn't valid trace segment
+     */
+    public boolean next() throws IOException {
+        while(segment == null || record + 1 >= records) {
+            if(next_segment >= segments.size())
+                return false;
+
+            open(segments.get(next_segment++));
+        }
+
+        record++;
+        position = TraceWriter.HEADER_SIZE + record * TraceWriter.RECORD_SIZE;
+        return true;
+    }
+
+    private void open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        segment.order(ByteOrder.BIG_ENDIAN);
+
+        if(segment.capacity() < TraceWriter.HEADER_SIZE || segment.getInt(0) != TraceWriter.MAGIC)
+            throw new IOException("Not a chip8 trace segment: " + file);
+
+        int version = segment.getShort(4) & 0xffff;
+        if(version != TraceWriter.VERSION || segment.getShort(6) != TraceWriter.RECORD_SIZE)
+            throw new IOException("Unsupported trace version: " + version);
+
+        records = Math.min(segment.getInt(TraceWriter.COUNT_OFFSET), (segment.capacity() - TraceWriter.HEADER_SIZE) / TraceWriter.RECORD_SIZE);
+        record = -1;
+    }
+
+    /**
+     * @return instructions count before current instruction
+     */
+    public long getInstruction() {
+        return segment.getLong(position);
+    }
+
+    /**
+     * @return address of current instruction
+     */
+    public int getPC() {
+        return segment.getShort(position + 8) & 0xffff;
+    }
+
+    /**
+     * @return opcode of current instruction
+     */
+    public int getOpcode() {
+        return segment.getShort(position + 10) & 0xffff;
+    }
+
+    /**
+     * @return I register after current instruction
+     */
+    public int getI() {
+        return segment.getShort(position + 12) & 0xffff;
+    }
+
+    /**
+     * @return stack pointer after current instruction
+     */
+    public int getSP() {
+        return segment.get(position + 14) & 0xff;
+    }
+
+    /**
+     * @param index register index (0 - 15)
+     * @return V register after current instruction
+     */
+    public int getV(int index) {
+        return segment.get(position + 15 + index) & 0xff;
+    }
+
+    /**
+     * Append current record as one line: instructions count, pc: opcode, I, sp & V registers (everything except instructions count is hexadecimal)
+     * @param out destination
+     * @return out
+     */
+    public StringBuilder format(StringBuilder out) {
+        out.append(getInstruction()).append(' ');
+        Tracer.appendHex(out, getPC(), 3).append(": ");
+        Tracer.appendHex(out, getOpcode(), 4).append("  I=");
+        Tracer.appendHex(out, getI(), 3).append(" SP=");
+        Tracer.appendHex(out, getSP(), 1).append(" V=");
+
+        for(int i = 0; i < 16; i++) {
+            if(i > 0)
+                out.append(' ');
+            Tracer.appendHex(out, getV(i), 2);
+        }
+
+        return out;
+    }
+
+    /**
+     * Print filtered trace
+     * Usage: TraceReader base_path [--pc FROM-TO] [--op PATTERN] [--limit N]
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.out.println("Usage: TraceReader base_path [--pc FROM-TO] [--op PATTERN] [--limit N]");
+            return;
+        }
+
+        int pc_from = 0, pc_to = 0xFFFF;
+        int op_mask = 0, op_value = 0;
+        long limit = Long.MAX_VALUE;
+
+        for(int i = 1; i + 1 < args.length; i += 2) {
+            if(args[i].equals("--pc")) {
+                String[] range = args[i + 1].split("-");
+                pc_from = Integer.parseInt(range[0], 16);
+                pc_to = range.length > 1 ? Integer.parseInt(range[1], 16) : pc_from;
+            } else if(args[i].equals("--op")) {
+                String pattern = args[i + 1].toUpperCase();
+                for(int digit = 0; digit < Math.min(4, pattern.length()); digit++) {
+                    int value = Character.digit(pattern.charAt(digit), 16);
+                    int shift = (3 - digit) * 4;
+
+                    if(value != -1) {
+                        op_mask |= 0xF << shift;
+                        op_value |= value << shift;
+                    }
+                }
+            } else if(args[i].equals("--limit")) {
+                limit = Long.parseLong(args[i + 1]);
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        TraceReader reader = new TraceReader(args[0]);
+        PrintStream out = System.out;
+        StringBuilder line = new StringBuilder(128);
+
+        long matched = 0;
+        while(matched < limit && reader.next()) {
+            int pc = reader.getPC();
+            if(pc < pc_from || pc > pc_to || (reader.getOpcode() & op_mask) != op_value)
+                continue;
+
+            line.setLength(0);
+            out.println(reader.format(line));
+            matched++;
+        }
+    }
+}
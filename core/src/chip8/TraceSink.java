@@ -0,0 +1,18 @@
+package chip8;
+
+/**
+ * Receiver of executed instructions, attach it with CHIP8.setTracer()
+ * Called on emulator thread after every executed instruction, so implementations shouldn't allocate nor block
+ */
+
+public interface TraceSink {
+
+    /**
+     * Record executed instruction
+     * @param instruction instructions count before this instruction
+     * @param pc address of instruction
+     * @param opcode opcode
+     * @param mem chip memory with registers after execution (read it only during this call)
+     */
+    void record(long instruction, int pc, int opcode, Memory mem);
+}
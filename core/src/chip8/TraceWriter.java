@@ -0,0 +1,238 @@
+package chip8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Trace sink writing every executed instruction into memory mapped segment files, attach it with CHIP8.setTracer()
+ * Records are written straight into mapped memory, so there is no allocation and no system call per record, only when segment is full
+ * next one is created (base path + ".0000", ".0001", ...), optionally the oldest segments are deleted to keep disk usage bounded
+ *
+ * Segment format (big endian):
+ * header:
+ *  int magic ("C8TR"), short version, short record size, int amount of records, int segment index
+ * records (RECORD_SIZE bytes each):
+ *  long instructions count before instruction, short pc, short opcode, short I, byte sp, 16 x byte V (registers after execution), byte padding
+ *
+ * Records count in header is updated with every record, so segment stays readable even if process dies without close()
+ * close() can be called from any thread while chip is running, it waits for record in progress and records are ignored after it
+ * Read traces with TraceReader
+ */
+
+public class TraceWriter implements TraceSink {
+
+    /**
+     * Format identification
+     */
+    public static final int MAGIC = 0x43385452;
+    public static final int VERSION = 1;
+
+    /**
+     * Sizes of segment header & one record
+     */
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * Default amount of records in one segment (32MB segments)
+     */
+    public static final int DEFAULT_SEGMENT_RECORDS = 1024 * 1024;
+
+    /**
+     * Offset of records count in segment header
+     */
+    static final int COUNT_OFFSET = 8;
+
+    /**
+     * Segments are named base path + "." + index
+     */
+    private String base_path;
+
+    /**
+     * segment_records - capacity of one segment
+     * max_segments - amount of kept segments, 0 = keep all
+     */
+    private int segment_records, max_segments;
+
+    /**
+     * Currently written segment
+     */
+    private MappedByteBuffer segment;
+    private int segment_index = -1;
+    private int records, position;
+
+    /**
+     * Amount of records written since construction
+     */
+    private long written;
+
+    /**
+     * First error, tracing stops after it
+     */
+    private IOException error;
+
+    /**
+     * closed - set by close(), record() checks it after announcing itself in recording
+     * recording - set by emulator thread for the duration of record(), close() waits until it's cleared
+     * (Dekker-style pair, either record() sees closed or close() sees record() in progress)
+     */
+    private volatile boolean closed, recording;
+
+    /**
+     * Construct writer with default segment size which keeps all segments
+     * @param base_path path of segments without index suffix
+     * @throws IOException if the first segment can't be created
+     */
+    public TraceWriter(String base_path) throws IOException {
+        this(base_path, DEFAULT_SEGMENT_RECORDS, 0);
+    }
+
+    /**
+     * Construct writer
+     * @param base_path path of segments without index suffix
+     * @param segment_records amount of records in one segment
+     * @param max_segments amount of the newest segments which are kept on disk, 0 keeps all of them
+     * @throws IOException if the first segment can't be created
+     */
+    public TraceWriter(String base_path, int segment_records, int max_segments) throws IOException {
+        this.base_path = base_path;
+        this.segment_records = Math.max(1, segment_records);
+        this.max_segments = Math.max(0, max_segments);
+
+        nextSegment();
+    }
+
+    @Override
+    public void record(long instruction, int pc, int opcode, Memory mem) {
+        recording = true;
+        if(closed) {
+            recording = false;
+            return;
+        }
+
+        if(records == segment_records) {
+            if(error != null) {
+                recording = false;
+                return;
+            }
+
+            try {
+                nextSegment();
+            } catch (IOException e) {
+                error = e;
+                recording = false;
+                return;
+            }
+        }
+
+        MappedByteBuffer out = segment;
+        int p = position;
+
+        out.putLong(p, instruction);
+        out.putShort(p + 8, (short) pc);
+        out.putShort(p + 10, (short) opcode);
+        out.putShort(p + 12, (short) mem.I);
+        out.put(p + 14, (byte) mem.sp);
+        for(int i = 0; i < 16; i++)
+            out.put(p + 15 + i, mem.V[i]);
+
+        position = p + RECORD_SIZE;
+        records++;
+        out.putInt(COUNT_OFFSET, records);
+
+        written++;
+        recording = false;
+    }
+
+    /**
+     * Create & map the next segment, deletes segments over max_segments limit
+     */
+    private void nextSegment() throws IOException {
+        int index = segment_index + 1;
+        File file = segmentFile(base_path, index);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = HEADER_SIZE + (long) segment_records * RECORD_SIZE;
+            raf.setLength(size);
+
+            //mapping stays valid after channel is closed
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+
+        segment.order(ByteOrder.BIG_ENDIAN);
+        segment.putInt(0, MAGIC);
+        segment.putShort(4, (short) VERSION);
+        segment.putShort(6, (short) RECORD_SIZE);
+        segment.putInt(COUNT_OFFSET, 0);
+        segment.putInt(12, index);
+
+        segment_index = index;
+        records = 0;
+        position = HEADER_SIZE;
+
+        if(max_segments > 0 && segment_index >= max_segments)
+            segmentFile(base_path, segment_index - max_segments).delete();
+    }
+
+    /**
+     * Flush the last segment to disk and cut its unused tail, records are ignored after that
+     * Safe to call from other thread than the emulator one, segment is released only after record in progress is finished
+     * @throws IOException if any segment couldn't be created since tracing began
+     */
+    public synchronized void close() throws IOException {
+        if(closed)
+            return;
+
+        closed = true;
+        while(recording)
+            Thread.yield();
+
+        segment.force();
+        segment = null;
+
+        int count = records;
+
+        //tail is only cosmetic, readers use records count from header (and some platforms can't truncate mapped file)
+        RandomAccessFile raf = new RandomAccessFile(segmentFile(base_path, segment_index), "rw");
+        try {
+            raf.setLength(HEADER_SIZE + (long) count * RECORD_SIZE);
+        } catch (IOException e) {
+            //keep full size segment
+        } finally {
+            raf.close();
+        }
+
+        if(error != null)
+            throw error;
+    }
+
+    /**
+     * @return amount of records written since construction
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return amount of segments created since construction
+     */
+    public int getSegments() {
+        return segment_index + 1;
+    }
+
+    /**
+     * @param base_path path of segments without index suffix
+     * @param index segment index
+     * @return file of segment
+     */
+    static File segmentFile(String base_path, int index) {
+        return new File(base_path + "." + String.format("%04d", index));
+    }
+}
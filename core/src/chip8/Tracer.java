@@ -0,0 +1,201 @@
+package chip8;
+
+import java.io.IOException;
+
+/**
+ * Ring buffer of last executed instructions, attach it with CHIP8.setTracer() (see TraceWriter for full traces written into files)
+ * Every instruction is recorded as fixed size binary event (instructions count, pc, opcode, I, VX and VF after execution) into preallocated array,
+ * so tracing doesn't allocate anything, events are formatted into text only when trace is dumped
+ * When tracer isn't attached chip doesn't do anything more than one null check per instruction
+ */
+
+public class Tracer implements TraceSink {
+
+    /**
+     * Default amount of remembered events
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Events, two longs per event:
+     *  instructions count before instruction
+     *  pc (16 bits) | opcode (16 bits) | I (16 bits) | VX (8 bits) | VF (8 bits), pc in the most significant bits
+     */
+    private long[] events;
+    private int mask;
+
+    /**
+     * Amount of recorded events since last clear (only last capacity of them are remembered)
+     */
+    private long recorded;
+
+    /**
+     * Construct tracer with default capacity
+     */
+    public Tracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct tracer
+     * @param capacity amount of remembered events, rounded up to power of two
+     */
+    public Tracer(int capacity) {
+        int size = 1;
+        while(size < capacity)
+            size <<= 1;
+
+        events = new long[size * 2];
+        mask = size - 1;
+    }
+
+    @Override
+    public void record(long instruction, int pc, int opcode, Memory mem) {
+        int index = (int) (recorded & mask) * 2;
+        byte vx = mem.V[(opcode >> 8) & 0xF], vf = mem.V[15];
+
+        events[index] = instruction;
+        events[index + 1] = ((long) (pc & 0xffff) << 48) | ((long) (opcode & 0xffff) << 32) | ((long) (mem.I & 0xffff) << 16)
+                | ((vx & 0xff) << 8) | (vf & 0xff);
+
+        recorded++;
+    }
+
+    /**
+     * Forget all events
+     */
+    public void clear() {
+        recorded = 0;
+    }
+
+    /**
+     * @return amount of remembered events
+     */
+    public int size() {
+        return (int) Math.min(recorded, mask + 1);
+    }
+
+    /**
+     * @return maximal amount of remembered events
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return amount of events recorded since last clear, including ones which were already overwritten
+     */
+    public long getRecorded() {
+        return recorded;
+    }
+
+    private int slot(int index) {
+        if(index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Event " + index + " of " + size());
+
+        return (int) ((recorded - size() + index) & mask) * 2;
+    }
+
+    /**
+     * @param index event index, 0 is the oldest remembered one
+     * @return instructions count before instruction
+     */
+    public long getInstruction(int index) {
+        return events[slot(index)];
+    }
+
+    /**
+     * @param index event index, 0 is the oldest remembered one
+     * @return address of instruction
+     */
+    public int getPC(int index) {
+        return (int) (events[slot(index) + 1] >>> 48);
+    }
+
+    /**
+     * @param index event index, 0 is the oldest remembered one
+     * @return opcode
+     */
+    public int getOpcode(int index) {
+        return (int) (events[slot(index) + 1] >>> 32) & 0xffff;
+    }
+
+    /**
+     * @param index event index, 0 is the oldest remembered one
+     * @return I register after execution
+     */
+    public int getI(int index) {
+        return (int) (events[slot(index) + 1] >>> 16) & 0xffff;
+    }
+
+    /**
+     * @param index event index, 0 is the oldest remembered one
+     * @return VX register (X from opcode) after execution
+     */
+    public int getVX(int index) {
+        return (int) (events[slot(index) + 1] >>> 8) & 0xff;
+    }
+
+    /**
+     * @param index event index, 0 is the oldest remembered one
+     * @return VF register after execution
+     */
+    public int getVF(int index) {
+        return (int) events[slot(index) + 1] & 0xff;
+    }
+
+    /**
+     * Format remembered events, one line per event from the oldest one:
+     * instructions count, pc: opcode, I, VX & VF after execution (everything except instructions count is hexadecimal)
+     * @param out destination
+     * @throws IOException if destination fails
+     */
+    public void dump(Appendable out) throws IOException {
+        dump(out, size());
+    }
+
+    /**
+     * Format newest remembered events, see dump(Appendable)
+     * @param out destination
+     * @param last amount of newest events to format
+     * @throws IOException if destination fails
+     */
+    public void dump(Appendable out, int last) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+
+        int size = size();
+        for(int index = Math.max(0, size - last); index < size; index++) {
+            int opcode = getOpcode(index);
+
+            line.setLength(0);
+            line.append(getInstruction(index)).append(' ');
+            appendHex(line, getPC(index), 3).append(": ");
+            appendHex(line, opcode, 4).append("  I=");
+            appendHex(line, getI(index), 3).append(" V");
+            appendHex(line, (opcode >> 8) & 0xF, 1).append('=');
+            appendHex(line, getVX(index), 2).append(" VF=");
+            appendHex(line, getVF(index), 2).append('\n');
+
+            out.append(line);
+        }
+    }
+
+    static StringBuilder appendHex(StringBuilder out, int value, int digits) {
+        for(int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+            out.append(Character.toUpperCase(Character.forDigit((value >>> shift) & 0xF, 16)));
+
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        try {
+            dump(out);
+        } catch (IOException e) {
+            //StringBuilder doesn't throw
+        }
+
+        return out.toString();
+    }
+}
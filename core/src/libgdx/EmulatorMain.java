@@ -7,7 +7,6 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.scenes.scene2d.Stage;
@@ -19,8 +18,9 @@ import com.kotcrab.vis.ui.widget.file.FileChooserAdapter;
 import com.kotcrab.vis.ui.widget.file.FileTypeFilter;
 
 import chip8.CHIP8;
-import chip8.GFX;
+import chip8.Rewind;
 import libgdx.ui.ProgramExecutionSpeedWindow;
+import libgdx.ui.ProfilerWindow;
 import libgdx.ui.ProgramInstructionsWindow;
 import libgdx.ui.RegistersWindow;
 import libgdx.ui.ScreenKeyboardWindow;
@@ -28,9 +28,17 @@ import libgdx.ui.StepSimulationWindow;
 import libgdx.ui.ToolsWindow;
 
 public class EmulatorMain extends ApplicationAdapter {
+	/**
+	 * Listener notified about every chip instance emulator creates (one per loaded program) and drops, called on render thread
+	 */
+	public interface ChipListener {
+		void chipCreated(CHIP8 chip);
+		void chipDestroyed(CHIP8 chip);
+	}
+
 	//libgdx rendering vars
 	private SpriteBatch batch;
-	private Texture white_image;
+	private FramebufferRenderer framebuffer_renderer;
 	private OrthographicCamera camera;
 
 	//chip vars
@@ -38,6 +46,11 @@ public class EmulatorMain extends ApplicationAdapter {
 	private Thread chip8_thread;
 
 	private CHIP8 chip;
+	private Array<ChipListener> chip_listeners = new Array<ChipListener>();
+
+	//rewind history of current chip (used only by chip thread) & flag set while rewind key is held
+	private Rewind rewind;
+	private volatile boolean rewinding;
 
 	//input
 	private InputMultiplexer multiplexer;
@@ -48,6 +61,7 @@ public class EmulatorMain extends ApplicationAdapter {
 
 	private ToolsWindow tools_ui;
 	private ProgramInstructionsWindow program_instructions_ui;
+	private ProfilerWindow profiler_ui;
 	private ProgramExecutionSpeedWindow frequency_ui;
 	private ScreenKeyboardWindow keyboard_ui;
 	private StepSimulationWindow step_simulation_ui;
@@ -63,7 +77,7 @@ public class EmulatorMain extends ApplicationAdapter {
 
 		font = new BitmapFont();
 		batch = new SpriteBatch();
-		white_image = new Texture("white_texture.png");
+		framebuffer_renderer = new FramebufferRenderer(TILE_COLOR, Color.CLEAR);
 
 		multiplexer = new InputMultiplexer();
 		Gdx.input.setInputProcessor(multiplexer);
@@ -71,8 +85,10 @@ public class EmulatorMain extends ApplicationAdapter {
 		camera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 		camera.setToOrtho(false, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 
-		//create emulator instance
+		//create emulator instance, FX0A doesn't block chip thread so rewind works while program waits for key
 		chip = new CHIP8();
+		chip.setKeyWaitBlocking(false);
+		notifyChipCreated();
 
 		//libgdx keyboard input
 		LibGdxKeyboardInput keyboard_input = new LibGdxKeyboardInput(this, multiplexer);
@@ -87,6 +103,10 @@ public class EmulatorMain extends ApplicationAdapter {
 		program_instructions_ui.centerWindow();
 		ui.addActor(program_instructions_ui);
 
+		profiler_ui = new ProfilerWindow();
+		profiler_ui.centerWindow();
+		ui.addActor(profiler_ui);
+
 		frequency_ui = new ProgramExecutionSpeedWindow();
 		frequency_ui.centerWindow();
 		ui.addActor(frequency_ui);
@@ -105,7 +125,7 @@ public class EmulatorMain extends ApplicationAdapter {
 
 		tools_ui = new ToolsWindow(this);
 		tools_ui.createToggleButtonForWindow(program_instructions_ui).createToggleButtonForWindow(frequency_ui).createToggleButtonForWindow(keyboard_ui).createToggleButtonForWindow(registers_ui);
-		tools_ui.createToggleButtonForWindow(step_simulation_ui);
+		tools_ui.createToggleButtonForWindow(step_simulation_ui).createToggleButtonForWindow(profiler_ui);
 		ui.addActor(tools_ui);
 
 		//start emulator thread
@@ -122,7 +142,11 @@ public class EmulatorMain extends ApplicationAdapter {
 
 	public void loadAnotherProgram() {
 		chip.shutoff();
+		notifyChipDestroyed();
+
 		chip = new CHIP8();
+		chip.setKeyWaitBlocking(false);
+		notifyChipCreated();
 		showFilechooser();
 	}
 
@@ -137,10 +161,12 @@ public class EmulatorMain extends ApplicationAdapter {
 		fileChooser.setListener(new FileChooserAdapter() {
 			@Override
 			public void selected (Array<FileHandle> file) {
+				//roms/hires holds VIP two page hires programs, they need 64x64 mode switch at their first jump
+				chip.setVipHires(file.first().parent().name().equals("hires"));
 				chip.load(file.first().readBytes());
 
 				//show program instructions list
-				program_instructions_ui.setText(chip.getProgramInstructions());
+				program_instructions_ui.setListing(chip.getProgramInstructions());
 			}
 		});
 
@@ -154,17 +180,41 @@ public class EmulatorMain extends ApplicationAdapter {
 		chip8_thread = new Thread(new Runnable() {
 			@Override
 			public void run() {
-				while(emulator_running) {
-					float UPS = frequency_ui.getFrequency();
-					float sleep_time = 1f / UPS * 1000f;
+				final long frame_time = 1000000000L / 60L; //run emulation in 60Hz frames
+				float cycles_budget = 0;
 
-					if(chip != null && !step_emulation)
-						chip.emulationStep();
+				while(emulator_running) {
+					long frame_start = System.nanoTime();
+
+					//collect fractional part of instructions per frame so low frequencies work too
+					cycles_budget += frequency_ui.getFrequency() / 60f;
+					int cycles = (int) cycles_budget;
+					cycles_budget -= cycles;
+
+					CHIP8 current_chip = chip;
+					if(current_chip != null && current_chip.isLoaded()) {
+						if(rewind == null || rewind.getChip() != current_chip)
+							rewind = new Rewind(current_chip);
+
+						//go back one frame per frame while rewind key is held, otherwise run frame and remember its state
+						if(rewinding) {
+							rewind.stepBack();
+						} else if(!step_emulation && cycles > 0) {
+							current_chip.getMetrics().setTargetFrequency(frequency_ui.getFrequency());
+							current_chip.runCycles(cycles);
+
+							if(current_chip.getLastRunCycles() > 0)
+								rewind.capture();
+						}
+					}
 
-					try {
-						Thread.sleep((long) sleep_time);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+					long sleep_time = (frame_time - (System.nanoTime() - frame_start)) / 1000000L;
+					if(sleep_time > 0) {
+						try {
+							Thread.sleep(sleep_time);
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						}
 					}
 				}
 			}
@@ -174,6 +224,7 @@ public class EmulatorMain extends ApplicationAdapter {
 
 	private void updateUI() {
 		registers_ui.update(chip);
+		profiler_ui.update(chip);
 	}
 
 	@Override
@@ -191,44 +242,31 @@ public class EmulatorMain extends ApplicationAdapter {
 
 			//render process
 			batch.setProjectionMatrix(camera.combined);
-			batch.setColor(TILE_COLOR);
 			batch.begin();
 
-			//calculate tiles size to fit whole screen space
-			float tile_size_x = (float) Gdx.graphics.getWidth() / (float) GFX.WIDTH;
-			float tile_size_y = (float) Gdx.graphics.getHeight() / (float) GFX.HEIGHT;
-
 			//offsets
 			int offx = 0;//-Gdx.graphics.getWidth() / 2;
 			int offy = 0;//-Gdx.graphics.getHeight() / 2;
 
-			//render loop
-			for (int i = 0; i < chip.getGFX().getPixelsBuffer().length; i++) {
-				for (int j = 0; j < chip.getGFX().getPixelsBuffer()[0].length; j++) {
-					boolean val = chip.getGFX().getPixelsBuffer()[i][(chip.getGFX().getPixelsBuffer()[0].length - 1) - j];
-
-					if (val)
-						batch.draw(white_image, i * tile_size_x + offx, j * tile_size_y + offy, tile_size_x, tile_size_y);
-				}
-			}
-
-			//return to basic color
-			batch.setColor(Color.WHITE);
+			//whole screen is one texture scaled to fit whole screen space (tile size follows chip resolution), grabs newest frame from gfx before drawing
+			framebuffer_renderer.render(batch, chip.getGFX(), offx, offy, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 
 			//render text if chip is waiting for some input
 			if (chip.getKeyboard().isWaitingForKey()) {
 				font.draw(batch, "waiting for key...", 1150, 700);
 			}
 
+			//render text while rewinding
+			if(rewinding) {
+				font.draw(batch, "rewinding...", 1150, 660);
+			}
+
 			//render text if some breakpoint is reached
 			if(chip.isBreakpoint()) {
 				font.draw(batch, "breakpoint! (" + chip.getBreakpointLine() + ")", 1150, 680);
 			}
 
 			batch.end();
-			//call update just before rendering process
-			chip.getGFX().update();
-
 		}
 
 		ui.act(Gdx.graphics.getDeltaTime());
@@ -238,16 +276,43 @@ public class EmulatorMain extends ApplicationAdapter {
 	@Override
 	public void dispose () {
 		emulator_running = false;
+		notifyChipDestroyed();
 
 		batch.dispose();
-		white_image.dispose();
+		framebuffer_renderer.dispose();
+		profiler_ui.dispose();
 	}
 
 	public CHIP8 getChip() {
 		return chip;
 	}
 
+	/**
+	 * Add listener of chip instances, current chip (if there is one already) is reported to it right away
+	 * @param listener listener
+	 */
+	public void addChipListener(ChipListener listener) {
+		chip_listeners.add(listener);
+
+		if(chip != null)
+			listener.chipCreated(chip);
+	}
+
+	private void notifyChipCreated() {
+		for(ChipListener listener : chip_listeners)
+			listener.chipCreated(chip);
+	}
+
+	private void notifyChipDestroyed() {
+		for(ChipListener listener : chip_listeners)
+			listener.chipDestroyed(chip);
+	}
+
 	public void setStepSimulationEnabled(boolean step_emulation) {
 		this.step_emulation = step_emulation;
 	}
+
+	public void setRewinding(boolean rewinding) {
+		this.rewinding = rewinding;
+	}
 }
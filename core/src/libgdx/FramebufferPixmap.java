@@ -0,0 +1,124 @@
+package libgdx;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.utils.Disposable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts packed chip framebuffer rows into pixmap, one pixmap pixel per chip pixel
+ * Only span from the first to the last row marked as dirty is rewritten, doesn't touch GL so it works on headless backend too
+ */
+
+public class FramebufferPixmap implements Disposable {
+
+    private Pixmap pixmap;
+    private int width, height;
+
+    /**
+     * First & last row rewritten by last update (first is -1 if no row was rewritten), rows between them are rewritten too
+     */
+    private int updated_first = -1, updated_last = -1;
+
+    /**
+     * Colors of lit & unlit pixels as RGBA bytes
+     */
+    private byte[] lit, unlit;
+
+    /**
+     * Create pixmap for framebuffer of given resolution
+     * @param width framebuffer width (64 bits per packed row long)
+     * @param height framebuffer height
+     * @param lit_color color of lit pixels
+     * @param unlit_color color of unlit pixels (use transparent one to show background through)
+     */
+    public FramebufferPixmap(int width, int height, Color lit_color, Color unlit_color) {
+        this.width = width;
+        this.height = height;
+
+        pixmap = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+        lit = toBytes(lit_color);
+        unlit = toBytes(unlit_color);
+
+        update(new long[height * ((width + 63) / 64)], -1L);
+    }
+
+    /**
+     * Rewrite dirty rows of pixmap
+     * @param rows packed framebuffer rows, (width / 64) longs per row, most significant bit is the leftmost pixel
+     * @param dirty_rows mask of rows to rewrite (bit y = row y), -1 to rewrite whole pixmap
+     */
+    public void update(long[] rows, long dirty_rows) {
+        ByteBuffer pixels = pixmap.getPixels();
+        int words_per_row = (width + 63) / 64;
+
+        if(height < 64)
+            dirty_rows &= (1L << height) - 1;
+
+        if(dirty_rows == 0) {
+            updated_first = updated_last = -1;
+            return;
+        }
+
+        //rows between the first & the last dirty one are rewritten too, so they can be uploaded as one span
+        updated_first = Long.numberOfTrailingZeros(dirty_rows);
+        updated_last = 63 - Long.numberOfLeadingZeros(dirty_rows);
+
+        for(int y = updated_first; y <= updated_last; y++) {
+
+            int index = y * width * 4;
+            for(int word = 0; word < words_per_row; word++) {
+                long row = rows[y * words_per_row + word];
+                int pixels_in_word = Math.min(64, width - word * 64);
+
+                for(int x = 0; x < pixels_in_word; x++) {
+                    byte[] color = row < 0 ? lit : unlit;
+                    pixels.put(index++, color[0]);
+                    pixels.put(index++, color[1]);
+                    pixels.put(index++, color[2]);
+                    pixels.put(index++, color[3]);
+
+                    row <<= 1;
+                }
+            }
+        }
+    }
+
+    private static byte[] toBytes(Color color) {
+        return new byte[] {
+                (byte) (color.r * 255), (byte) (color.g * 255), (byte) (color.b * 255), (byte) (color.a * 255)
+        };
+    }
+
+    /**
+     * @return first row rewritten by last update(), -1 if it didn't rewrite anything
+     */
+    public int getUpdatedFirstRow() {
+        return updated_first;
+    }
+
+    /**
+     * @return amount of rows from getUpdatedFirstRow() rewritten by last update() (0 if it didn't rewrite anything)
+     */
+    public int getUpdatedRowCount() {
+        return updated_first != -1 ? updated_last - updated_first + 1 : 0;
+    }
+
+    public Pixmap getPixmap() {
+        return pixmap;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void dispose() {
+        pixmap.dispose();
+    }
+}
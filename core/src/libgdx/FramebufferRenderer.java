@@ -0,0 +1,120 @@
+package libgdx;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.Disposable;
+
+import java.nio.ByteBuffer;
+
+import chip8.GFX;
+
+/**
+ * Renders chip framebuffer as one texture drawn with one scaled quad
+ * Texture is updated only when new frame arrives and only span of dirty rows is rewritten in pixmap & uploaded
+ * When chip changes resolution texture is recreated and tile size (size of one chip pixel on screen) follows it
+ */
+
+public class FramebufferRenderer implements Disposable {
+
+    private FramebufferPixmap framebuffer;
+    private Texture texture;
+
+    private Color lit_color, unlit_color;
+
+    /**
+     * Resolution of texture
+     */
+    private int texture_width, texture_height;
+
+    /**
+     * GFX instance rendered last time, when chip changes whole texture has to be rewritten
+     */
+    private GFX last_gfx;
+
+    /**
+     * @param lit_color color of lit pixels
+     * @param unlit_color color of unlit pixels (use transparent one to show background through)
+     */
+    public FramebufferRenderer(Color lit_color, Color unlit_color) {
+        this.lit_color = lit_color;
+        this.unlit_color = unlit_color;
+
+        createTexture(GFX.WIDTH, GFX.HEIGHT);
+    }
+
+    private void createTexture(int width, int height) {
+        if(framebuffer != null) {
+            framebuffer.dispose();
+            texture.dispose();
+        }
+
+        texture_width = width;
+        texture_height = height;
+
+        framebuffer = new FramebufferPixmap(width, height, lit_color, unlit_color);
+        texture = new Texture(framebuffer.getPixmap());
+        texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+    }
+
+    /**
+     * Grab newest frame from gfx (calls gfx.update()) and draw it, call between batch.begin() and batch.end()
+     * Screen is drawn with the biggest square tiles which fit into given area and centered in it
+     * @param batch batch used to draw
+     * @param gfx gfx of rendered chip
+     * @param x left edge of area
+     * @param y bottom edge of area
+     * @param width width of area
+     * @param height height of area
+     */
+    public void render(SpriteBatch batch, GFX gfx, float x, float y, float width, float height) {
+        boolean new_frame = gfx.update();
+
+        if(gfx.getWidth() != texture_width || gfx.getHeight() != texture_height) {
+            createTexture(gfx.getWidth(), gfx.getHeight());
+            last_gfx = null;
+        }
+
+        if(gfx != last_gfx) {
+            framebuffer.update(gfx.getRowsBuffer(), -1L);
+            upload();
+
+            last_gfx = gfx;
+        } else if(new_frame) {
+            framebuffer.update(gfx.getRowsBuffer(), gfx.getDirtyRows());
+            upload();
+        }
+
+        float tile_size = Math.min(width / texture_width, height / texture_height);
+        float screen_width = tile_size * texture_width, screen_height = tile_size * texture_height;
+
+        batch.draw(texture, x + (width - screen_width) / 2, y + (height - screen_height) / 2, screen_width, screen_height);
+    }
+
+    /**
+     * Upload rows rewritten by last framebuffer update into texture (one glTexSubImage2D over their span)
+     */
+    private void upload() {
+        int first = framebuffer.getUpdatedFirstRow();
+        if(first == -1)
+            return;
+
+        Pixmap pixmap = framebuffer.getPixmap();
+        ByteBuffer pixels = pixmap.getPixels();
+
+        //pixmap rows are tightly packed RGBA, so span starts right at its first row
+        pixels.position(first * texture_width * 4);
+        texture.bind();
+        Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, first, texture_width, framebuffer.getUpdatedRowCount(), pixmap.getGLFormat(), pixmap.getGLType(), pixels);
+        pixels.position(0);
+    }
+
+    @Override
+    public void dispose() {
+        framebuffer.dispose();
+        texture.dispose();
+    }
+}
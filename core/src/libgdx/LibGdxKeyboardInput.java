@@ -34,15 +34,23 @@ public class LibGdxKeyboardInput {
         key_bindings.put(Input.Keys.H, i); //15
     }
 
+    /**
+     * Key which rewinds emulation while held
+     */
+    private static final int REWIND_KEY = Input.Keys.BACKSPACE;
+
     public LibGdxKeyboardInput(final EmulatorMain main, InputMultiplexer multiplexer) {
         InputProcessor input = new InputAdapter() {
             @Override
             public boolean keyDown(int keycode) {
+                if(keycode == REWIND_KEY)
+                    main.setRewinding(true);
+
                 if(key_bindings.containsKey(keycode)) {
                     int index = key_bindings.get(keycode);
 
                     if(main.getChip() != null)
-                        main.getChip().getKeyboard().justSet(index, (byte) 1);
+                        main.getChip().getKeyboard().queue(index, (byte) 1);
                 }
 
                 return false;
@@ -50,11 +58,14 @@ public class LibGdxKeyboardInput {
 
             @Override
             public boolean keyUp(int keycode) {
+                if(keycode == REWIND_KEY)
+                    main.setRewinding(false);
+
                 if(key_bindings.containsKey(keycode)) {
                     int index = key_bindings.get(keycode);
 
                     if(main.getChip() != null)
-                        main.getChip().getKeyboard().justSet(index, (byte) 0);
+                        main.getChip().getKeyboard().queue(index, (byte) 0);
                 }
 
                 return false;
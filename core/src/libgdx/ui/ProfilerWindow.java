@@ -0,0 +1,195 @@
+package libgdx.ui;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.scenes.scene2d.Actor;
+import com.badlogic.gdx.scenes.scene2d.ui.Table;
+import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
+import com.badlogic.gdx.utils.Disposable;
+import com.kotcrab.vis.ui.widget.VisCheckBox;
+import com.kotcrab.vis.ui.widget.VisImage;
+import com.kotcrab.vis.ui.widget.VisLabel;
+import com.kotcrab.vis.ui.widget.VisScrollPane;
+import com.kotcrab.vis.ui.widget.VisTextButton;
+import com.kotcrab.vis.ui.widget.VisWindow;
+
+import chip8.CHIP8;
+import chip8.Profiler;
+
+/**
+ * Profiler of running program: text report (hottest instructions, instruction classes, loops & memory accesses)
+ * and heatmap of whole 4KB memory, one pixel per address in rows of 64 addresses (red - writes, green - reads, blue - executed instructions)
+ * Profiling is off until it is activated, counters are reset when another program is loaded
+ */
+
+public class ProfilerWindow extends VisWindow implements Disposable {
+
+    /**
+     * Seconds between refreshes of report & heatmap
+     */
+    private static final float REFRESH_INTERVAL = 0.5f;
+
+    /**
+     * Heatmap size, addresses in one row & amount of rows
+     */
+    private static final int HEATMAP_WIDTH = 64, HEATMAP_HEIGHT = Profiler.ADDRESS_SPACE / HEATMAP_WIDTH;
+
+    /**
+     * Heatmap pixel size on screen
+     */
+    private static final int HEATMAP_SCALE = 4;
+
+    /**
+     * Export destination (local storage)
+     */
+    private static final String EXPORT_FILE = "profile.txt";
+
+    private Profiler profiler;
+    private boolean active;
+
+    /**
+     * Chip which was profiled last time & if profiler was attached to it
+     */
+    private CHIP8 last_chip;
+    private boolean attached;
+
+    private VisLabel report_label, status_label;
+
+    private Pixmap heatmap;
+    private Texture heatmap_texture;
+
+    private float refresh_time;
+
+    public ProfilerWindow() {
+        super("Profiler");
+
+        setResizable(true);
+        addCloseButton();
+
+        profiler = new Profiler();
+
+        final VisCheckBox active_checkbox = new VisCheckBox("Active", false);
+        active_checkbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                active = active_checkbox.isChecked();
+            }
+        });
+
+        VisTextButton reset_button = new VisTextButton("Reset", new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                profiler.clear();
+                refresh();
+            }
+        });
+
+        VisTextButton export_button = new VisTextButton("Export", new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                export();
+            }
+        });
+
+        status_label = new VisLabel();
+
+        Table controls = new Table();
+        controls.add(active_checkbox).padLeft(10);
+        controls.add(reset_button).padLeft(10);
+        controls.add(export_button).padLeft(10);
+        controls.add(status_label).padLeft(10);
+
+        heatmap = new Pixmap(HEATMAP_WIDTH, HEATMAP_HEIGHT, Pixmap.Format.RGBA8888);
+        heatmap_texture = new Texture(heatmap);
+        heatmap_texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+
+        report_label = new VisLabel();
+
+        Table report = new Table();
+        report.left().top().add(report_label).left().top();
+
+        VisScrollPane scroll = new VisScrollPane(report);
+        scroll.setFlickScroll(false);
+        scroll.setFadeScrollBars(false);
+
+        add(controls).left().colspan(2).row();
+        add(new VisImage(heatmap_texture)).size(HEATMAP_WIDTH * HEATMAP_SCALE, HEATMAP_HEIGHT * HEATMAP_SCALE).top().pad(5);
+        add(scroll).grow().minWidth(320).height(HEATMAP_HEIGHT * HEATMAP_SCALE);
+
+        refresh();
+        pack();
+    }
+
+    @Override
+    protected void close() {
+        setVisible(false);
+    }
+
+    /**
+     * Attach / detach profiler and refresh report & heatmap every REFRESH_INTERVAL seconds while window is visible
+     * @param chip current chip
+     */
+    public void update(CHIP8 chip) {
+        if(chip == null)
+            return;
+
+        //new program starts with empty counters
+        if(chip != last_chip) {
+            if(last_chip != null)
+                last_chip.setProfiler(null);
+
+            profiler.clear();
+            last_chip = chip;
+            attached = false;
+        }
+
+        if(active != attached) {
+            chip.setProfiler(active ? profiler : null);
+            attached = active;
+        }
+
+        refresh_time += Gdx.graphics.getDeltaTime();
+        if(refresh_time >= REFRESH_INTERVAL && isVisible()) {
+            refresh_time = 0;
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        report_label.setText(profiler.toString());
+
+        //log scale, so rarely accessed addresses stay visible next to hot ones
+        int max = 1;
+        for(int address = 0; address < Profiler.ADDRESS_SPACE; address++)
+            max = Math.max(max, Math.max(profiler.getHits(address), Math.max(profiler.getReads(address), profiler.getWrites(address))));
+
+        double scale = 255.0 / Math.log(max + 1.0);
+        for(int address = 0; address < Profiler.ADDRESS_SPACE; address++) {
+            int r = (int) (Math.log(profiler.getWrites(address) + 1.0) * scale);
+            int g = (int) (Math.log(profiler.getReads(address) + 1.0) * scale);
+            int b = (int) (Math.log(profiler.getHits(address) + 1.0) * scale);
+
+            heatmap.drawPixel(address % HEATMAP_WIDTH, address / HEATMAP_WIDTH, (r << 24) | (g << 16) | (b << 8) | 0xFF);
+        }
+
+        heatmap_texture.draw(heatmap, 0, 0);
+    }
+
+    private void export() {
+        try {
+            FileHandle file = Gdx.files.local(EXPORT_FILE);
+            file.writeString(profiler.toString(), false);
+            status_label.setText("saved " + file.file().getAbsolutePath());
+        } catch (RuntimeException e) {
+            status_label.setText("export failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() {
+        heatmap.dispose();
+        heatmap_texture.dispose();
+    }
+}
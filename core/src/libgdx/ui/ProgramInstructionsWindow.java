@@ -1,28 +1,63 @@
 package libgdx.ui;
 
-import com.badlogic.gdx.scenes.scene2d.Event;
-import com.badlogic.gdx.scenes.scene2d.EventListener;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
+import com.badlogic.gdx.scenes.scene2d.ui.WidgetGroup;
 import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
-import com.kotcrab.vis.ui.util.TableUtils;
+import com.badlogic.gdx.utils.Array;
 import com.kotcrab.vis.ui.widget.VisCheckBox;
 import com.kotcrab.vis.ui.widget.VisLabel;
 import com.kotcrab.vis.ui.widget.VisScrollPane;
 import com.kotcrab.vis.ui.widget.VisWindow;
 
+import chip8.CHIP8;
 import chip8.Memory;
+import chip8.ProgramListing;
 import libgdx.EmulatorMain;
 
 /**
  * Created by RYZEN on 02.04.2018.
+ * Listing of loaded program with breakpoint checkbox per instruction, only rows visible in scroll pane have widgets
+ * and they are rebound to other lines while scrolling, so size of program doesn't matter
+ * Breakpoints are kept by chip (bitmap keyed by address), rows just show them
  */
 
 public class ProgramInstructionsWindow extends VisWindow {
 
+    /**
+     * Line used to measure width of rows
+     */
+    private static final String WIDEST_LINE = "0000: 0000  DRW VA, VB, 15";
+
+    /**
+     * Amount of rows visible in window of default size
+     */
+    private static final int DEFAULT_VISIBLE_ROWS = 24;
+
+    /**
+     * Color of line with current pc
+     */
+    private static final Color PC_COLOR = Color.YELLOW;
+
     private VisLabel label_pc_sp;
+    private VisCheckBox follow_pc_checkbox;
+
+    private VisScrollPane scroll;
+    private RowsView rows_view;
 
     private EmulatorMain emu;
 
+    /**
+     * Shown listing (null until program is loaded)
+     */
+    private ProgramListing listing;
+
+    /**
+     * Last shown pc & sp, nothing is updated until they change, and listing line with pc (-1 if pc is outside of program)
+     */
+    private int last_pc = -1, last_sp = -1, pc_line = -1;
+
     public ProgramInstructionsWindow(EmulatorMain emu) {
         super("Program instructions");
 
@@ -30,73 +65,220 @@ public class ProgramInstructionsWindow extends VisWindow {
         setResizable(true);
 
         label_pc_sp = new VisLabel();
+        follow_pc_checkbox = new VisCheckBox("Follow PC", true);
 
-        Table table = createCodeTable("");
-        VisScrollPane scroll = new VisScrollPane(table);
-        add(scroll);
-        add(label_pc_sp);
+        rows_view = new RowsView();
+        scroll = new VisScrollPane(rows_view);
+        scroll.setFlickScroll(false);
+        scroll.setFadeScrollBars(false);
+        scroll.setScrollingDisabled(true, false);
+
+        add(scroll).grow().prefHeight(rows_view.row_height * DEFAULT_VISIBLE_ROWS).colspan(2).row();
+        add(label_pc_sp).left();
+        add(follow_pc_checkbox).right();
+
+        pack();
     }
 
-    private Table createCodeTable(String code) {
-        Table main = new Table();
-        TableUtils.setSpacingDefaults(this);
-
-        EventListener listener = new EventListener() {
-            @Override
-            public boolean handle(Event event) {
-                if(event instanceof ChangeListener.ChangeEvent) {
-                    VisCheckBox box = (VisCheckBox) event.getListenerActor();
-
-                    String[] name_parts = box.getLabel().getText().toString().split(":");
-                    int line_num = Integer.parseInt(name_parts[0]);
-                    //int opcode = Integer.decode("0x" + name_parts[1].replaceAll(" ", ""));
-
-                    if(emu.getChip() != null) {
-                        if(box.isChecked()) {
-                            if(!emu.getChip().getBreakpoints().contains(line_num))
-                                emu.getChip().getBreakpoints().add(line_num);
-                        } else {
-                            if(emu.getChip().getBreakpoints().contains(line_num))
-                                emu.getChip().getBreakpoints().remove((Integer) line_num);
-                        }
-                    }
-                }
+    /**
+     * Show listing of newly loaded program
+     * @param listing program listing (see CHIP8.getProgramInstructions())
+     */
+    public void setListing(ProgramListing listing) {
+        this.listing = listing;
+        last_pc = -1;
+        last_sp = -1;
+        pc_line = -1;
 
-                return false;
-            }
-        };
+        rows_view.invalidateHierarchy();
+        rows_view.first_line = -1;
+        scroll.setScrollY(0);
+    }
 
-        //read line by line
-        String[] lines_data = code.split("\n");
-        for (String line : lines_data) {
-            Table sub_table = new Table();
+    public void updatePCSP(Memory memory) {
+        int pc = memory.pc, sp = memory.sp;
+        if(pc == last_pc && sp == last_sp)
+            return;
 
-            VisCheckBox is_breakpoint_checkbox = new VisCheckBox(line);
-            sub_table.add(is_breakpoint_checkbox);
+        last_sp = sp;
+        label_pc_sp.setText("PC:" + (pc - 512) / 2 + " SP: " + sp);
 
-            is_breakpoint_checkbox.addListener(listener);
-            main.add(sub_table).left().row();
-        }
+        if(pc == last_pc)
+            return;
 
-        return main;
+        last_pc = pc;
+        pc_line = listing != null ? listing.getLine(pc) : -1;
+        rows_view.highlight();
+
+        //scroll only when pc leaves visible rows, so listing doesn't jump with every instruction
+        if(pc_line != -1 && follow_pc_checkbox.isChecked() && !rows_view.isFullyVisible(pc_line))
+            scroll.scrollTo(0, rows_view.getLineY(pc_line), rows_view.getWidth(), rows_view.row_height, false, true);
     }
 
-    public void setText(String text) {
-        //update all components = remove all components and all them again brand new
-        clearChildren();
+    /**
+     * Group of listing rows, its height is height of whole listing but it contains widgets only for visible rows
+     */
+    private class RowsView extends WidgetGroup {
+        /**
+         * Pool of rows, grows to amount of rows visible at once
+         */
+        private Array<Row> rows = new Array<Row>();
 
-        Table table = new Table();
-        table.left().add(createCodeTable(text));
+        private float row_height, row_width;
 
-        VisScrollPane scroll = new VisScrollPane(table);
-        scroll.setFlickScroll(false);
-        scroll.setFadeScrollBars(false);
+        /**
+         * First line & amount of lines bound to rows
+         */
+        private int first_line = -1, visible_lines;
+
+        RowsView() {
+            Row prototype = new Row();
+            prototype.label.setText(WIDEST_LINE);
+            row_height = prototype.getPrefHeight();
+            row_width = prototype.getPrefWidth();
+
+            prototype.setVisible(false);
+            rows.add(prototype);
+            addActor(prototype);
+        }
+
+        @Override
+        public float getPrefWidth() {
+            return row_width;
+        }
+
+        @Override
+        public float getPrefHeight() {
+            return listing != null ? listing.size() * row_height : 0;
+        }
+
+        @Override
+        public void layout() {
+            bind(true);
+        }
+
+        @Override
+        public void act(float delta) {
+            bind(false);
+            super.act(delta);
+        }
+
+        /**
+         * @param line listing line
+         * @return bottom of line in this group coordinates
+         */
+        float getLineY(int line) {
+            return getHeight() - (line + 1) * row_height;
+        }
+
+        /**
+         * @param line listing line
+         * @return true if whole line is visible in scroll pane
+         */
+        boolean isFullyVisible(int line) {
+            float top = line * row_height;
+            return top >= scroll.getScrollY() && top + row_height <= scroll.getScrollY() + scroll.getScrollHeight();
+        }
+
+        /**
+         * Bind rows to lines visible in scroll pane
+         * @param force rebind even if visible lines didn't change (listing or size changed)
+         */
+        private void bind(boolean force) {
+            int lines = listing != null ? listing.size() : 0;
 
-        left().add(scroll).growX().row();
-        left().add(label_pc_sp);
+            int first = Math.max(0, (int) (scroll.getVisualScrollY() / row_height));
+            int count = Math.max(0, Math.min(lines - first, (int) Math.ceil(scroll.getScrollHeight() / row_height) + 1));
+
+            if(!force && first == first_line && count == visible_lines)
+                return;
+
+            first_line = first;
+            visible_lines = count;
+
+            while(rows.size < count) {
+                Row row = new Row();
+                rows.add(row);
+                addActor(row);
+            }
+
+            for(int i = 0; i < rows.size; i++) {
+                Row row = rows.get(i);
+
+                if(i < count) {
+                    int line = first + i;
+                    row.bind(line);
+                    row.setBounds(0, getLineY(line), getWidth(), row_height);
+                    row.setVisible(true);
+                } else {
+                    row.unbind();
+                }
+            }
+        }
+
+        /**
+         * Mark row with current pc
+         */
+        void highlight() {
+            for(int i = 0; i < visible_lines; i++)
+                rows.get(i).highlight();
+        }
     }
 
-    public void updatePCSP(Memory memory) {
-        label_pc_sp.setText("PC:" + (memory.pc - 512) / 2 + " SP: " + memory.sp);
+    /**
+     * One listing row: breakpoint checkbox & line text, rebound to other line when it scrolls out of view
+     */
+    private class Row extends Table {
+        private VisCheckBox breakpoint_checkbox;
+        private VisLabel label;
+
+        /**
+         * Bound line & address of its instruction, -1 if row isn't bound
+         */
+        private int line = -1, address = -1;
+
+        Row() {
+            breakpoint_checkbox = new VisCheckBox("");
+            breakpoint_checkbox.setProgrammaticChangeEvents(false);
+            breakpoint_checkbox.addListener(new ChangeListener() {
+                @Override
+                public void changed(ChangeEvent event, Actor actor) {
+                    CHIP8 chip = emu.getChip();
+                    if(chip == null || address == -1)
+                        return;
+
+                    if(breakpoint_checkbox.isChecked())
+                        chip.getBreakpoints().add(address);
+                    else
+                        chip.getBreakpoints().remove(address);
+                }
+            });
+
+            label = new VisLabel();
+
+            left();
+            add(breakpoint_checkbox);
+            add(label).left().padLeft(4);
+        }
+
+        void bind(int line) {
+            this.line = line;
+            address = listing.getAddress(line);
+            label.setText(listing.getText(line));
+            highlight();
+
+            CHIP8 chip = emu.getChip();
+            breakpoint_checkbox.setChecked(chip != null && chip.getBreakpoints().contains(address));
+        }
+
+        void unbind() {
+            line = -1;
+            address = -1;
+            setVisible(false);
+        }
+
+        void highlight() {
+            label.setColor(line != -1 && line == pc_line ? PC_COLOR : Color.WHITE);
+        }
     }
 }
@@ -65,7 +65,7 @@ public class ScreenKeyboardWindow extends VisWindow {
             @Override
             public boolean touchDown(InputEvent event, float x, float y, int pointer, int button) {
                 if(emu.getChip() != null)
-                    emu.getChip().getKeyboard().justSet(index, (byte) 1);
+                    emu.getChip().getKeyboard().queue(index, (byte) 1);
 
                 return super.touchDown(event, x, y, pointer, button);
             }
@@ -73,7 +73,7 @@ public class ScreenKeyboardWindow extends VisWindow {
             @Override
             public void touchUp(InputEvent event, float x, float y, int pointer, int button) {
                 if(emu.getChip() != null)
-                    emu.getChip().getKeyboard().justSet(index, (byte) 0);
+                    emu.getChip().getKeyboard().queue(index, (byte) 0);
 
                 super.touchUp(event, x, y, pointer, button);
             }
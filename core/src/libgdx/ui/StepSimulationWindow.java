@@ -53,9 +53,7 @@ public class StepSimulationWindow extends VisWindow {
                             Runnable r = new Runnable() {
                                 @Override
                                 public void run() {
-                                    for (int i = 0; i < step_size_model.getValue(); i++) {
-                                        emu.getChip().emulationStep();
-                                    }
+                                    emu.getChip().runCycles(step_size_model.getValue());
                                 }
                             };
                             new Thread(r).start(); //run on another thread to now block whole program when chip will wait for some key pressed
@@ -0,0 +1,92 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timers in CYCLES timer mode have to be decreased exactly once per instructions per frame executed instructions,
+ * no matter how execution is split into calls (instructions left over from one call count towards next tick)
+ */
+
+public class CycleTimersTest {
+
+    /**
+     * Sets both timers to 255 and then spins reading delay timer, so loop block uses timers
+     */
+    private static final byte[] PROGRAM = {
+            0x60, (byte) 0xFF, //200: LD V0, 0xFF
+            (byte) 0xF0, 0x15, //202: LD DT, V0
+            (byte) 0xF0, 0x18, //204: LD ST, V0
+            (byte) 0xF1, 0x07, //206: LD V1, DT
+            0x12, 0x06         //208: JP 0x206
+    };
+
+    private static final int INSTRUCTIONS_PER_FRAME = 10;
+
+    private static CHIP8 createChip(CHIP8.InterpreterMode mode) {
+        CHIP8 chip = new CHIP8(0);
+        chip.load(PROGRAM);
+        chip.setInterpreterMode(mode);
+        chip.setInstructionsPerFrame(INSTRUCTIONS_PER_FRAME);
+        chip.setTimerMode(CHIP8.TimerMode.CYCLES);
+
+        return chip;
+    }
+
+    private static void assertTicks(CHIP8 chip, int ticks) {
+        assertEquals(255 - ticks, chip.getMemory().delay_timer);
+        assertEquals(255 - ticks, chip.getMemory().sound_timer);
+    }
+
+    @Test
+    public void wholeFramesTickOncePerFrame() {
+        for(CHIP8.InterpreterMode mode : CHIP8.InterpreterMode.values()) {
+            CHIP8 chip = createChip(mode);
+
+            for(int frame = 1; frame <= 100; frame++) {
+                assertEquals(CHIP8.RunResult.COMPLETED, chip.runUntilFrame());
+                assertTicks(chip, frame);
+            }
+        }
+    }
+
+    @Test
+    public void unevenCallsCarryLeftoverInstructions() {
+        final int frames = 37, chunk = 7;
+
+        for(CHIP8.InterpreterMode mode : CHIP8.InterpreterMode.values()) {
+            CHIP8 chip = createChip(mode);
+
+            //37 * 10 instructions run as 52 calls of 7 instructions and one of 6
+            int left = frames * INSTRUCTIONS_PER_FRAME;
+            while(left > 0) {
+                int cycles = Math.min(chunk, left);
+                chip.runCycles(cycles);
+                left -= cycles;
+
+                long executed = frames * INSTRUCTIONS_PER_FRAME - left;
+                assertTicks(chip, (int) (executed / INSTRUCTIONS_PER_FRAME));
+            }
+
+            assertEquals(frames * INSTRUCTIONS_PER_FRAME, chip.getInstructionCount());
+            assertTicks(chip, frames);
+        }
+    }
+
+    @Test
+    public void tickHappensOnExactInstruction() {
+        for(CHIP8.InterpreterMode mode : CHIP8.InterpreterMode.values()) {
+            CHIP8 chip = createChip(mode);
+
+            chip.runCycles(5 * INSTRUCTIONS_PER_FRAME + INSTRUCTIONS_PER_FRAME - 1);
+            assertTicks(chip, 5);
+
+            chip.runCycles(1);
+            assertTicks(chip, 6);
+
+            chip.runCycles(INSTRUCTIONS_PER_FRAME - 1);
+            assertTicks(chip, 6);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Invalid memory accesses have to be counted for the instruction which made them, also when the access is instruction fetch itself
+ */
+
+public class FaultsTest {
+
+    /**
+     * Sprite read runs past memory end and then jumps to the last byte of memory, so fetch of next instruction runs past it too
+     */
+    private static final byte[] PROGRAM = {
+            (byte) 0xAF, (byte) 0xFE, //200: LD I, 0xFFE
+            (byte) 0xD0, 0x05,        //202: DRW V0, V0, 5
+            0x1F, (byte) 0xFF         //204: JP 0xFFF
+    };
+
+    @Test
+    public void accessesAreCountedForFaultingInstruction() {
+        for(CHIP8.InterpreterMode mode : CHIP8.InterpreterMode.values()) {
+            CHIP8 chip = new CHIP8(0);
+            chip.load(PROGRAM);
+            chip.setInterpreterMode(mode);
+
+            chip.runCycles(3);
+            Faults faults = chip.getFaults();
+
+            //sprite rows at 0x1000 - 0x1002
+            assertEquals(mode.name(), 3, faults.getCount(Faults.INVALID_READ, 0x202));
+            assertEquals(mode.name(), 0, faults.getCount(Faults.INVALID_READ, 0x200));
+            assertEquals(mode.name(), 3, faults.getCount(Faults.INVALID_READ));
+
+            //second byte of instruction at 0xFFF lies at 0x1000
+            chip.runCycles(1);
+            assertEquals(mode.name(), 1, faults.getCount(Faults.INVALID_READ, 0xFFF));
+            assertEquals(mode.name(), 0, faults.getCount(Faults.INVALID_READ, 0xFFD));
+            assertEquals(mode.name(), "invalid read of 0x1000 by instruction at 0xFFF", faults.describeLast());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package chip8;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queued key changes have to reach chip in order (also chip parked in FX0A) and recorded input has to replay exactly
+ */
+
+public class KeyboardTest {
+
+    /**
+     * Waits for key, draws its digit at random place and counts while key is held
+     */
+    private static final byte[] PROGRAM = {
+            (byte) 0xF0, 0x0A, //200: LD V0, K
+            (byte) 0xF0, 0x29, //202: LD F, V0
+            (byte) 0xC1, 0x3F, //204: RND V1, 0x3F
+            (byte) 0xC2, 0x1F, //206: RND V2, 0x1F
+            (byte) 0xD1, 0x25, //208: DRW V1, V2, 5
+            (byte) 0xE0, (byte) 0x9E, //20A: SKP V0
+            0x12, 0x00,        //20C: JP 0x200
+            0x73, 0x01,        //20E: ADD V3, 1
+            (byte) 0xF3, 0x15, //210: LD DT, V3
+            0x12, 0x0A         //212: JP 0x20A
+    };
+
+    private static final int FRAMES = 600;
+
+    @Test
+    public void queuedChangesAreAppliedInOrder() {
+        CHIP8 chip = new CHIP8(1);
+        chip.load(PROGRAM);
+        chip.setKeyWaitBlocking(false);
+        chip.runCycles(1); //FX0A starts waiting
+
+        Keyboard keyboard = chip.getKeyboard();
+        assertTrue(keyboard.queue(3, (byte) 1));
+        assertTrue(keyboard.queue(3, (byte) 0));
+        assertTrue(keyboard.queue(7, (byte) 1));
+        assertEquals(0, chip.getMemory().key[7]);
+
+        //all changes are applied before FX0A checks keys again, so it sees the first press
+        chip.runCycles(1);
+        assertEquals(0, chip.getMemory().key[3]);
+        assertEquals(1, chip.getMemory().key[7]);
+        assertEquals(3, chip.getMemory().V[0]);
+    }
+
+    @Test
+    public void fullQueueKeepsFinalStateOfEveryKey() {
+        Keyboard keyboard = new Keyboard(new Memory());
+
+        //fill queue with taps of keys 0 - 7
+        for(int i = 0; i < 32; i++) {
+            assertTrue(keyboard.queue(i % 8, (byte) 1));
+            assertTrue(keyboard.queue(i % 8, (byte) 0));
+        }
+        assertEquals(0, keyboard.getLostEvents());
+
+        //press of queued key replaces its last release, key without queued change can't be queued
+        assertTrue(keyboard.queue(2, (byte) 1));
+        assertFalse(keyboard.queue(12, (byte) 1));
+        assertEquals(2, keyboard.getLostEvents());
+
+        byte[] keys = new byte[16];
+        int event, applied = 0;
+        while((event = keyboard.pollQueued()) != -1) {
+            keys[event >> 1] = (byte) (event & 1);
+            applied++;
+        }
+
+        assertEquals(64, applied);
+        assertEquals(1, keys[2]);
+        assertEquals(0, keys[12]);
+        assertEquals(0, keys[5]);
+    }
+
+    @Test(timeout = 20000)
+    public void queuedPressWakesBlockedWait() throws InterruptedException {
+        //press queued at any moment around thread parking in blocking wait has to wake it up
+        for(int i = 0; i < 1000; i++) {
+            final Keyboard keyboard = new Keyboard(new Memory());
+            final int[] pressed = { -2 };
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pressed[0] = keyboard.awaitKeyPress();
+                }
+            });
+            thread.start();
+
+            if(i % 2 == 0)
+                Thread.yield();
+            keyboard.queue(9, (byte) 1);
+
+            thread.join(5000);
+            assertFalse("waiting thread stayed parked with queued key press", thread.isAlive());
+            assertEquals(9, pressed[0]);
+        }
+    }
+
+    @Test
+    public void recordedRunReplaysExactly() throws IOException {
+        CHIP8 recorded = new CHIP8(1234);
+        recorded.load(PROGRAM);
+        recorded.setTimerMode(CHIP8.TimerMode.CYCLES);
+        recorded.setKeyWaitBlocking(false);
+        recorded.setInstructionsPerFrame(20);
+
+        recordAndReplay(recorded);
+    }
+
+    @Test(timeout = 20000)
+    public void recordingWithDefaultKeyWaitReplaysExactly() throws IOException {
+        //FX0A blocks by default, recorder has to switch it off, otherwise presses ending FX0A aren't recorded (and this thread parks)
+        CHIP8 recorded = new CHIP8(1234);
+        recorded.load(PROGRAM);
+        recorded.setTimerMode(CHIP8.TimerMode.CYCLES);
+        recorded.setInstructionsPerFrame(20);
+        assertTrue(recorded.isKeyWaitBlocking());
+
+        recordAndReplay(recorded);
+        assertFalse(recorded.isKeyWaitBlocking());
+    }
+
+    /**
+     * Record FRAMES frames of random key taps on given chip, replay them on fresh chip and compare state after every frame
+     * @param recorded chip with loaded PROGRAM, nothing executed yet
+     */
+    private static void recordAndReplay(CHIP8 recorded) throws IOException {
+        ByteArrayOutputStream movie = new ByteArrayOutputStream();
+        MovieRecorder recorder = new MovieRecorder(Channels.newChannel(movie));
+        recorded.setMovieRecorder(recorder);
+
+        //scripted taps of random keys, queued between frames like from input thread
+        Random input = new Random(99);
+        List<byte[]> states = new ArrayList<byte[]>();
+        int held_key = -1;
+        for(int frame = 0; frame < FRAMES; frame++) {
+            if(input.nextInt(8) == 0) {
+                if(held_key == -1) {
+                    held_key = input.nextInt(16);
+                    recorded.getKeyboard().queue(held_key, (byte) 1);
+                } else {
+                    recorded.getKeyboard().queue(held_key, (byte) 0);
+                    held_key = -1;
+                }
+            }
+
+            recorded.runUntilFrame();
+            states.add(snapshot(recorded));
+        }
+        recorder.finish();
+        assertTrue(recorder.getRecords() > 20);
+
+        //seed, instructions per frame & timer mode come from movie, live input is ignored
+        MoviePlayer player = new MoviePlayer(Channels.newChannel(new ByteArrayInputStream(movie.toByteArray())));
+        CHIP8 replayed = new CHIP8(5678);
+        replayed.load(PROGRAM);
+        replayed.setMoviePlayer(player);
+
+        for(int frame = 0; frame < FRAMES; frame++) {
+            replayed.getKeyboard().queue(frame % 16, (byte) 1);
+            replayed.runUntilFrame();
+
+            assertArrayEquals("frame " + frame, states.get(frame), snapshot(replayed));
+        }
+
+        assertTrue(player.isFinished());
+        assertEquals(recorder.getRecords(), player.getPlayed());
+    }
+
+    private static byte[] snapshot(CHIP8 chip) {
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.MAX_SIZE);
+        int length = chip.snapshot(buffer, 0);
+
+        return Arrays.copyOf(buffer.array(), length);
+    }
+}
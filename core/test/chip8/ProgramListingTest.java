@@ -0,0 +1,33 @@
+package chip8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Cached listings are shared only by chips which loaded the same bytes, not just program with the same hash
+ */
+
+public class ProgramListingTest {
+
+    private static final byte[] PROGRAM = { 0x60, 0x01, 0x12, 0x00 }, OTHER_PROGRAM = { 0x61, 0x02, 0x12, 0x00 };
+
+    @Test
+    public void sameProgramSharesListing() {
+        ProgramListing listing = ProgramListing.of(0x1234L, PROGRAM, 0, PROGRAM.length);
+
+        assertSame(listing, ProgramListing.of(0x1234L, PROGRAM.clone(), 0, PROGRAM.length));
+    }
+
+    @Test
+    public void hashCollisionDoesNotShareListing() {
+        ProgramListing listing = ProgramListing.of(0x5678L, PROGRAM, 0, PROGRAM.length);
+        ProgramListing other = ProgramListing.of(0x5678L, OTHER_PROGRAM, 0, OTHER_PROGRAM.length);
+
+        assertNotSame(listing, other);
+        assertEquals(0x6102, other.getOpcode(0));
+        assertEquals(0x6001, listing.getOpcode(0));
+    }
+}
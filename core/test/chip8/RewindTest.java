@@ -0,0 +1,176 @@
+package chip8;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stepping back has to give exactly the states captured at those frames, also after the oldest entries were dropped
+ */
+
+public class RewindTest {
+
+    /**
+     * Writes random bytes all over 0x400 - 0xBFF and draws them, so every frame changes memory, registers & screen
+     */
+    private static final byte[] PROGRAM = {
+            (byte) 0xA4, 0x00, //200: LD I, 0x400
+            0x68, 0x08,        //202: LD V8, 8
+            (byte) 0xC0, (byte) 0xFF, //204: RND V0, 0xFF
+            (byte) 0xC1, (byte) 0xFF, //206: RND V1, 0xFF
+            (byte) 0xC2, (byte) 0xFF, //208: RND V2, 0xFF
+            (byte) 0xC3, (byte) 0xFF, //20A: RND V3, 0xFF
+            (byte) 0xC4, (byte) 0xFF, //20C: RND V4, 0xFF
+            (byte) 0xC5, (byte) 0xFF, //20E: RND V5, 0xFF
+            (byte) 0xC6, (byte) 0xFF, //210: RND V6, 0xFF
+            (byte) 0xC7, (byte) 0xFF, //212: RND V7, 0xFF
+            (byte) 0xF7, 0x55, //214: LD [I], V7
+            (byte) 0xD0, 0x11, //216: DRW V0, V1, 1
+            (byte) 0xF8, 0x1E, //218: ADD I, V8
+            0x79, 0x01,        //21A: ADD V9, 1
+            0x39, 0x00,        //21C: SE V9, 0
+            0x12, 0x04,        //21E: JP 0x204
+            0x12, 0x00         //220: JP 0x200
+    };
+
+    private static final int FRAMES = 400;
+
+    /**
+     * Everything rewind has to bring back
+     */
+    private static class Frame {
+        final byte[] memory, V;
+        final int[] stack;
+        final int pc, I, sp, delay_timer, sound_timer;
+        final long random;
+        final long[] rows;
+
+        Frame(CHIP8 chip) {
+            Memory mem = chip.getMemory();
+            memory = mem.memory.clone();
+            V = mem.V.clone();
+            stack = mem.stack.clone();
+            pc = mem.pc;
+            I = mem.I;
+            sp = mem.sp;
+            delay_timer = mem.delay_timer;
+            sound_timer = mem.sound_timer;
+            random = chip.getRandom().getState();
+
+            GFX gfx = chip.getGFX();
+            gfx.update();
+            rows = Arrays.copyOf(gfx.getRowsBuffer(), gfx.getRowsLength());
+        }
+
+        void assertSame(Frame other, int frame) {
+            String at = "frame " + frame;
+            assertArrayEquals(at, memory, other.memory);
+            assertArrayEquals(at, V, other.V);
+            assertArrayEquals(at, stack, other.stack);
+            assertEquals(at, pc, other.pc);
+            assertEquals(at, I, other.I);
+            assertEquals(at, sp, other.sp);
+            assertEquals(at, delay_timer, other.delay_timer);
+            assertEquals(at, sound_timer, other.sound_timer);
+            assertEquals(at, random, other.random);
+            assertArrayEquals(at, rows, other.rows);
+        }
+    }
+
+    /**
+     * Run FRAMES frames capturing every one of them
+     * @return state after every frame
+     */
+    private static List<Frame> record(CHIP8 chip, Rewind rewind) {
+        List<Frame> frames = new ArrayList<Frame>();
+
+        for(int i = 0; i < FRAMES; i++) {
+            chip.runUntilFrame();
+            rewind.capture();
+            frames.add(new Frame(chip));
+        }
+
+        return frames;
+    }
+
+    private static CHIP8 createChip() {
+        CHIP8 chip = new CHIP8(42);
+        chip.load(PROGRAM);
+        chip.setTimerMode(CHIP8.TimerMode.CYCLES);
+        chip.setInstructionsPerFrame(130);
+
+        return chip;
+    }
+
+    /**
+     * Step back through whole history and compare every state with recorded one
+     */
+    private static void rewindAll(CHIP8 chip, Rewind rewind, List<Frame> frames) {
+        int remembered = rewind.getFrames();
+        assertTrue("oldest entries have to be dropped", remembered < FRAMES - 1);
+
+        for(int step = 1; step <= remembered; step++) {
+            assertTrue(rewind.stepBack());
+            new Frame(chip).assertSame(frames.get(FRAMES - 1 - step), FRAMES - 1 - step);
+        }
+
+        //history ends at the oldest remembered state and chip stays there
+        int oldest = FRAMES - 1 - remembered;
+        assertFalse(rewind.stepBack());
+        new Frame(chip).assertSame(frames.get(oldest), oldest);
+        assertEquals(0, rewind.getFrames());
+    }
+
+    @Test
+    public void rewindsAcrossArenaWrap() {
+        CHIP8 chip = createChip();
+
+        //smallest possible arena holds only part of history, entries are dropped as arena wraps around
+        Rewind rewind = new Rewind(chip, 0, FRAMES);
+        List<Frame> frames = record(chip, rewind);
+
+        rewindAll(chip, rewind, frames);
+    }
+
+    @Test
+    public void rewindsAcrossFramesLimit() {
+        CHIP8 chip = createChip();
+
+        Rewind rewind = new Rewind(chip, Rewind.DEFAULT_ARENA_SIZE, 50);
+        List<Frame> frames = record(chip, rewind);
+        assertEquals(50, rewind.getFrames());
+
+        rewindAll(chip, rewind, frames);
+    }
+
+    @Test
+    public void historyContinuesAfterRewind() {
+        CHIP8 chip = createChip();
+        Rewind rewind = new Rewind(chip, 0, FRAMES);
+        List<Frame> frames = record(chip, rewind);
+
+        //go back 20 frames, run again and rewind over both new & old entries
+        for(int i = 0; i < 20; i++)
+            assertTrue(rewind.stepBack());
+
+        List<Frame> replayed = new ArrayList<Frame>(frames.subList(0, FRAMES - 20));
+        for(int i = 0; i < 20; i++) {
+            chip.runUntilFrame();
+            rewind.capture();
+            replayed.add(new Frame(chip));
+        }
+
+        //chip is deterministic, so frames after rewind are the same ones
+        for(int i = FRAMES - 20; i < FRAMES; i++)
+            replayed.get(i).assertSame(frames.get(i), i);
+
+        rewindAll(chip, rewind, replayed);
+    }
+}
@@ -0,0 +1,233 @@
+package chip8;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Save states have to restore exact machine state, stay readable in older versions and refuse damaged or foreign input
+ */
+
+public class SaveStateTest {
+
+    /**
+     * Keeps changing memory, registers & screen
+     */
+    private static final byte[] PROGRAM = {
+            0x6A, 0x05,        //200: LD VA, 5
+            (byte) 0xA3, 0x00, //202: LD I, 0x300
+            (byte) 0xFA, 0x55, //204: LD [I], VA
+            0x70, 0x01,        //206: ADD V0, 1
+            (byte) 0xC1, 0x3F, //208: RND V1, 0x3F
+            (byte) 0xD1, 0x25, //20A: DRW V1, V2, 5
+            0x12, 0x04         //20C: JP 0x204
+    };
+
+    private static final byte[] OTHER_PROGRAM = {
+            0x60, 0x01,        //200: LD V0, 1
+            0x12, 0x00         //202: JP 0x200
+    };
+
+    /**
+     * Offsets of version 2 state fields used by tests (see SaveState format description)
+     */
+    private static final int VERSION_OFFSET = 4, FLAGS_OFFSET = 6, LENGTH_OFFSET = 8;
+    private static final int PC_OFFSET = 20, SP_OFFSET = 24, STACK_OFFSET = 25, RPL_OFFSET = 112, LOWRES_MEMORY_OFFSET = 388;
+
+    private static CHIP8 createChip(byte[] program) {
+        CHIP8 chip = new CHIP8(7);
+        chip.load(program);
+        chip.setTimerMode(CHIP8.TimerMode.CYCLES);
+        chip.setInstructionsPerFrame(10);
+
+        return chip;
+    }
+
+    private static byte[] snapshot(CHIP8 chip, int flags) {
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.MAX_SIZE);
+        int length = chip.snapshot(buffer, flags);
+
+        return Arrays.copyOf(buffer.array(), length);
+    }
+
+    private static void restore(CHIP8 chip, byte[] state) {
+        chip.restore(ByteBuffer.wrap(state));
+    }
+
+    @Test
+    public void restoreGivesBackSnapshottedState() {
+        int[] all_flags = { 0, SaveState.MEMORY_DELTA, SaveState.BREAKPOINTS, SaveState.MEMORY_DELTA | SaveState.BREAKPOINTS };
+
+        for(int flags : all_flags) {
+            CHIP8 chip = createChip(PROGRAM);
+            chip.getBreakpoints().add(0x300); //never reached, only stored
+            chip.runCycles(123);
+            byte[] state = snapshot(chip, flags);
+
+            chip.getBreakpoints().clear();
+            chip.runCycles(77);
+            assertNotEquals(Arrays.toString(state), Arrays.toString(snapshot(chip, flags)));
+
+            restore(chip, state);
+            assertArrayEquals(state, snapshot(chip, flags));
+
+            //same program loaded on other chip
+            CHIP8 other = createChip(PROGRAM);
+            restore(other, state);
+            assertArrayEquals(state, snapshot(other, flags));
+
+            //restored chip goes on exactly like original one
+            chip.runCycles(500);
+            other.runCycles(500);
+            assertArrayEquals(snapshot(chip, flags), snapshot(other, flags));
+        }
+    }
+
+    @Test
+    public void callerByteOrderIsKept() {
+        CHIP8 chip = createChip(PROGRAM);
+        chip.runCycles(50);
+
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int length = chip.snapshot(buffer, SaveState.MEMORY_DELTA);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+        assertEquals(SaveState.MAGIC, ByteBuffer.wrap(buffer.array()).getInt(0));
+
+        buffer.flip();
+        createChip(PROGRAM).restore(buffer);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+        assertEquals(length, buffer.position());
+    }
+
+    @Test
+    public void version1StateIsRestored() {
+        CHIP8 chip = createChip(PROGRAM);
+        chip.runCycles(123);
+        byte[] state = snapshot(chip, 0);
+
+        //version 1 doesn't contain RPL user flags
+        byte[] old_state = new byte[state.length - 16];
+        System.arraycopy(state, 0, old_state, 0, RPL_OFFSET);
+        System.arraycopy(state, RPL_OFFSET + 16, old_state, RPL_OFFSET, state.length - RPL_OFFSET - 16);
+        ByteBuffer.wrap(old_state).putShort(VERSION_OFFSET, (short) 1).putInt(LENGTH_OFFSET, old_state.length);
+
+        CHIP8 other = createChip(PROGRAM);
+        restore(other, old_state);
+        assertArrayEquals(state, snapshot(other, 0));
+    }
+
+    @Test
+    public void unsupportedStatesAreRefused() {
+        CHIP8 chip = createChip(PROGRAM);
+        byte[] state = snapshot(chip, 0);
+
+        byte[] newer = state.clone();
+        ByteBuffer.wrap(newer).putShort(VERSION_OFFSET, (short) (SaveState.VERSION + 1));
+        assertRefused(chip, newer, "Unsupported save state version");
+
+        byte[] garbage = state.clone();
+        garbage[0] = 0;
+        assertRefused(chip, garbage, "Not a chip8 save state");
+
+        byte[] truncated = Arrays.copyOf(state, state.length - 1);
+        assertRefused(chip, truncated, "Truncated save state");
+    }
+
+    @Test
+    public void damagedMemoryDeltaIsRefused() {
+        CHIP8 chip = createChip(PROGRAM);
+        chip.runCycles(123);
+        byte[] state = snapshot(chip, SaveState.MEMORY_DELTA);
+
+        //first run skips past memory end
+        byte[] damaged = state.clone();
+        ByteBuffer.wrap(damaged).putShort(LOWRES_MEMORY_OFFSET, (short) 0xF000);
+        assertRefused(createChip(PROGRAM), damaged, "Damaged memory delta");
+
+        //state ends in the middle of runs
+        byte[] truncated = Arrays.copyOf(state, LOWRES_MEMORY_OFFSET + 6);
+        ByteBuffer.wrap(truncated).putInt(LENGTH_OFFSET, truncated.length);
+        assertRefused(createChip(PROGRAM), truncated, "Truncated memory delta");
+    }
+
+    @Test
+    public void damagedRegistersAreRefused() {
+        CHIP8 chip = createChip(PROGRAM);
+        chip.runCycles(123);
+        byte[] state = snapshot(chip, 0);
+
+        byte[] damaged_pc = state.clone();
+        ByteBuffer.wrap(damaged_pc).putShort(PC_OFFSET, (short) 0x1000);
+        assertRefused(chip, damaged_pc, "Damaged save state");
+
+        byte[] damaged_sp = state.clone();
+        damaged_sp[SP_OFFSET] = 17;
+        assertRefused(chip, damaged_sp, "Damaged save state");
+
+        byte[] damaged_stack = state.clone();
+        ByteBuffer.wrap(damaged_stack).putShort(STACK_OFFSET + 15 * 2, (short) 0xF000);
+        assertRefused(chip, damaged_stack, "Damaged save state");
+
+        //refused state doesn't touch chip, full stack is still valid
+        assertArrayEquals(state, snapshot(chip, 0));
+
+        byte[] full_stack = state.clone();
+        full_stack[SP_OFFSET] = 16;
+        restore(chip, full_stack);
+        assertEquals(16, chip.getMemory().sp);
+    }
+
+    @Test
+    public void deltaStateOfOtherProgramIsRefused() {
+        CHIP8 chip = createChip(PROGRAM);
+        chip.runCycles(10);
+        byte[] state = snapshot(chip, SaveState.MEMORY_DELTA);
+
+        assertRefused(createChip(OTHER_PROGRAM), state, "different program");
+    }
+
+    @Test
+    public void fullStateOfOtherProgramReplacesProgram() {
+        CHIP8 chip = createChip(PROGRAM);
+        chip.runCycles(123);
+        byte[] state = snapshot(chip, 0);
+        byte[] delta_state = snapshot(chip, SaveState.MEMORY_DELTA);
+
+        CHIP8 other = createChip(OTHER_PROGRAM);
+        other.getProgramInstructions();
+        restore(other, state);
+
+        assertEquals(chip.getRomHash(), other.getRomHash());
+        assertArrayEquals(state, snapshot(other, 0));
+        assertEquals(chip.getProgramInstructions().getText(5), other.getProgramInstructions().getText(5));
+
+        //restored memory isn't pristine image of program, so deltas can't be made nor restored against it
+        byte[] other_delta = snapshot(other, SaveState.MEMORY_DELTA);
+        assertEquals(0, ByteBuffer.wrap(other_delta).getShort(FLAGS_OFFSET));
+        assertArrayEquals(state, other_delta);
+        assertRefused(other, delta_state, "different program");
+
+        //loading program gives pristine image back
+        other.load(PROGRAM);
+        other.setTimerMode(CHIP8.TimerMode.CYCLES);
+        restore(other, delta_state);
+        assertArrayEquals(delta_state, snapshot(other, SaveState.MEMORY_DELTA));
+    }
+
+    private static void assertRefused(CHIP8 chip, byte[] state, String message) {
+        try {
+            restore(chip, state);
+            fail("State was restored");
+        } catch (IllegalArgumentException e) {
+            if(!e.getMessage().contains(message))
+                throw e;
+        }
+    }
+}
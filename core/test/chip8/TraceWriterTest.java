@@ -0,0 +1,110 @@
+package chip8;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Trace writer can be closed from other thread while chip keeps recording into it, trace stays complete & readable
+ */
+
+public class TraceWriterTest {
+
+    /**
+     * Counts in V0 forever
+     */
+    private static final byte[] PROGRAM = {
+            0x70, 0x01, //200: ADD V0, 1
+            0x12, 0x00  //202: JP 0x200
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 20000)
+    public void closeWhileChipIsRecording() throws Exception {
+        for(int i = 0; i < 50; i++) {
+            final String base_path = new File(folder.getRoot(), "trace" + i).getPath();
+
+            //small segments so close also races with switching to the next segment
+            final TraceWriter writer = new TraceWriter(base_path, 64, 0);
+            final CHIP8 chip = new CHIP8(0);
+            chip.load(PROGRAM);
+            chip.setTracer(writer);
+
+            final Throwable[] failure = new Throwable[1];
+            final AtomicBoolean stop = new AtomicBoolean();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while(!stop.get())
+                            chip.runCycles(100);
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            thread.start();
+
+            Thread.sleep(i % 5);
+            writer.close();
+
+            //records after close are ignored
+            long written = writer.getWritten();
+            Thread.sleep(1);
+            assertEquals(written, writer.getWritten());
+
+            stop.set(true);
+            thread.join();
+            assertNull(failure[0]);
+
+            assertEquals(written, read(base_path));
+        }
+    }
+
+    @Test
+    public void closeIsIdempotent() throws IOException {
+        String base_path = new File(folder.getRoot(), "trace").getPath();
+        TraceWriter writer = new TraceWriter(base_path, 4, 0);
+        CHIP8 chip = new CHIP8(0);
+        chip.load(PROGRAM);
+        chip.setTracer(writer);
+
+        chip.runCycles(10);
+        writer.close();
+        writer.close();
+        chip.runCycles(10);
+
+        assertEquals(10, writer.getWritten());
+        assertEquals(3, writer.getSegments());
+        assertEquals(10, read(base_path));
+    }
+
+    /**
+     * Read whole trace checking that records are consecutive instructions
+     * @return amount of records
+     */
+    private static long read(String base_path) throws IOException {
+        TraceReader reader = new TraceReader(base_path);
+
+        long count = 0;
+        while(reader.next()) {
+            assertEquals(count, reader.getInstruction());
+            assertTrue(reader.getPC() == 0x200 || reader.getPC() == 0x202);
+            count++;
+        }
+        assertFalse(reader.next());
+
+        return count;
+    }
+}
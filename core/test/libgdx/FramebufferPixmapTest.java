@@ -0,0 +1,106 @@
+package libgdx;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pixmap conversion runs without GL, only native pixmap library is needed
+ */
+
+public class FramebufferPixmapTest {
+
+    private static final int LIT = Color.rgba8888(Color.WHITE), UNLIT = Color.rgba8888(Color.CLEAR);
+
+    private FramebufferPixmap framebuffer;
+
+    @BeforeClass
+    public static void loadNatives() {
+        GdxNativesLoader.load();
+    }
+
+    @After
+    public void dispose() {
+        if(framebuffer != null)
+            framebuffer.dispose();
+    }
+
+    @Test
+    public void newPixmapIsUnlit() {
+        framebuffer = new FramebufferPixmap(64, 32, Color.WHITE, Color.CLEAR);
+
+        for(int y = 0; y < 32; y++) {
+            for(int x = 0; x < 64; x++)
+                assertEquals(UNLIT, framebuffer.getPixmap().getPixel(x, y));
+        }
+    }
+
+    @Test
+    public void rewritesSpanOfDirtyRowsOnly() {
+        framebuffer = new FramebufferPixmap(64, 32, Color.WHITE, Color.CLEAR);
+
+        long[] rows = new long[32];
+        rows[3] = 1L << 63; //leftmost pixel
+        rows[4] = 1L;       //rightmost pixel, row isn't marked as dirty but lies inside span
+        rows[5] = -1L;
+        rows[10] = -1L;     //outside span, stays unlit
+
+        framebuffer.update(rows, (1L << 3) | (1L << 5));
+
+        assertEquals(3, framebuffer.getUpdatedFirstRow());
+        assertEquals(3, framebuffer.getUpdatedRowCount());
+
+        assertEquals(LIT, framebuffer.getPixmap().getPixel(0, 3));
+        assertEquals(UNLIT, framebuffer.getPixmap().getPixel(1, 3));
+        assertEquals(LIT, framebuffer.getPixmap().getPixel(63, 4));
+        assertEquals(UNLIT, framebuffer.getPixmap().getPixel(62, 4));
+        for(int x = 0; x < 64; x++) {
+            assertEquals(LIT, framebuffer.getPixmap().getPixel(x, 5));
+            assertEquals(UNLIT, framebuffer.getPixmap().getPixel(x, 10));
+        }
+    }
+
+    @Test
+    public void nothingDirtyRewritesNothing() {
+        framebuffer = new FramebufferPixmap(64, 32, Color.WHITE, Color.CLEAR);
+
+        long[] rows = new long[32];
+        rows[0] = -1L;
+        framebuffer.update(rows, 0);
+
+        assertEquals(-1, framebuffer.getUpdatedFirstRow());
+        assertEquals(0, framebuffer.getUpdatedRowCount());
+        assertEquals(UNLIT, framebuffer.getPixmap().getPixel(0, 0));
+    }
+
+    @Test
+    public void fullMaskIsClampedToHeight() {
+        framebuffer = new FramebufferPixmap(64, 32, Color.WHITE, Color.CLEAR);
+
+        framebuffer.update(new long[32], -1L);
+
+        assertEquals(0, framebuffer.getUpdatedFirstRow());
+        assertEquals(32, framebuffer.getUpdatedRowCount());
+    }
+
+    @Test
+    public void wideRowsUseSeveralWords() {
+        framebuffer = new FramebufferPixmap(128, 64, Color.WHITE, Color.CLEAR);
+
+        long[] rows = new long[2 * 64];
+        rows[63 * 2 + 1] = 1L << 63; //pixel 64 of the last row
+
+        framebuffer.update(rows, 1L << 63);
+
+        assertEquals(63, framebuffer.getUpdatedFirstRow());
+        assertEquals(1, framebuffer.getUpdatedRowCount());
+        assertEquals(UNLIT, framebuffer.getPixmap().getPixel(63, 63));
+        assertEquals(LIT, framebuffer.getPixmap().getPixel(64, 63));
+        assertEquals(UNLIT, framebuffer.getPixmap().getPixel(65, 63));
+    }
+}
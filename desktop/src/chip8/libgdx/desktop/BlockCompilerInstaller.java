@@ -0,0 +1,21 @@
+package chip8.libgdx.desktop;
+
+import chip8.CHIP8;
+import chip8.jit.BytecodeBlockCompiler;
+import libgdx.EmulatorMain;
+
+/**
+ * Switches every chip emulator creates into BLOCK interpreter mode with bytecode block compiler (desktop JVM only, Android stays on interpreter)
+ */
+public class BlockCompilerInstaller implements EmulatorMain.ChipListener {
+	@Override
+	public void chipCreated(CHIP8 chip) {
+		//chip isn't loaded yet so emulator thread doesn't run it
+		chip.setInterpreterMode(CHIP8.InterpreterMode.BLOCK);
+		chip.setBlockCompiler(new BytecodeBlockCompiler());
+	}
+
+	@Override
+	public void chipDestroyed(CHIP8 chip) {
+	}
+}
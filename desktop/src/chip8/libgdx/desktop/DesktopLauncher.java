@@ -11,6 +11,14 @@ public class DesktopLauncher {
 		config.width = 1280;
 		config.height = 720;
 
-		new LwjglApplication(new EmulatorMain(), config);
+		EmulatorMain emulator = new EmulatorMain();
+
+		//hot code of every program runs as generated JVM classes
+		emulator.addChipListener(new BlockCompilerInstaller());
+
+		//runtime metrics of every emulator session over JMX (f.e. jconsole)
+		emulator.addChipListener(new MetricsExporter());
+
+		new LwjglApplication(emulator, config);
 	}
 }
@@ -0,0 +1,125 @@
+package chip8.libgdx.desktop;
+
+import chip8.Metrics;
+
+/**
+ * Standard MBean exposing metrics of one chip, registered by MetricsExporter
+ */
+public class EmulatorMetrics implements EmulatorMetricsMBean {
+	private Metrics metrics;
+
+	public EmulatorMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Volatile read of publication stamp, so values written by emulator thread are visible to JMX thread
+	 * @return metrics
+	 */
+	private Metrics metrics() {
+		metrics.getPublished();
+		return metrics;
+	}
+
+	@Override
+	public double getInstructionsPerSecond() {
+		return metrics().getInstructionsPerSecond();
+	}
+
+	@Override
+	public double getFramesPerSecond() {
+		return metrics().getFramesPerSecond();
+	}
+
+	@Override
+	public double getDrawsPerSecond() {
+		return metrics().getDrawsPerSecond();
+	}
+
+	@Override
+	public double getTimerTicksPerSecond() {
+		return metrics().getTimerTicksPerSecond();
+	}
+
+	@Override
+	public int getTargetFrequency() {
+		return metrics().getTargetFrequency();
+	}
+
+	@Override
+	public double getShortfall() {
+		return metrics().getShortfall();
+	}
+
+	@Override
+	public double getShortfallRatio() {
+		return metrics().getShortfallRatio();
+	}
+
+	@Override
+	public long getInstructions() {
+		return metrics().getInstructions();
+	}
+
+	@Override
+	public long getFrames() {
+		return metrics().getFrames();
+	}
+
+	@Override
+	public long getDraws() {
+		return metrics().getDraws();
+	}
+
+	@Override
+	public long getTimerTicks() {
+		return metrics().getTimerTicks();
+	}
+
+	@Override
+	public long getKeyWaits() {
+		return metrics().getKeyWaits();
+	}
+
+	@Override
+	public long getKeyWaitTimeMillis() {
+		return metrics().getKeyWaitTime() / 1000000L;
+	}
+
+	@Override
+	public long getFaults() {
+		return metrics().getFaults();
+	}
+
+	@Override
+	public long getMaxFrameTimeMicros() {
+		return metrics().getMaxFrameTime() / 1000L;
+	}
+
+	@Override
+	public long[] getFrameJitter() {
+		Metrics metrics = metrics();
+
+		long[] jitter = new long[Metrics.JITTER_BUCKETS];
+		for(int bucket = 0; bucket < jitter.length; bucket++)
+			jitter[bucket] = metrics.getJitter(bucket);
+
+		return jitter;
+	}
+
+	@Override
+	public long[] getFrameJitterBoundsMicros() {
+		long[] bounds = new long[Metrics.JITTER_BUCKETS];
+		for(int bucket = 0; bucket < bounds.length; bucket++) {
+			long bound = Metrics.getJitterBound(bucket);
+			bounds[bucket] = bound == Long.MAX_VALUE ? bound : bound / 1000L;
+		}
+
+		return bounds;
+	}
+
+	@Override
+	public String getDump() {
+		return metrics.toString();
+	}
+}
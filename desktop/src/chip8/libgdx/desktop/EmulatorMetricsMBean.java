@@ -0,0 +1,36 @@
+package chip8.libgdx.desktop;
+
+/**
+ * JMX view of runtime metrics of one chip (see chip8.Metrics), rates are computed over the last second
+ */
+public interface EmulatorMetricsMBean {
+	double getInstructionsPerSecond();
+	double getFramesPerSecond();
+	double getDrawsPerSecond();
+	double getTimerTicksPerSecond();
+
+	int getTargetFrequency();
+	double getShortfall();
+	double getShortfallRatio();
+
+	long getInstructions();
+	long getFrames();
+	long getDraws();
+	long getTimerTicks();
+	long getKeyWaits();
+	long getKeyWaitTimeMillis();
+	long getFaults();
+
+	long getMaxFrameTimeMicros();
+
+	/**
+	 * @return frames per jitter bucket, upper bounds of buckets are in getFrameJitterBoundsMicros()
+	 */
+	long[] getFrameJitter();
+	long[] getFrameJitterBoundsMicros();
+
+	/**
+	 * @return all metrics as text
+	 */
+	String getDump();
+}
@@ -0,0 +1,49 @@
+package chip8.libgdx.desktop;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import chip8.CHIP8;
+import libgdx.EmulatorMain;
+
+/**
+ * Registers EmulatorMetrics MBean of every chip emulator creates (chip8:type=Emulator,session=N) and unregisters it when chip is dropped
+ */
+public class MetricsExporter implements EmulatorMain.ChipListener {
+	private MBeanServer server;
+	private HashMap<CHIP8, ObjectName> names = new HashMap<CHIP8, ObjectName>();
+	private int sessions;
+
+	public MetricsExporter() {
+		server = ManagementFactory.getPlatformMBeanServer();
+	}
+
+	@Override
+	public void chipCreated(CHIP8 chip) {
+		try {
+			ObjectName name = new ObjectName("chip8:type=Emulator,session=" + (++sessions));
+			server.registerMBean(new EmulatorMetrics(chip.getMetrics()), name);
+			names.put(chip, name);
+		} catch (JMException e) {
+			//metrics are optional, emulator runs without them
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void chipDestroyed(CHIP8 chip) {
+		ObjectName name = names.remove(chip);
+		if(name == null)
+			return;
+
+		try {
+			server.unregisterMBean(name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,617 @@
+package chip8.jit;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chip8.BlockCompiler;
+
+/**
+ * Block compiler generating one JVM class per hot basic block, so JIT of host JVM turns chip8 code into machine code
+ * V registers live in locals of generated method (loaded on first use, written back before interpreter helper calls and at block end),
+ * simple instructions (loads, arithmetic, I, timers, jumps, calls, skips) are generated inline, the rest is executed by CHIP8.BlockContext
+ * Block ending with jump to its own start (idle & delay loops) loops inside generated method while it fits into budget given by chip
+ *
+ * Every class is defined by its own class loader, so classes of dropped blocks (f.e. after self modifying write) are unloaded by GC
+ * Classes are built as Java 6 ones (no stack map frames needed), so this works on any desktop JVM but not on Android
+ */
+
+public class BytecodeBlockCompiler implements BlockCompiler {
+
+    /**
+     * Internal names of classes used by generated code
+     */
+    private static final String CODE = "chip8/BlockCompiler$Code";
+    private static final String CONTEXT = "chip8/CHIP8$BlockContext";
+    private static final String MEMORY = "chip8/Memory";
+
+    /**
+     * Locals of generated run() method, V0 - VF take 16 slots starting at V_LOCALS
+     */
+    private static final int CONTEXT_LOCAL = 1, MEMORY_LOCAL = 2, V_ARRAY_LOCAL = 3, V_LOCALS = 4, TEMP_LOCAL = 20, TEMP2_LOCAL = 21, EXECUTED_LOCAL = 22;
+
+    /**
+     * States of register locals while generating code
+     * NONE - local isn't loaded yet (or is outdated after helper call which wrote register)
+     * CLEAN - local holds the same value as memory
+     * DIRTY - local was written and memory is outdated
+     */
+    private static final int NONE = 0, CLEAN = 1, DIRTY = 2;
+
+    /**
+     * Counter used in names of generated classes
+     */
+    private static final AtomicInteger classes = new AtomicInteger();
+
+    /**
+     * Method being generated & state of register locals
+     */
+    private MethodVisitor method;
+    private int[] registers = new int[16];
+
+    /**
+     * Start of block being generated & its loop label (null if block doesn't jump to its own start)
+     */
+    private int block_start;
+    private Label loop;
+
+    @Override
+    public synchronized Code compile(int start, int[] instructions, int length) {
+        String name = "chip8/jit/Block_" + Integer.toHexString(start) + "_" + classes.incrementAndGet();
+        byte[] bytes = generate(name, start, instructions, length);
+
+        try {
+            Class<?> type = new BlockClassLoader(BytecodeBlockCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+            return (Code) type.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Can't create compiled block " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't create compiled block " + name, e);
+        }
+    }
+
+    /**
+     * Generate class implementing BlockCompiler.Code
+     * @param name internal name of class
+     * @param start address of first instruction
+     * @param instructions decoded instructions
+     * @param length amount of instructions
+     * @return class file
+     */
+    private byte[] generate(String name, int start, int[] instructions, int length) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name, null, "java/lang/Object", new String[] { CODE });
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        method = writer.visitMethod(Opcodes.ACC_PUBLIC, "run", "(L" + CONTEXT + ";)I", null, null);
+        method.visitCode();
+
+        //Memory mem = context.memory; byte[] V = mem.V;
+        method.visitVarInsn(Opcodes.ALOAD, CONTEXT_LOCAL);
+        method.visitFieldInsn(Opcodes.GETFIELD, CONTEXT, "memory", "L" + MEMORY + ";");
+        method.visitInsn(Opcodes.DUP);
+        method.visitVarInsn(Opcodes.ASTORE, MEMORY_LOCAL);
+        method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "V", "[B");
+        method.visitVarInsn(Opcodes.ASTORE, V_ARRAY_LOCAL);
+
+        for(int i = 0; i < 16; i++)
+            registers[i] = NONE;
+
+        //executed instructions of previous loop iterations
+        block_start = start;
+        loop = null;
+        if(isLoop(start, instructions[length - 1])) {
+            loop = new Label();
+            push(0);
+            method.visitVarInsn(Opcodes.ISTORE, EXECUTED_LOCAL);
+            method.visitLabel(loop);
+        }
+
+        boolean ended = false;
+        for(int i = 0; i < length && !ended; i++)
+            ended = instruction(instructions[i], start + i * 2, i);
+
+        //straight code ended without branch, continue with the next instruction
+        if(!ended) {
+            flush();
+            setPc(start + length * 2);
+        }
+
+        returnExecuted(length);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        method = null;
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Generate code of one instruction, semantics (including sign quirks) are the same as in CHIP8.execute()
+     * @param decoded packed decoded instruction
+     * @param address address of instruction
+     * @param index index of instruction in block
+     * @return true if instruction was a branch (pc is set already)
+     */
+    private boolean instruction(int decoded, int address, int index) {
+        int opcode = chip8.Opcodes.opcodeOf(decoded);
+
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+
+        switch(chip8.Opcodes.handlerOf(decoded)) {
+            case chip8.Opcodes.LD_VX_NN:
+                push((byte) nn);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.ADD_VX_NN:
+                load(x);
+                push(nn);
+                method.visitInsn(Opcodes.IADD);
+                method.visitInsn(Opcodes.I2B);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.LD_VX_VY:
+                load(y);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.OR:
+                logic(x, y, Opcodes.IOR);
+                return false;
+
+            case chip8.Opcodes.AND:
+                logic(x, y, Opcodes.IAND);
+                return false;
+
+            case chip8.Opcodes.XOR:
+                logic(x, y, Opcodes.IXOR);
+                return false;
+
+            case chip8.Opcodes.ADD_VX_VY:
+                //sum = (VX & 0xff) + (VY & 0xff); VF = sum >> 8; VX = (byte) sum;
+                loadUnsigned(x);
+                loadUnsigned(y);
+                method.visitInsn(Opcodes.IADD);
+                method.visitVarInsn(Opcodes.ISTORE, TEMP_LOCAL);
+                method.visitVarInsn(Opcodes.ILOAD, TEMP_LOCAL);
+                push(8);
+                method.visitInsn(Opcodes.ISHR);
+                store(0xF);
+                method.visitVarInsn(Opcodes.ILOAD, TEMP_LOCAL);
+                method.visitInsn(Opcodes.I2B);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.SUB:
+                subtract(x, y, x);
+                return false;
+
+            case chip8.Opcodes.SUBN:
+                subtract(y, x, x);
+                return false;
+
+            case chip8.Opcodes.SHR:
+                //VF = VX & 1; VX = (VX & 0xff) >>> 1; (VX is read again after VF write, like in interpreter)
+                load(x);
+                push(1);
+                method.visitInsn(Opcodes.IAND);
+                store(0xF);
+                loadUnsigned(x);
+                push(1);
+                method.visitInsn(Opcodes.IUSHR);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.SHL:
+                //VF = (VX & 0x80) >> 7; VX = (byte) ((VX & 0xff) << 1);
+                load(x);
+                push(0x80);
+                method.visitInsn(Opcodes.IAND);
+                push(7);
+                method.visitInsn(Opcodes.ISHR);
+                store(0xF);
+                loadUnsigned(x);
+                push(1);
+                method.visitInsn(Opcodes.ISHL);
+                method.visitInsn(Opcodes.I2B);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.LD_I:
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                push(nnn);
+                method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "I", "I");
+                return false;
+
+            case chip8.Opcodes.ADD_I_VX:
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitInsn(Opcodes.DUP);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "I", "I");
+                load(x);
+                method.visitInsn(Opcodes.IADD);
+                method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "I", "I");
+                return false;
+
+            case chip8.Opcodes.LD_F_VX:
+                //I = (short) (hexadecimalSpritesStartAddress + 5 * VX);
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETSTATIC, MEMORY, "hexadecimalSpritesStartAddress", "S");
+                push(5);
+                load(x);
+                method.visitInsn(Opcodes.IMUL);
+                method.visitInsn(Opcodes.IADD);
+                method.visitInsn(Opcodes.I2S);
+                method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "I", "I");
+                return false;
+
+            case chip8.Opcodes.LD_HF_VX:
+                //I = bigHexadecimalSpritesStartAddress + 10 * (VX & 0xF);
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETSTATIC, MEMORY, "bigHexadecimalSpritesStartAddress", "S");
+                push(10);
+                load(x);
+                push(0xF);
+                method.visitInsn(Opcodes.IAND);
+                method.visitInsn(Opcodes.IMUL);
+                method.visitInsn(Opcodes.IADD);
+                method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "I", "I");
+                return false;
+
+            case chip8.Opcodes.LD_VX_DT:
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "delay_timer", "I");
+                method.visitInsn(Opcodes.I2B);
+                store(x);
+                return false;
+
+            case chip8.Opcodes.LD_DT_VX:
+                setTimer("delay_timer", x);
+                return false;
+
+            case chip8.Opcodes.LD_ST_VX:
+                setTimer("sound_timer", x);
+                return false;
+
+            case chip8.Opcodes.JP:
+                //VIP 64x64 mode switch (if chip has it enabled, see CHIP8.setVipHires()) is done by interpreter
+                if(address == 0x200 && nnn == 0x260)
+                    break;
+
+                flush();
+
+                //if(executed + 2 * length <= context.getBudget()) { executed += length; run block again }
+                if(loop != null && nnn == block_start) {
+                    int length = index + 1;
+                    Label exit = new Label();
+
+                    method.visitVarInsn(Opcodes.ILOAD, EXECUTED_LOCAL);
+                    push(2 * length);
+                    method.visitInsn(Opcodes.IADD);
+                    method.visitVarInsn(Opcodes.ALOAD, CONTEXT_LOCAL);
+                    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CONTEXT, "getBudget", "()I", false);
+                    method.visitJumpInsn(Opcodes.IF_ICMPGT, exit);
+                    method.visitIincInsn(EXECUTED_LOCAL, length);
+                    method.visitJumpInsn(Opcodes.GOTO, loop);
+                    method.visitLabel(exit);
+                }
+
+                setPc(nnn);
+                return true;
+
+            case chip8.Opcodes.CALL:
+                //stack[sp] = address + 2; sp++; pc = NNN;
+                flush();
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "stack", "[I");
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "sp", "I");
+                push(address + 2);
+                method.visitInsn(Opcodes.IASTORE);
+                addSp(1);
+                setPc(nnn);
+                return true;
+
+            case chip8.Opcodes.RET:
+                //sp--; pc = stack[sp];
+                flush();
+                addSp(-1);
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "stack", "[I");
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "sp", "I");
+                method.visitInsn(Opcodes.IALOAD);
+                method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "pc", "I");
+                return true;
+
+            case chip8.Opcodes.JP_V0:
+                flush();
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                load(0);
+                push(nnn);
+                method.visitInsn(Opcodes.IADD);
+                method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "pc", "I");
+                return true;
+
+            case chip8.Opcodes.EXIT:
+                flush();
+                setPc(address);
+                return true;
+
+            case chip8.Opcodes.SE_VX_NN:
+                load(x);
+                push(nn);
+                skip(Opcodes.IF_ICMPNE, address);
+                return true;
+
+            case chip8.Opcodes.SNE_VX_NN:
+                load(x);
+                push(nn);
+                skip(Opcodes.IF_ICMPEQ, address);
+                return true;
+
+            case chip8.Opcodes.SE_VX_VY:
+                load(x);
+                load(y);
+                skip(Opcodes.IF_ICMPNE, address);
+                return true;
+
+            case chip8.Opcodes.SNE_VX_VY:
+                load(x);
+                load(y);
+                skip(Opcodes.IF_ICMPEQ, address);
+                return true;
+
+            case chip8.Opcodes.SKP:
+            case chip8.Opcodes.SKNP:
+                //key[VX] == 1
+                method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+                method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "key", "[B");
+                load(x);
+                method.visitInsn(Opcodes.BALOAD);
+                push(1);
+                skip(chip8.Opcodes.handlerOf(decoded) == chip8.Opcodes.SKP ? Opcodes.IF_ICMPNE : Opcodes.IF_ICMPEQ, address);
+                return true;
+        }
+
+        return interpret(decoded, address, index);
+    }
+
+    /**
+     * Generate call of interpreter for instruction which isn't generated inline
+     * @return true if instruction was a branch (pc was set by interpreter)
+     */
+    private boolean interpret(int decoded, int address, int index) {
+        int handler = chip8.Opcodes.handlerOf(decoded);
+        int x = (chip8.Opcodes.opcodeOf(decoded) & 0x0F00) >> 8;
+
+        //interpreter works on registers in memory
+        flush();
+
+        method.visitVarInsn(Opcodes.ALOAD, CONTEXT_LOCAL);
+        push(decoded);
+        push(address);
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CONTEXT, "execute", "(II)Z", false);
+
+        if(chip8.Opcodes.isBranch(handler)) {
+            method.visitInsn(Opcodes.POP);
+            return true;
+        }
+
+        //memory accesses (FX33, FX55, FX65, DXYN sprite reads) can overwrite this block or halt on fault, registers are in memory already so just leave
+        Label next = new Label();
+        method.visitJumpInsn(Opcodes.IFEQ, next);
+        setPc(address + 2);
+        returnExecuted(index + 1);
+        method.visitLabel(next);
+
+        //registers written by interpreter have to be read again
+        switch(handler) {
+            case chip8.Opcodes.RND:
+                registers[x] = NONE;
+                break;
+
+            case chip8.Opcodes.DRW:
+                registers[0xF] = NONE;
+                break;
+
+            case chip8.Opcodes.LD_VX_I:
+            case chip8.Opcodes.LD_VX_R:
+                for(int i = 0; i <= x; i++)
+                    registers[i] = NONE;
+                break;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param start address of first instruction
+     * @param last the last instruction of block
+     * @return true if block ends with jump to its own start
+     */
+    private static boolean isLoop(int start, int last) {
+        int opcode = chip8.Opcodes.opcodeOf(last);
+        return chip8.Opcodes.handlerOf(last) == chip8.Opcodes.JP && (opcode & 0x0FFF) == start && !(start == 0x200 && opcode == 0x1260);
+    }
+
+    /**
+     * Return amount of executed instructions (plus instructions of previous iterations of looping block)
+     * @param count amount of executed instructions of current iteration
+     */
+    private void returnExecuted(int count) {
+        push(count);
+        if(loop != null) {
+            method.visitVarInsn(Opcodes.ILOAD, EXECUTED_LOCAL);
+            method.visitInsn(Opcodes.IADD);
+        }
+
+        method.visitInsn(Opcodes.IRETURN);
+    }
+
+    /**
+     * VX = VX op VY, operands are sign extended bytes so result of bitwise operation is one too
+     */
+    private void logic(int x, int y, int operation) {
+        load(x);
+        load(y);
+        method.visitInsn(operation);
+        store(x);
+    }
+
+    /**
+     * result = (byte) (A - B); VF = (A & 0xff) > (B & 0xff) ? 1 : 0; target = result;
+     */
+    private void subtract(int a, int b, int target) {
+        loadUnsigned(a);
+        method.visitVarInsn(Opcodes.ISTORE, TEMP_LOCAL);
+        loadUnsigned(b);
+        method.visitVarInsn(Opcodes.ISTORE, TEMP2_LOCAL);
+
+        //both are 0 - 255, so sign of B - A tells if A > B
+        method.visitVarInsn(Opcodes.ILOAD, TEMP2_LOCAL);
+        method.visitVarInsn(Opcodes.ILOAD, TEMP_LOCAL);
+        method.visitInsn(Opcodes.ISUB);
+        push(31);
+        method.visitInsn(Opcodes.IUSHR);
+        store(0xF);
+
+        method.visitVarInsn(Opcodes.ILOAD, TEMP_LOCAL);
+        method.visitVarInsn(Opcodes.ILOAD, TEMP2_LOCAL);
+        method.visitInsn(Opcodes.ISUB);
+        method.visitInsn(Opcodes.I2B);
+        store(target);
+    }
+
+    /**
+     * Set pc to address + 4 if condition is true, address + 2 otherwise, compared values are on stack
+     * @param not_taken jump instruction taken when condition is false
+     * @param address address of skip instruction
+     */
+    private void skip(int not_taken, int address) {
+        flush();
+
+        Label no_skip = new Label(), end = new Label();
+        method.visitJumpInsn(not_taken, no_skip);
+        push(address + 4);
+        method.visitJumpInsn(Opcodes.GOTO, end);
+        method.visitLabel(no_skip);
+        push(address + 2);
+        method.visitLabel(end);
+
+        method.visitVarInsn(Opcodes.ISTORE, TEMP_LOCAL);
+        method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+        method.visitVarInsn(Opcodes.ILOAD, TEMP_LOCAL);
+        method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "pc", "I");
+    }
+
+    /**
+     * timer = VX & 0xff;
+     */
+    private void setTimer(String timer, int x) {
+        method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+        loadUnsigned(x);
+        method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, timer, "I");
+    }
+
+    private void addSp(int amount) {
+        method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+        method.visitInsn(Opcodes.DUP);
+        method.visitFieldInsn(Opcodes.GETFIELD, MEMORY, "sp", "I");
+        push(amount);
+        method.visitInsn(Opcodes.IADD);
+        method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "sp", "I");
+    }
+
+    private void setPc(int pc) {
+        method.visitVarInsn(Opcodes.ALOAD, MEMORY_LOCAL);
+        push(pc);
+        method.visitFieldInsn(Opcodes.PUTFIELD, MEMORY, "pc", "I");
+    }
+
+    /**
+     * Push register value (sign extended byte, like Memory.V), local is loaded from memory on first use
+     */
+    private void load(int register) {
+        if(registers[register] == NONE) {
+            method.visitVarInsn(Opcodes.ALOAD, V_ARRAY_LOCAL);
+            push(register);
+            method.visitInsn(Opcodes.BALOAD);
+            method.visitVarInsn(Opcodes.ISTORE, V_LOCALS + register);
+            registers[register] = CLEAN;
+        }
+
+        method.visitVarInsn(Opcodes.ILOAD, V_LOCALS + register);
+    }
+
+    /**
+     * Push register value as 0 - 255
+     */
+    private void loadUnsigned(int register) {
+        load(register);
+        push(0xFF);
+        method.visitInsn(Opcodes.IAND);
+    }
+
+    /**
+     * Pop value into register local, value has to be in byte range already
+     */
+    private void store(int register) {
+        method.visitVarInsn(Opcodes.ISTORE, V_LOCALS + register);
+        registers[register] = DIRTY;
+    }
+
+    /**
+     * Write every changed register local back into memory
+     */
+    private void flush() {
+        for(int register = 0; register < 16; register++) {
+            if(registers[register] == DIRTY) {
+                method.visitVarInsn(Opcodes.ALOAD, V_ARRAY_LOCAL);
+                push(register);
+                method.visitVarInsn(Opcodes.ILOAD, V_LOCALS + register);
+                method.visitInsn(Opcodes.BASTORE);
+                registers[register] = CLEAN;
+            }
+        }
+    }
+
+    private void push(int value) {
+        if(value >= -1 && value <= 5)
+            method.visitInsn(Opcodes.ICONST_0 + value);
+        else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            method.visitIntInsn(Opcodes.BIPUSH, value);
+        else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            method.visitIntInsn(Opcodes.SIPUSH, value);
+        else
+            method.visitLdcInsn(value);
+    }
+
+    /**
+     * Class loader of one generated class
+     */
+    private static class BlockClassLoader extends ClassLoader {
+        BlockClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}